@@ -1,5 +1,6 @@
 plugins {
     `java-library`
+    id("me.champeau.jmh") version "0.6.8"
 }
 
 group = "xyz.holocons.mc"
@@ -12,23 +13,65 @@ java {
 }
 
 repositories {
+    mavenCentral()
     maven("https://papermc.io/repo/repository/maven-public/")
     maven("https://repo.dmulloy2.net/repository/public/")
 }
 
+// Headless load simulator, runs the plugin against stand-ins for the server and ProtocolLib
+sourceSets {
+    create("loadtest") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
 dependencies {
     compileOnly("io.papermc.paper:paper-api:1.18.1-R0.1-SNAPSHOT")
     compileOnly("com.comphenix.protocol:ProtocolLib:4.7.0")
+
+    // Benchmarks run without a server, so the API has to be on their runtime classpath
+    jmh("io.papermc.paper:paper-api:1.18.1-R0.1-SNAPSHOT")
+    // The hologram benchmark runs the plugin on the simulator's server and ProtocolLib stand-ins
+    jmh(sourceSets["loadtest"].output)
+    // ProtocolLib is left out on purpose, the simulator brings its own
+    "loadtestImplementation"("io.papermc.paper:paper-api:1.18.1-R0.1-SNAPSHOT")
+
+    testImplementation("org.junit.jupiter:junit-jupiter:5.8.2")
+    // Like the benchmarks, tests that need a server run the plugin on the simulator's
+    testImplementation("io.papermc.paper:paper-api:1.18.1-R0.1-SNAPSHOT")
+    testImplementation(sourceSets["loadtest"].output)
+}
+
+jmh {
+    jmhVersion.set("1.35")
+    // ./gradlew jmh -PjmhProfilers=gc to include allocation rates
+    profilers.set(providers.gradleProperty("jmhProfilers").map { it.split(',') }.orElse(listOf()))
+    // ./gradlew jmh -PjmhIncludes=WaypointManager to run a subset
+    includes.set(providers.gradleProperty("jmhIncludes").map { listOf(it) }.orElse(listOf()))
 }
 
 tasks {
-    compileJava {
+    withType<JavaCompile> {
         options.encoding = Charsets.UTF_8.name() // We want UTF-8 for everything
 
         // Set the release flag. This configures what version bytecode the compiler will emit, as well as what JDK APIs are usable.
         // See https://openjdk.java.net/jeps/247 for more information.
         options.release.set(17)
     }
+    // ./gradlew simulate --args="players=500 ticks=6000"
+    register<JavaExec>("simulate") {
+        description = "Runs the plugin against a simulated server with synthetic players"
+        classpath = sourceSets["loadtest"].runtimeClasspath
+        mainClass.set("xyz.holocons.mc.waypoints.LoadSimulator")
+        workingDir = layout.buildDirectory.dir("loadtest").get().asFile
+        doFirst {
+            workingDir.mkdirs()
+        }
+    }
+    test {
+        useJUnitPlatform()
+    }
     javadoc {
         options.encoding = Charsets.UTF_8.name() // We want UTF-8 for everything
     }
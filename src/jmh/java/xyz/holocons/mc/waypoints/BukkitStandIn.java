@@ -0,0 +1,104 @@
+package xyz.holocons.mc.waypoints;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+// Just enough of a server for the plugin's data classes to run in a benchmark. Worlds have a name and UID, every
+// block is empty, and anything else returns null, false or 0.
+public final class BukkitStandIn {
+
+    private static final HashMap<String, World> WORLDS_BY_NAME = new HashMap<>();
+    private static final HashMap<UUID, World> WORLDS_BY_UID = new HashMap<>();
+    private static final Block EMPTY_BLOCK = proxy(Block.class, (method, args) -> switch (method) {
+        case "getDrops" -> List.of();
+        default -> null;
+    });
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private BukkitStandIn() {
+    }
+
+    public static synchronized void install() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+
+        Bukkit.setServer(proxy(Server.class, (method, args) -> switch (method) {
+            case "getLogger" -> Logger.getLogger("BukkitStandIn");
+            case "getName", "getVersion", "getBukkitVersion" -> "StandIn";
+            case "getWorld" -> args[0] instanceof UUID uniqueId
+                ? WORLDS_BY_UID.get(uniqueId)
+                : WORLDS_BY_NAME.get((String) args[0]);
+            default -> null;
+        }));
+    }
+
+    public static synchronized World world(String name) {
+        install();
+
+        return WORLDS_BY_NAME.computeIfAbsent(name, key -> {
+            final var uniqueId = UUID.nameUUIDFromBytes(name.getBytes());
+            final var world = proxy(World.class, (method, args) -> switch (method) {
+                case "getName" -> name;
+                case "getUID" -> uniqueId;
+                case "getBlockAt" -> EMPTY_BLOCK;
+                default -> null;
+            });
+
+            WORLDS_BY_UID.put(uniqueId, world);
+            return world;
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        final var instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return type.getSimpleName() + "StandIn";
+                    default:
+                        break;
+                }
+
+                final var result = handler.invoke(method.getName(), args);
+
+                if (result != null || !method.getReturnType().isPrimitive()) {
+                    return result;
+                }
+
+                // Primitive defaults for everything the stand-in doesn't implement
+                final var returnType = method.getReturnType();
+
+                if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == void.class) {
+                    return null;
+                } else if (returnType == double.class) {
+                    return 0.0;
+                } else if (returnType == float.class) {
+                    return 0.0f;
+                } else if (returnType == long.class) {
+                    return 0L;
+                } else {
+                    return 0;
+                }
+            });
+
+        return type.cast(instance);
+    }
+}
@@ -0,0 +1,113 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Whole traveler files, read sequentially and in parallel and written by TravelerManager. Writing includes the fsync
+// and rename of GsonWriter, so it's as slow as the disk the temp directory is on.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GsonTravelerBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int travelers;
+
+    // Highest waypoint id a traveler can have registered
+    @Param({ "1000" })
+    public int waypoints;
+
+    private Gson gson;
+    private HashMap<UUID, Traveler> dataset;
+    private File directory;
+    private File readFile;
+    private File writeFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final var world = BukkitStandIn.world("world");
+        final var random = new SplittableRandom(1);
+
+        gson = new Gson();
+        dataset = new HashMap<>();
+
+        for (int i = 0; i < travelers; i++) {
+            final var registered = new BitSet(waypoints);
+
+            for (int j = 0; j < waypoints / 10; j++) {
+                registered.set(random.nextInt(waypoints));
+            }
+
+            final var home = new Location(world, random.nextInt(-10000, 10000), 64, random.nextInt(-10000, 10000));
+            final var camp = random.nextBoolean()
+                ? new Location(world, random.nextInt(-10000, 10000), 64, random.nextInt(-10000, 10000))
+                : null;
+            final var now = System.currentTimeMillis();
+
+            dataset.put(new UUID(random.nextLong(), random.nextLong()),
+                new Traveler(random.nextInt(10), random.nextInt(2), StoredLocation.of(home), StoredLocation.of(camp),
+                    registered, now, now));
+        }
+
+        directory = Files.createTempDirectory("waypoints-jmh").toFile();
+        readFile = new File(directory, "read.json");
+        writeFile = new File(directory, "write.json");
+
+        write(readFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        readFile.delete();
+        writeFile.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public Map<UUID, Traveler> readTravelers() throws IOException {
+        return TravelerManager.readTravelersJson(gson, readFile);
+    }
+
+    // Split into chunks across the common pool, as the startup loader does
+    @Benchmark
+    public Map<UUID, Traveler> readTravelersParallel() throws IOException {
+        return TravelerManager.readTravelersJson(gson, readFile, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public void writeTravelers() throws IOException {
+        write(writeFile);
+    }
+
+    private void write(File file) throws IOException {
+        TravelerManager.writeTravelersJson(gson, file, dataset);
+    }
+}
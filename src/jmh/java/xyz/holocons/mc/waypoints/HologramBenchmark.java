@@ -0,0 +1,158 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.comphenix.protocol.events.PacketContainer;
+
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Runs the plugin on the load simulator's server, so Hologram builds its packets with the ProtocolLib stand-ins and
+// HologramManager does its real bookkeeping. The stand-ins keep packet fields in plain arrays, which costs about what
+// writing them through real handles would. Sending only counts packets, on the manager's sender thread.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HologramBenchmark {
+
+    @Param({ "100" })
+    public int players;
+
+    // Holograms each player has in view
+    @Param({ "50" })
+    public int shown;
+
+    private SimulatedServer server;
+    private File dataFolder;
+    private PaperPlugin plugin;
+    private HologramManager hologramManager;
+    private Waypoint[] waypoints;
+    private SimulatedPlayer[] simulatedPlayers;
+    private UUID hologramId;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ReflectiveOperationException {
+        server = new SimulatedServer();
+        dataFolder = Files.createTempDirectory("waypoints-jmh").toFile();
+
+        final var world = server.createWorld("world");
+        final var random = new SplittableRandom(1);
+
+        plugin = server.enablePlugin(dataFolder);
+        hologramManager = plugin.getHologramManager();
+
+        final var waypointManager = plugin.getWaypointManager();
+        final var waypointList = new ArrayList<Waypoint>();
+
+        for (int i = 0; i < shown * 4; i++) {
+            final var waypoint = waypointManager.createWaypoint(new Location(world, i * 16 + 8, 64, 8));
+
+            if (i % 2 == 0) {
+                waypointManager.activateWaypoint(waypoint);
+            }
+
+            waypointList.add(waypoint);
+        }
+
+        waypoints = waypointList.toArray(Waypoint[]::new);
+        simulatedPlayers = new SimulatedPlayer[players];
+        hologramId = new UUID(random.nextLong(), random.nextLong());
+
+        for (int i = 0; i < players; i++) {
+            final var player = new SimulatedPlayer(new UUID(random.nextLong(), random.nextLong()), "Player" + i,
+                new Location(world, random.nextInt(shown * 64), 64, 8));
+
+            player.setOnline(true);
+            server.addPlayer(player.getPlayer());
+            simulatedPlayers[i] = player;
+
+            for (int j = 0; j < shown; j++) {
+                hologramManager.show(waypoints[random.nextInt(waypoints.length)], player.getPlayer());
+            }
+        }
+
+        // Spawns are spread over ticks, dispatch until every player has everything
+        for (int i = 0; i < shown; i++) {
+            hologramManager.run();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, ReflectiveOperationException {
+        server.disablePlugin(plugin);
+        server.shutdown();
+        SimulatedServer.deleteDataFolder(dataFolder);
+    }
+
+    private int next() {
+        return index = (index + 1) & Integer.MAX_VALUE;
+    }
+
+    @Benchmark
+    public PacketContainer createSpawnPacket() {
+        return Hologram.createSpawnPacket(next(), hologramId, waypoints[index % waypoints.length]);
+    }
+
+    // Includes turning the display name into chat JSON
+    @Benchmark
+    public PacketContainer createMetadataPacket() {
+        return Hologram.createMetadataPacket(next(), waypoints[index % waypoints.length]);
+    }
+
+    // A chunk unload followed by a load of the same waypoint for one player, then the tick's dispatch
+    @Benchmark
+    public void hideAndShow() {
+        final var i = next();
+        final var player = simulatedPlayers[i % simulatedPlayers.length].getPlayer();
+        final var waypoint = waypoints[i % waypoints.length];
+
+        hologramManager.hide(waypoint, player);
+        hologramManager.show(waypoint, player);
+        hologramManager.run();
+    }
+
+    // Fan-out of a metadata update to everyone viewing a waypoint
+    @Benchmark
+    public void updateViewers() {
+        hologramManager.updateViewers(waypoints[next() % waypoints.length]);
+    }
+
+    // A quitting player's holograms being forgotten, then spawned again on join
+    @Benchmark
+    public void removePlayer() {
+        final var i = next();
+        final var player = simulatedPlayers[i % simulatedPlayers.length].getPlayer();
+
+        hologramManager.remove(player);
+
+        for (int j = 0; j < shown; j++) {
+            hologramManager.show(waypoints[(i + j) % waypoints.length], player);
+        }
+
+        for (int j = 0; j < shown; j++) {
+            hologramManager.run();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaypointManagerBenchmark {
+
+    // Lookups cycle through this many precomputed keys, half of them hit a waypoint
+    private static final int KEYS = 4096;
+
+    @Param({ "1000", "10000", "100000" })
+    public int waypoints;
+
+    private World world;
+    private WaypointManager waypointManager;
+    private long[] chunkKeys;
+    private int[] ids;
+    private Location[] locations;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        world = BukkitStandIn.world("world");
+        waypointManager = new WaypointManager();
+
+        // One waypoint per chunk, scattered over a square that's twice as large as needed
+        final var random = new SplittableRandom(1);
+        final var side = (int) Math.ceil(Math.sqrt(waypoints * 2.0));
+        var created = 0;
+
+        while (created < waypoints) {
+            final var location = new Location(world, random.nextInt(side) * 16 + 8, 64, random.nextInt(side) * 16 + 8);
+
+            if (waypointManager.createWaypoint(location) != null) {
+                created++;
+            }
+        }
+
+        chunkKeys = new long[KEYS];
+        ids = new int[KEYS];
+        locations = new Location[KEYS];
+
+        for (int i = 0; i < KEYS; i++) {
+            final var location = new Location(world, random.nextInt(side) * 16 + 8, 64, random.nextInt(side) * 16 + 8);
+
+            chunkKeys[i] = Chunk.getChunkKey(location);
+            ids[i] = random.nextInt(waypoints);
+            locations[i] = location;
+        }
+    }
+
+    private int next() {
+        return index = (index + 1) & (KEYS - 1);
+    }
+
+    @Benchmark
+    public Waypoint getWaypointByChunk() {
+        return waypointManager.getWaypoint(world, chunkKeys[next()]);
+    }
+
+    @Benchmark
+    public Waypoint getWaypointById() {
+        return waypointManager.getWaypoint(ids[next()]);
+    }
+
+    @Benchmark
+    public boolean isWaypoint() {
+        return waypointManager.isWaypoint(locations[next()]);
+    }
+
+    @Benchmark
+    public void forEachWaypointNear(Blackhole blackhole) {
+        final var location = locations[next()];
+
+        // Radius of the default hologram show distance
+        waypointManager.forEachWaypointNear(world, location.getBlockX() >> 4, location.getBlockZ() >> 4, 7,
+            blackhole::consume);
+    }
+
+    @Benchmark
+    public long countActiveWaypoints() {
+        return waypointManager.getActiveWaypoints().count();
+    }
+}
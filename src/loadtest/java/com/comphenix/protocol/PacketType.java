@@ -0,0 +1,31 @@
+package com.comphenix.protocol;
+
+public final class PacketType {
+
+    public static final class Play {
+
+        public static final class Server {
+
+            public static final PacketType SPAWN_ENTITY_LIVING = new PacketType("SPAWN_ENTITY_LIVING");
+            public static final PacketType ENTITY_METADATA = new PacketType("ENTITY_METADATA");
+            public static final PacketType ENTITY_DESTROY = new PacketType("ENTITY_DESTROY");
+
+            private Server() {
+            }
+        }
+
+        private Play() {
+        }
+    }
+
+    private final String name;
+
+    private PacketType(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
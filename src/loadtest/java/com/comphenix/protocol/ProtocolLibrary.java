@@ -0,0 +1,15 @@
+package com.comphenix.protocol;
+
+// Stand-in for ProtocolLib in the load simulator, only what the plugin uses
+public final class ProtocolLibrary {
+
+    private static final ProtocolManager PROTOCOL_MANAGER = new ProtocolManager() {
+    };
+
+    private ProtocolLibrary() {
+    }
+
+    public static ProtocolManager getProtocolManager() {
+        return PROTOCOL_MANAGER;
+    }
+}
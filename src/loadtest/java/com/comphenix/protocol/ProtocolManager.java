@@ -0,0 +1,18 @@
+package com.comphenix.protocol;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.comphenix.protocol.events.PacketContainer;
+
+import org.bukkit.entity.Player;
+
+// Counts packets instead of sending them
+public interface ProtocolManager {
+
+    LongAdder PACKETS_SENT = new LongAdder();
+
+    default void sendServerPacket(Player receiver, PacketContainer packet) throws InvocationTargetException {
+        PACKETS_SENT.increment();
+    }
+}
@@ -0,0 +1,58 @@
+package com.comphenix.protocol.events;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.reflect.StructureModifier;
+import com.comphenix.protocol.wrappers.WrappedWatchableObject;
+
+// Keeps the written fields in plain arrays, so building a packet costs about what it would with real handles
+public class PacketContainer {
+
+    private final PacketType type;
+    private final StructureModifier<Integer> integers;
+    private final StructureModifier<Double> doubles;
+    private final StructureModifier<UUID> uniqueIds;
+    private final StructureModifier<Byte> bytes;
+    private final StructureModifier<List<Integer>> intLists;
+    private final StructureModifier<List<WrappedWatchableObject>> watchableCollections;
+
+    public PacketContainer(PacketType type) {
+        this.type = type;
+        this.integers = new StructureModifier<>(5);
+        this.doubles = new StructureModifier<>(3);
+        this.uniqueIds = new StructureModifier<>(1);
+        this.bytes = new StructureModifier<>(3);
+        this.intLists = new StructureModifier<>(1);
+        this.watchableCollections = new StructureModifier<>(1);
+    }
+
+    public PacketType getType() {
+        return type;
+    }
+
+    public StructureModifier<Integer> getIntegers() {
+        return integers;
+    }
+
+    public StructureModifier<Double> getDoubles() {
+        return doubles;
+    }
+
+    public StructureModifier<UUID> getUUIDs() {
+        return uniqueIds;
+    }
+
+    public StructureModifier<Byte> getBytes() {
+        return bytes;
+    }
+
+    public StructureModifier<List<Integer>> getIntLists() {
+        return intLists;
+    }
+
+    public StructureModifier<List<WrappedWatchableObject>> getWatchableCollectionModifier() {
+        return watchableCollections;
+    }
+}
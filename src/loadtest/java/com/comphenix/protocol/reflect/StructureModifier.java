@@ -0,0 +1,20 @@
+package com.comphenix.protocol.reflect;
+
+public class StructureModifier<T> {
+
+    private final Object[] values;
+
+    public StructureModifier(int size) {
+        this.values = new Object[size];
+    }
+
+    public StructureModifier<T> write(int index, T value) {
+        values[index] = value;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T read(int index) {
+        return (T) values[index];
+    }
+}
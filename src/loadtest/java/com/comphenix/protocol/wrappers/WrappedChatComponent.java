@@ -0,0 +1,22 @@
+package com.comphenix.protocol.wrappers;
+
+public class WrappedChatComponent {
+
+    private final String json;
+
+    private WrappedChatComponent(String json) {
+        this.json = json;
+    }
+
+    public static WrappedChatComponent fromJson(String json) {
+        return new WrappedChatComponent(json);
+    }
+
+    public Object getHandle() {
+        return json;
+    }
+
+    public String getJson() {
+        return json;
+    }
+}
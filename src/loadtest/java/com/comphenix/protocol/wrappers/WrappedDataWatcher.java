@@ -0,0 +1,55 @@
+package com.comphenix.protocol.wrappers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WrappedDataWatcher {
+
+    public static class Serializer {
+
+        private final Class<?> type;
+        private final boolean optional;
+
+        private Serializer(Class<?> type, boolean optional) {
+            this.type = type;
+            this.optional = optional;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public boolean isOptional() {
+            return optional;
+        }
+    }
+
+    public static class Registry {
+
+        private Registry() {
+        }
+
+        public static Serializer get(Class<?> clazz) {
+            return new Serializer(clazz, false);
+        }
+
+        public static Serializer getChatComponentSerializer(boolean optional) {
+            return new Serializer(WrappedChatComponent.class, optional);
+        }
+    }
+
+    private final ArrayList<WrappedWatchableObject> watchableObjects;
+
+    public WrappedDataWatcher() {
+        this.watchableObjects = new ArrayList<>();
+    }
+
+    public void setObject(int index, Serializer serializer, Object value, boolean update) {
+        watchableObjects.removeIf(object -> object.getIndex() == index);
+        watchableObjects.add(new WrappedWatchableObject(index, serializer, value));
+    }
+
+    public List<WrappedWatchableObject> getWatchableObjects() {
+        return new ArrayList<>(watchableObjects);
+    }
+}
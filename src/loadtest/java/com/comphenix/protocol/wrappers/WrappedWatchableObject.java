@@ -0,0 +1,26 @@
+package com.comphenix.protocol.wrappers;
+
+public class WrappedWatchableObject {
+
+    private final int index;
+    private final WrappedDataWatcher.Serializer serializer;
+    private final Object value;
+
+    WrappedWatchableObject(int index, WrappedDataWatcher.Serializer serializer, Object value) {
+        this.index = index;
+        this.serializer = serializer;
+        this.value = value;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public WrappedDataWatcher.Serializer getSerializer() {
+        return serializer;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+}
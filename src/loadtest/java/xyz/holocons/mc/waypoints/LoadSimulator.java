@@ -0,0 +1,410 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import com.comphenix.protocol.ProtocolManager;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.inventory.EquipmentSlot;
+
+import io.papermc.paper.event.packet.PlayerChunkLoadEvent;
+import io.papermc.paper.event.packet.PlayerChunkUnloadEvent;
+import net.kyori.adventure.text.Component;
+
+// Runs the real plugin on a simulated server and drives EventListener with synthetic players. Everything happens on
+// the main thread at full speed, so a simulated second takes as long as the plugin needs for 20 ticks of traffic.
+//
+// ./gradlew simulate --args="players=500 ticks=6000 clicks-per-second=50"
+public final class LoadSimulator {
+
+    private static final double WALK_SPEED = 0.28;
+
+    private record Options(int players, int ticks, double joinRate, int viewDistance, int waypoints, int area,
+        double clicksPerSecond, double teleportsPerSecond, double editsPerSecond, long seed) {
+
+        static Options parse(String[] args) {
+            final var values = new HashMap<String, String>();
+
+            for (final var arg : args) {
+                final var separator = arg.indexOf('=');
+
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected key=value, got " + arg);
+                }
+
+                values.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+
+            final var options = new Options(
+                Integer.parseInt(values.getOrDefault("players", "500")),
+                Integer.parseInt(values.getOrDefault("ticks", "6000")),
+                Double.parseDouble(values.getOrDefault("join-rate", "5")),
+                Integer.parseInt(values.getOrDefault("view-distance", "10")),
+                Integer.parseInt(values.getOrDefault("waypoints", "2000")),
+                Integer.parseInt(values.getOrDefault("area", "4096")),
+                Double.parseDouble(values.getOrDefault("clicks-per-second", "50")),
+                Double.parseDouble(values.getOrDefault("teleports-per-second", "5")),
+                Double.parseDouble(values.getOrDefault("edits-per-second", "2")),
+                Long.parseLong(values.getOrDefault("seed", "1")));
+
+            values.keySet().removeAll(List.of("players", "ticks", "join-rate", "view-distance", "waypoints",
+                "area", "clicks-per-second", "teleports-per-second", "edits-per-second", "seed"));
+
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options " + values.keySet());
+            }
+
+            return options;
+        }
+    }
+
+    private final Options options;
+    private final SplittableRandom random;
+    private final SimulatedServer server;
+    private final World world;
+    private final File dataFolder;
+    private final com.sun.management.ThreadMXBean threads;
+    private final ArrayList<SimulatedPlayer> players = new ArrayList<>();
+    private final HashMap<String, Long> events = new HashMap<>();
+    private PaperPlugin plugin;
+    private EventListener listener;
+    private PluginCommand command;
+    private Metrics.Timer tickTimer;
+    private long allocatedBytes;
+    private double joinBudget;
+    private double clickBudget;
+    private double teleportBudget;
+    private double editBudget;
+
+    private LoadSimulator(Options options) throws IOException {
+        this.options = options;
+        this.random = new SplittableRandom(options.seed());
+        this.server = new SimulatedServer();
+        this.world = server.createWorld("world");
+        // Every run starts from empty data files of its own, nothing outside the temp directory is touched
+        this.dataFolder = Files.createTempDirectory("waypoints-loadtest").toFile();
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadSimulator(Options.parse(args)).run();
+    }
+
+    private void run() throws Exception {
+        enablePlugin();
+        createWaypoints();
+
+        final var packetsBefore = ProtocolManager.PACKETS_SENT.sum();
+        final var wallStart = System.nanoTime();
+
+        for (int tick = 0; tick < options.ticks(); tick++) {
+            final var start = System.nanoTime();
+
+            measure(server::tick);
+            applyTeleports();
+            joinPlayers();
+            movePlayers();
+            clickBanners();
+            queueTeleports();
+            queueEdits();
+
+            tickTimer.record(start);
+        }
+
+        final var wallNanos = System.nanoTime() - wallStart;
+
+        // Snapshot the metrics before the shutdown save adds to them
+        final var report = plugin.getMetrics().report();
+
+        for (final var player : players) {
+            fire("quit", () -> listener.onPlayerQuit(new PlayerQuitEvent(player.getPlayer(), (Component) null,
+                PlayerQuitEvent.QuitReason.DISCONNECTED)));
+        }
+
+        // Every queued packet has been counted once the plugin is disabled
+        server.disablePlugin(plugin);
+        server.shutdown();
+
+        final var packets = ProtocolManager.PACKETS_SENT.sum() - packetsBefore;
+
+        SimulatedServer.deleteDataFolder(dataFolder);
+        printReport(report, wallNanos, packets);
+    }
+
+    private void enablePlugin() throws IOException, ReflectiveOperationException {
+        plugin = server.enablePlugin(dataFolder);
+        listener = (EventListener) server.getListener();
+        command = server.getCommand("waypoints");
+        tickTimer = plugin.getMetrics().timer("simulator.tick");
+    }
+
+    // One waypoint per chunk at most, three in four of them active and the rest waiting on contributors
+    private void createWaypoints() {
+        final var waypointManager = plugin.getWaypointManager();
+        final var half = options.area() / 2;
+        var attempts = options.waypoints() * 10;
+        var created = 0;
+
+        while (created < options.waypoints() && attempts-- > 0) {
+            final var location = new Location(world, random.nextInt(-half, half), 64, random.nextInt(-half, half));
+            final var waypoint = waypointManager.createWaypoint(location);
+
+            if (waypoint == null) {
+                continue;
+            }
+
+            if (random.nextInt(4) != 0) {
+                waypointManager.activateWaypoint(waypoint);
+            } else {
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    waypoint.addContributor(new UUID(random.nextLong(), random.nextLong()));
+                }
+            }
+
+            created++;
+        }
+    }
+
+    private void joinPlayers() {
+        joinBudget += options.joinRate();
+
+        while (joinBudget >= 1 && players.size() < options.players()) {
+            joinBudget--;
+
+            final var half = options.area() / 2;
+            final var spawn = new Location(world, random.nextInt(-half, half) + 0.5, 64,
+                random.nextInt(-half, half) + 0.5);
+            final var angle = random.nextDouble(Math.PI * 2);
+            final var player = new SimulatedPlayer(new UUID(random.nextLong(), random.nextLong()),
+                "Player" + players.size(), spawn);
+
+            player.setDirection(Math.cos(angle) * WALK_SPEED, Math.sin(angle) * WALK_SPEED);
+            player.setOnline(true);
+            players.add(player);
+            server.addPlayer(player.getPlayer());
+
+            fire("join", () -> listener.onPlayerJoin(new PlayerJoinEvent(player.getPlayer(), (Component) null)));
+            plugin.getTravelerManager().getOrCreateTraveler(player.getPlayer()).setHome(spawn.clone());
+
+            // The whole view distance is sent at once, a real server spreads it over a few ticks
+            final var chunkX = spawn.getBlockX() >> 4;
+            final var chunkZ = spawn.getBlockZ() >> 4;
+            final var radius = options.viewDistance();
+
+            for (int x = chunkX - radius; x <= chunkX + radius; x++) {
+                for (int z = chunkZ - radius; z <= chunkZ + radius; z++) {
+                    loadChunk(player, x, z);
+                }
+            }
+        }
+    }
+
+    // Players walk in straight lines and turn around at the edge of the area
+    private void movePlayers() {
+        final var half = options.area() / 2;
+        final var currentTick = server.getCurrentTick();
+
+        for (final var player : players) {
+            if (player.isStationary(currentTick)) {
+                continue;
+            }
+
+            final var from = player.getLocation();
+            final var to = from.clone().add(player.getDirectionX(), 0, player.getDirectionZ());
+
+            if (Math.abs(to.getX()) >= half || Math.abs(to.getZ()) >= half) {
+                player.setDirection(-player.getDirectionX(), -player.getDirectionZ());
+                continue;
+            }
+
+            fire("move", () -> listener.onPlayerMove(new PlayerMoveEvent(player.getPlayer(), from, to)));
+            player.setLocation(to);
+            streamChunks(player, from, to);
+        }
+    }
+
+    private void applyTeleports() {
+        for (final var player : players) {
+            final var destination = player.takePendingTeleport();
+
+            if (destination == null) {
+                continue;
+            }
+
+            final var from = player.getLocation();
+
+            fire("teleport", () -> listener.onPlayerTeleport(new PlayerTeleportEvent(player.getPlayer(), from,
+                destination)));
+            player.setLocation(destination);
+            streamChunks(player, from, destination);
+        }
+    }
+
+    private void clickBanners() {
+        clickBudget += options.clicksPerSecond() / 20;
+
+        while (clickBudget >= 1) {
+            clickBudget--;
+            clickBanner(randomPlayer());
+        }
+    }
+
+    private void queueTeleports() {
+        teleportBudget += options.teleportsPerSecond() / 20;
+
+        while (teleportBudget >= 1) {
+            teleportBudget--;
+
+            final var player = randomPlayer();
+
+            if (player == null || player.isStationary(server.getCurrentTick())) {
+                continue;
+            }
+
+            player.stayUntil(server.getCurrentTick() + plugin.getTravelerTeleportWaitTime() + 2);
+            runCommand(player, "teleport", "home");
+        }
+    }
+
+    // An edit is a session command followed by a click on a nearby banner
+    private void queueEdits() {
+        editBudget += options.editsPerSecond() / 20;
+
+        while (editBudget >= 1) {
+            editBudget--;
+
+            final var player = randomPlayer();
+
+            if (player == null) {
+                continue;
+            }
+
+            runCommand(player, random.nextInt(4) != 0 ? "addpoint" : "removepoint");
+            clickBanner(player);
+        }
+    }
+
+    // Clicks a random banner in the player's loaded chunks, since the walk doesn't aim for them
+    private void clickBanner(SimulatedPlayer player) {
+        if (player == null) {
+            return;
+        }
+
+        final var location = player.getLocation();
+        final var candidates = new ArrayList<Waypoint>();
+
+        plugin.getWaypointManager().forEachWaypointNear(world, location.getBlockX() >> 4, location.getBlockZ() >> 4,
+            options.viewDistance(), candidates::add);
+
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        final var banner = candidates.get(random.nextInt(candidates.size())).getLocation();
+        final var block = SimulatedServer.block(world, banner.getBlockX(), banner.getBlockY(), banner.getBlockZ());
+
+        fire("interact", () -> listener.onPlayerInteract(new PlayerInteractEvent(player.getPlayer(),
+            Action.RIGHT_CLICK_BLOCK, null, block, BlockFace.UP, EquipmentSlot.HAND)));
+    }
+
+    private void runCommand(SimulatedPlayer player, String... args) {
+        fire("command", () -> command.getExecutor().onCommand(player.getPlayer(), command, command.getName(), args));
+    }
+
+    private SimulatedPlayer randomPlayer() {
+        return !players.isEmpty() ? players.get(random.nextInt(players.size())) : null;
+    }
+
+    // Unloads the chunks that left the view distance and loads the ones that entered it
+    private void streamChunks(SimulatedPlayer player, Location from, Location to) {
+        final var fromX = from.getBlockX() >> 4;
+        final var fromZ = from.getBlockZ() >> 4;
+        final var toX = to.getBlockX() >> 4;
+        final var toZ = to.getBlockZ() >> 4;
+
+        if (fromX == toX && fromZ == toZ) {
+            return;
+        }
+
+        final var radius = options.viewDistance();
+
+        for (int x = fromX - radius; x <= fromX + radius; x++) {
+            for (int z = fromZ - radius; z <= fromZ + radius; z++) {
+                if (Math.abs(x - toX) > radius || Math.abs(z - toZ) > radius) {
+                    unloadChunk(player, x, z);
+                }
+            }
+        }
+
+        for (int x = toX - radius; x <= toX + radius; x++) {
+            for (int z = toZ - radius; z <= toZ + radius; z++) {
+                if (Math.abs(x - fromX) > radius || Math.abs(z - fromZ) > radius) {
+                    loadChunk(player, x, z);
+                }
+            }
+        }
+    }
+
+    private void loadChunk(SimulatedPlayer player, int x, int z) {
+        final var event = new PlayerChunkLoadEvent(SimulatedServer.chunk(world, x, z), player.getPlayer());
+        fire("chunk-load", () -> listener.onPlayerChunkLoad(event));
+    }
+
+    private void unloadChunk(SimulatedPlayer player, int x, int z) {
+        final var event = new PlayerChunkUnloadEvent(SimulatedServer.chunk(world, x, z), player.getPlayer());
+        fire("chunk-unload", () -> listener.onPlayerChunkUnload(event));
+    }
+
+    private void fire(String event, Runnable handler) {
+        events.merge(event, 1L, Long::sum);
+        measure(handler);
+    }
+
+    // Only what the plugin allocates on the main thread is counted, not the simulator's events and proxies
+    private void measure(Runnable action) {
+        final var before = threads.getCurrentThreadAllocatedBytes();
+        action.run();
+        allocatedBytes += threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private void printReport(List<String> report, long wallNanos, long packets) {
+        final var ticks = options.ticks();
+        final var simulatedSeconds = ticks / 20.0;
+        final var wallSeconds = wallNanos / 1e9;
+
+        System.out.printf("Simulated %d ticks (%.0f s) with %d players and %d waypoints in %.1f s%n", ticks,
+            simulatedSeconds, players.size(), plugin.getWaypointManager().getWaypointCount(), wallSeconds);
+        System.out.printf("Main thread allocations: %d KiB per tick, %d MiB per simulated second%n",
+            allocatedBytes / ticks / 1024, (long) (allocatedBytes / simulatedSeconds) / (1024 * 1024));
+        System.out.printf("Packets: %d, %.0f per simulated second, %.0f per wall second%n", packets,
+            packets / simulatedSeconds, packets / wallSeconds);
+
+        System.out.println("Events:");
+        events.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(entry -> System.out.printf("  %s: %d%n", entry.getKey(), entry.getValue()));
+
+        System.out.println("Metrics:");
+        for (final var line : report) {
+            System.out.println("  " + line);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+// A player that walks in a straight line and only remembers what the plugin asks of it. Teleports are recorded and
+// applied by the simulator, which fires the events a server would.
+final class SimulatedPlayer {
+
+    private final UUID uniqueId;
+    private final String name;
+    private final Player player;
+    private Location location;
+    private Location pendingTeleport;
+    private double directionX;
+    private double directionZ;
+    private int stationaryUntil;
+    private boolean online;
+
+    SimulatedPlayer(UUID uniqueId, String name, Location location) {
+        this.uniqueId = uniqueId;
+        this.name = name;
+        this.location = location;
+        this.player = SimulatedServer.proxy(Player.class, (method, args) -> switch (method) {
+            case "getUniqueId" -> this.uniqueId;
+            case "getName" -> this.name;
+            case "getLocation" -> args == null ? this.location.clone() : copyLocation((Location) args[0]);
+            case "getWorld" -> this.location.getWorld();
+            case "getHealth" -> 20.0;
+            case "isOnline" -> online;
+            case "hasPermission" -> true;
+            case "getTrackedPlayers" -> new HashSet<Player>();
+            case "teleport" -> {
+                pendingTeleport = ((Location) args[0]).clone();
+                yield true;
+            }
+            case "teleportAsync" -> {
+                pendingTeleport = ((Location) args[0]).clone();
+                yield CompletableFuture.completedFuture(true);
+            }
+            default -> null;
+        });
+    }
+
+    private Location copyLocation(Location destination) {
+        if (destination != null) {
+            destination.setWorld(location.getWorld());
+            destination.setX(location.getX());
+            destination.setY(location.getY());
+            destination.setZ(location.getZ());
+            destination.setYaw(location.getYaw());
+            destination.setPitch(location.getPitch());
+        }
+        return destination;
+    }
+
+    UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    Player getPlayer() {
+        return player;
+    }
+
+    Location getLocation() {
+        return location;
+    }
+
+    void setLocation(Location location) {
+        this.location = location;
+    }
+
+    boolean isOnline() {
+        return online;
+    }
+
+    void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    void setDirection(double directionX, double directionZ) {
+        this.directionX = directionX;
+        this.directionZ = directionZ;
+    }
+
+    double getDirectionX() {
+        return directionX;
+    }
+
+    double getDirectionZ() {
+        return directionZ;
+    }
+
+    // Players waiting on a teleport stand still, moving would cancel it
+    boolean isStationary(int currentTick) {
+        return currentTick < stationaryUntil;
+    }
+
+    void stayUntil(int tick) {
+        stationaryUntil = tick;
+    }
+
+    Location takePendingTeleport() {
+        final var destination = pendingTeleport;
+        pendingTeleport = null;
+        return destination;
+    }
+}
@@ -0,0 +1,419 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.Tag;
+import org.bukkit.UnsafeValues;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+// Just enough of a server to run the plugin on a simulated tick loop. Every block is a white banner, tasks run when
+// tick() is called, and anything the plugin doesn't use returns null, false or 0.
+final class SimulatedServer {
+
+    interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private final class Task {
+
+        final int id;
+        final Runnable runnable;
+        final long period;
+        final boolean async;
+        final BukkitTask handle;
+        long nextTick;
+        volatile boolean cancelled;
+
+        Task(Runnable runnable, long delay, long period, boolean async) {
+            this.id = nextTaskId.incrementAndGet();
+            this.runnable = runnable;
+            this.period = period;
+            this.async = async;
+            this.nextTick = currentTick + Math.max(delay, 1);
+            this.handle = proxy(BukkitTask.class, (method, args) -> switch (method) {
+                case "getTaskId" -> id;
+                case "getOwner" -> plugin;
+                case "isSync" -> !this.async;
+                case "isCancelled" -> cancelled;
+                case "cancel" -> {
+                    cancelled = true;
+                    yield null;
+                }
+                default -> null;
+            });
+        }
+    }
+
+    private final Logger logger = Logger.getLogger("SimulatedServer");
+    private final LinkedHashMap<String, World> worldsByName = new LinkedHashMap<>();
+    private final HashMap<UUID, World> worldsByUid = new HashMap<>();
+    private final HashMap<String, PluginCommand> commands = new HashMap<>();
+    private final LinkedHashMap<UUID, Player> onlinePlayers = new LinkedHashMap<>();
+    private final ArrayList<Task> tasks = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Task> scheduled = new ConcurrentLinkedQueue<>();
+    private final ExecutorService asyncExecutor = Executors.newCachedThreadPool(runnable -> {
+        final var thread = new Thread(runnable, "Simulated Async");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger nextTaskId = new AtomicInteger();
+    private final AtomicInteger nextEntityId = new AtomicInteger();
+    private final Thread mainThread = Thread.currentThread();
+    private final Server server;
+    private volatile int currentTick;
+    private Plugin plugin;
+    private Listener listener;
+
+    SimulatedServer() {
+        final var bannerTag = proxy(Tag.class, (method, args) -> switch (method) {
+            case "isTagged" -> args[0] instanceof Material material && material.name().endsWith("_BANNER");
+            case "getValues" -> Set.of();
+            default -> null;
+        });
+        final var unsafe = proxy(UnsafeValues.class, (method, args) -> switch (method) {
+            case "nextEntityId" -> nextEntityId.incrementAndGet();
+            default -> null;
+        });
+        final var pluginManager = proxy(PluginManager.class, (method, args) -> switch (method) {
+            case "registerEvents" -> {
+                listener = (Listener) args[0];
+                yield null;
+            }
+            case "isPluginEnabled" -> args[0] == plugin && plugin.isEnabled();
+            default -> null;
+        });
+        final var scheduler = proxy(BukkitScheduler.class, (method, args) -> switch (method) {
+            case "runTask" -> schedule((Runnable) args[1], 0, 0, false);
+            case "runTaskLater" -> schedule((Runnable) args[1], (long) args[2], 0, false);
+            case "runTaskTimer" -> schedule((Runnable) args[1], (long) args[2], (long) args[3], false);
+            case "runTaskAsynchronously" -> schedule((Runnable) args[1], 0, 0, true);
+            case "cancelTask" -> {
+                cancelTask((int) args[0]);
+                yield null;
+            }
+            case "isCurrentlyRunning", "isQueued" -> false;
+            default -> null;
+        });
+
+        this.server = proxy(Server.class, (method, args) -> switch (method) {
+            case "getLogger" -> logger;
+            case "getName", "getVersion", "getBukkitVersion" -> "Simulated";
+            case "getWorld" -> args[0] instanceof UUID uniqueId
+                ? worldsByUid.get(uniqueId)
+                : worldsByName.get((String) args[0]);
+            case "getWorlds" -> List.copyOf(worldsByName.values());
+            case "getCurrentTick" -> currentTick;
+            case "getOnlinePlayers" -> getOnlinePlayers();
+            case "getPlayer" -> args[0] instanceof UUID uniqueId && onlinePlayers.containsKey(uniqueId)
+                ? onlinePlayers.get(uniqueId)
+                : null;
+            case "getOfflinePlayer" -> offlinePlayer((UUID) args[0]);
+            case "getTag" -> bannerTag;
+            case "getUnsafe" -> unsafe;
+            case "getPluginManager" -> pluginManager;
+            case "getScheduler" -> scheduler;
+            case "getPluginCommand" -> commands.computeIfAbsent((String) args[0], this::createCommand);
+            case "isPrimaryThread" -> Thread.currentThread() == mainThread;
+            default -> null;
+        });
+
+        Bukkit.setServer(server);
+    }
+
+    Server getServer() {
+        return server;
+    }
+
+    int getCurrentTick() {
+        return currentTick;
+    }
+
+    Listener getListener() {
+        return listener;
+    }
+
+    PluginCommand getCommand(String name) {
+        return commands.get(name);
+    }
+
+    void setPlugin(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    // Loads and enables the plugin with its data in dataFolder, then ticks until the data is published
+    PaperPlugin enablePlugin(File dataFolder) throws IOException, ReflectiveOperationException {
+        @SuppressWarnings("deprecation")
+        final var loader = new JavaPluginLoader(server);
+        final var description = new PluginDescriptionFile("Waypoints", "loadtest", PaperPlugin.class.getName());
+        final var paperPlugin = new PaperPlugin(loader, description, dataFolder, new File("Waypoints.jar"));
+
+        setPlugin(paperPlugin);
+        paperPlugin.onLoad();
+        setEnabled(paperPlugin, true);
+
+        // The data files are read on loader threads and published on a later tick
+        while (!paperPlugin.isReady()) {
+            if (!paperPlugin.isEnabled()) {
+                throw new IOException("The plugin failed to load its data");
+            }
+
+            tick();
+            Thread.onSpinWait();
+        }
+
+        return paperPlugin;
+    }
+
+    // Disabling waits for the hologram sender, so every queued packet has been sent after it
+    void disablePlugin(PaperPlugin paperPlugin) throws ReflectiveOperationException {
+        setEnabled(paperPlugin, false);
+    }
+
+    // Deletes a data folder made for a run, with everything the plugin wrote to it
+    static void deleteDataFolder(File dataFolder) throws IOException {
+        try (final var paths = Files.walk(dataFolder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static void setEnabled(PaperPlugin paperPlugin, boolean enabled) throws ReflectiveOperationException {
+        final var method = JavaPlugin.class.getDeclaredMethod("setEnabled", boolean.class);
+        method.setAccessible(true);
+        method.invoke(paperPlugin, enabled);
+    }
+
+    World createWorld(String name) {
+        final var uniqueId = UUID.nameUUIDFromBytes(name.getBytes());
+        final var world = new World[1];
+
+        world[0] = proxy(World.class, (method, args) -> switch (method) {
+            case "getName" -> name;
+            case "getUID" -> uniqueId;
+            case "getBlockAt" -> args[0] instanceof Location location
+                ? block(world[0], location.getBlockX(), location.getBlockY(), location.getBlockZ())
+                : block(world[0], (int) args[0], (int) args[1], (int) args[2]);
+            case "getChunkAt" -> args[0] instanceof Location location
+                ? chunk(world[0], location.getBlockX() >> 4, location.getBlockZ() >> 4)
+                : chunk(world[0], (int) args[0], (int) args[1]);
+            case "getMinHeight" -> -64;
+            case "getMaxHeight" -> 320;
+            default -> null;
+        });
+
+        worldsByName.put(name, world[0]);
+        worldsByUid.put(uniqueId, world[0]);
+        return world[0];
+    }
+
+    void addPlayer(Player player) {
+        onlinePlayers.put(player.getUniqueId(), player);
+    }
+
+    void removePlayer(Player player) {
+        onlinePlayers.remove(player.getUniqueId());
+    }
+
+    private Collection<Player> getOnlinePlayers() {
+        return List.copyOf(onlinePlayers.values());
+    }
+
+    // Advances the clock by one tick and runs the main thread tasks that are due, in the order they were scheduled
+    void tick() {
+        currentTick++;
+
+        Task task;
+        while ((task = scheduled.poll()) != null) {
+            tasks.add(task);
+        }
+
+        final var due = new ArrayList<Task>();
+        final var iterator = tasks.iterator();
+
+        while (iterator.hasNext()) {
+            final var next = iterator.next();
+
+            if (next.cancelled) {
+                iterator.remove();
+            } else if (next.nextTick <= currentTick) {
+                due.add(next);
+
+                if (next.period > 0) {
+                    next.nextTick = currentTick + next.period;
+                } else {
+                    iterator.remove();
+                }
+            }
+        }
+
+        for (final var next : due) {
+            if (!next.cancelled) {
+                next.runnable.run();
+            }
+        }
+    }
+
+    void shutdown() {
+        asyncExecutor.shutdown();
+    }
+
+    private BukkitTask schedule(Runnable runnable, long delay, long period, boolean async) {
+        final var task = new Task(runnable, delay, period, async);
+
+        if (async) {
+            asyncExecutor.execute(() -> {
+                if (!task.cancelled) {
+                    runnable.run();
+                }
+            });
+        } else {
+            scheduled.add(task);
+        }
+
+        return task.handle;
+    }
+
+    private void cancelTask(int id) {
+        for (final var task : tasks) {
+            if (task.id == id) {
+                task.cancelled = true;
+            }
+        }
+
+        for (final var task : scheduled) {
+            if (task.id == id) {
+                task.cancelled = true;
+            }
+        }
+    }
+
+    private PluginCommand createCommand(String name) {
+        try {
+            final var constructor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(name, plugin);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static OfflinePlayer offlinePlayer(UUID uniqueId) {
+        return proxy(OfflinePlayer.class, (method, args) -> switch (method) {
+            case "getUniqueId" -> uniqueId;
+            case "getName" -> "Player" + uniqueId.toString().substring(0, 8);
+            default -> null;
+        });
+    }
+
+    static Chunk chunk(World world, int x, int z) {
+        return proxy(Chunk.class, (method, args) -> switch (method) {
+            case "getX" -> x;
+            case "getZ" -> z;
+            case "getWorld" -> world;
+            case "getChunkKey" -> Chunk.getChunkKey(x, z);
+            case "isLoaded" -> true;
+            default -> null;
+        });
+    }
+
+    static Block block(World world, int x, int y, int z) {
+        return proxy(Block.class, (method, args) -> switch (method) {
+            case "getType" -> Material.WHITE_BANNER;
+            case "getWorld" -> world;
+            case "getX" -> x;
+            case "getY" -> y;
+            case "getZ" -> z;
+            case "getBlockKey" -> Block.getBlockKey(x, y, z);
+            case "getLocation" -> args == null
+                ? new Location(world, x, y, z)
+                : copyInto((Location) args[0], world, x, y, z);
+            case "getChunk" -> chunk(world, x >> 4, z >> 4);
+            case "getDrops" -> List.of();
+            default -> null;
+        });
+    }
+
+    private static Location copyInto(Location location, World world, int x, int y, int z) {
+        if (location != null) {
+            location.setWorld(world);
+            location.setX(x);
+            location.setY(y);
+            location.setZ(z);
+        }
+        return location;
+    }
+
+    static <T> T proxy(Class<T> type, Handler handler) {
+        final var instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Simulated" + type.getSimpleName();
+                    default:
+                        break;
+                }
+
+                final var result = handler.invoke(method.getName(), args);
+
+                if (result != null || !method.getReturnType().isPrimitive()) {
+                    return result;
+                }
+
+                // Primitive defaults for everything the simulation doesn't implement
+                final var returnType = method.getReturnType();
+
+                if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == void.class) {
+                    return null;
+                } else if (returnType == double.class) {
+                    return 0.0;
+                } else if (returnType == float.class) {
+                    return 0.0f;
+                } else if (returnType == long.class) {
+                    return 0L;
+                } else {
+                    return 0;
+                }
+            });
+
+        return type.cast(instance);
+    }
+}
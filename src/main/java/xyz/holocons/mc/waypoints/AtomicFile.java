@@ -0,0 +1,28 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Data files are written to a temporary file which only replaces the target file once it's complete, so a crash while
+// saving never leaves a truncated file behind
+public final class AtomicFile {
+
+    private AtomicFile() {
+    }
+
+    public static File getTempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    public static void commit(File tempFile, File file) throws IOException {
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+public class AutosaveTask implements Runnable {
+
+    private final PaperPlugin plugin;
+    private final ExecutorService executor;
+    // Null when autosaving is disabled
+    private final TaskScheduler.Task task;
+    private CompletableFuture<Void> pendingSave;
+
+    public AutosaveTask(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.executor = createExecutor(plugin);
+
+        final var period = plugin.getAutosaveInterval();
+
+        this.task = period > 0 ? plugin.getTaskScheduler().runTimer(this, period, period) : null;
+        this.pendingSave = CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void run() {
+        if (!pendingSave.isDone()) {
+            plugin.getLogger().warning("Skipping autosave, the previous save hasn't finished yet");
+            return;
+        }
+
+        pendingSave = save(executor).exceptionally(e -> {
+            plugin.getLogger().log(Level.SEVERE, "Autosave failed", e);
+            return null;
+        });
+    }
+
+    // One thread per data file, so the files are written in parallel
+    private static ExecutorService createExecutor(PaperPlugin plugin) {
+        return Executors.newFixedThreadPool(3, runnable -> {
+            final var thread = new Thread(runnable, plugin.getName() + " Autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private CompletableFuture<Void> save(ExecutorService executor) {
+        // Records from here on go to a new segment. Rotating first means every record before it is covered by the
+        // snapshots even when other threads keep changing things, records after it are absolute and replay harmlessly.
+        final var journal = plugin.getJournal();
+        final var rotation = journal.rotate();
+        // Snapshots are taken on the calling thread, the encoding and writing happens on the executor
+        final var waypoints = plugin.getWaypointManager().snapshotWaypoints();
+        final var travelers = plugin.getTravelerManager().snapshotTravelers();
+        final var names = plugin.getNameManager().snapshotNames();
+
+        final var saveWaypoints = CompletableFuture.runAsync(() -> {
+            try {
+                WaypointManager.saveWaypoints(plugin, waypoints);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        final var saveTravelers = CompletableFuture.runAsync(() -> {
+            try {
+                TravelerManager.saveTravelers(plugin, travelers);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+
+        final var saveNames = CompletableFuture.runAsync(() -> {
+            try {
+                NameManager.saveNames(plugin, names);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+
+        return CompletableFuture.allOf(saveWaypoints, saveTravelers, saveNames)
+            .thenCompose(result -> rotation)
+            .thenAccept(journal::deleteThrough);
+    }
+
+    // Called when the journal passes its compaction size, a save folds it into the data files. A save that's already
+    // running rotated the journal when it started, so there's no need for another.
+    public void compact() {
+        if (pendingSave.isDone()) {
+            run();
+        }
+    }
+
+    public void shutdown() {
+        if (task != null) {
+            task.cancel();
+        }
+
+        final var timeout = plugin.getAutosaveShutdownTimeout();
+
+        try {
+            // Let a running autosave finish first so it can't overwrite the final save. One that fails or hangs must
+            // not cost the final save, which holds every change since.
+            pendingSave.get(timeout, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            plugin.getLogger().warning("The running autosave didn't finish, saving anyway");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // A hung autosave still holds the executor's threads, so the final save gets its own
+        final var finalExecutor = pendingSave.isDone() ? executor : createExecutor(plugin);
+
+        try {
+            save(finalExecutor).get(timeout, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // Not rethrown, the journal, sync bus and storage still have to be closed. With journaling enabled the
+            // changes since the last save are replayed on the next start, segments are only deleted after a save.
+            plugin.getLogger().log(Level.SEVERE, "Final save failed", e.getCause());
+        } catch (TimeoutException e) {
+            plugin.getLogger().severe("Saving data took longer than " + timeout + " seconds, some changes may be lost");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+            finalExecutor.shutdown();
+        }
+    }
+}
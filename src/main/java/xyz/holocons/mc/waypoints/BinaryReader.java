@@ -0,0 +1,241 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.block.banner.Pattern;
+import org.bukkit.block.banner.PatternType;
+
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
+// File layout, all values big-endian:
+//   header:  magic int, version int, section count int
+//   section: tag int, payload length int, CRC32C of the payload int, payload
+// Record sections start with the record size and count, followed by fixed-width records. Variable-length data
+// (contributors, banners, registrations) lives in its own section and records point into it by offset.
+public class BinaryReader {
+
+    private final HashMap<Integer, ByteBuffer> sections;
+    private UUID[] worldIds;
+    private String[] worldNames;
+
+    private BinaryReader(File file) throws IOException {
+        this.sections = new HashMap<>();
+
+        final ByteBuffer buffer;
+
+        try (final var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != BinaryWriter.MAGIC) {
+                throw new IOException("Not a waypoints data file");
+            }
+
+            final var version = buffer.getInt();
+
+            if (version > BinaryWriter.VERSION) {
+                throw new IOException("Unsupported data file version " + version);
+            }
+
+            final var sectionCount = buffer.getInt();
+
+            for (int i = 0; i < sectionCount; i++) {
+                final var tag = buffer.getInt();
+                final var length = buffer.getInt();
+                final var checksum = buffer.getInt();
+                final var payload = buffer.slice(buffer.position(), length);
+
+                final var crc = new CRC32C();
+                crc.update(payload.duplicate());
+
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Checksum mismatch in section " + tag);
+                }
+
+                sections.put(tag, payload);
+                buffer.position(buffer.position() + length);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated data file", e);
+        }
+
+        readWorlds();
+    }
+
+    public static List<Waypoint> readWaypoints(File file) throws IOException {
+        try {
+            return new BinaryReader(file).readWaypoints();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Malformed waypoint data", e);
+        }
+    }
+
+    public static Map<UUID, Traveler> readTravelers(File file) throws IOException {
+        try {
+            return new BinaryReader(file).readTravelers();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Malformed traveler data", e);
+        }
+    }
+
+    private ByteBuffer getSection(int tag) throws IOException {
+        final var section = sections.get(tag);
+
+        if (section == null) {
+            throw new IOException("Missing section " + tag);
+        }
+
+        return section.duplicate();
+    }
+
+    private void readWorlds() throws IOException {
+        final var buffer = getSection(BinaryWriter.SECTION_WORLDS);
+        final var count = buffer.getInt();
+
+        worldIds = new UUID[count];
+        worldNames = new String[count];
+
+        // Worlds aren't looked up, locations stay unresolved until they're used
+        for (int i = 0; i < count; i++) {
+            worldIds[i] = readUUID(buffer);
+            worldNames[i] = readString(buffer);
+        }
+    }
+
+    private List<Waypoint> readWaypoints() throws IOException {
+        final var records = getSection(BinaryWriter.SECTION_WAYPOINTS);
+        final var contributors = getSection(BinaryWriter.SECTION_CONTRIBUTORS);
+        final var banners = getSection(BinaryWriter.SECTION_BANNERS);
+        final var recordSize = records.getInt();
+        final var count = records.getInt();
+        final var waypoints = new ArrayList<Waypoint>(count);
+
+        for (int i = 0; i < count; i++) {
+            final var record = records.slice(records.position(), recordSize);
+            records.position(records.position() + recordSize);
+
+            final var id = record.getInt();
+            final var location = readLocation(record);
+            final var active = record.get() != 0;
+            final var contributorsOffset = record.getInt();
+            final var contributorsCount = record.getInt();
+            final var bannerOffset = record.getInt();
+
+            if (location == null) {
+                throw new IOException("Waypoint " + id + " has no location");
+            }
+
+            final var uniqueIds = new ArrayList<UUID>(contributorsCount);
+            contributors.position(contributorsOffset * 16);
+
+            for (int j = 0; j < contributorsCount; j++) {
+                uniqueIds.add(readUUID(contributors));
+            }
+
+            final var banner = bannerOffset != BinaryWriter.NO_BANNER
+                ? readBanner(banners.position(bannerOffset))
+                : null;
+
+            waypoints.add(new Waypoint(id, location, uniqueIds, active, banner));
+        }
+
+        return waypoints;
+    }
+
+    private Map<UUID, Traveler> readTravelers() throws IOException {
+        final var records = getSection(BinaryWriter.SECTION_TRAVELERS);
+        final var registrations = getSection(BinaryWriter.SECTION_REGISTRATIONS);
+        final var recordSize = records.getInt();
+        final var count = records.getInt();
+        final var travelers = new HashMap<UUID, Traveler>(count * 4 / 3 + 1);
+
+        for (int i = 0; i < count; i++) {
+            final var record = records.slice(records.position(), recordSize);
+            records.position(records.position() + recordSize);
+
+            final var uniqueId = readUUID(record);
+            final var charges = record.getInt();
+            final var tokens = record.getInt();
+            final var home = readLocation(record);
+            final var camp = readLocation(record);
+            final var waypointsOffset = record.getInt();
+            final var waypointsLength = record.getInt();
+            // Regeneration timestamps were appended to the record, older records don't have them
+            final var regenTime = record.remaining() >= 16 ? record.getLong() : 0;
+            final var pauseTime = record.remaining() >= 8 ? record.getLong() : 0;
+
+            final var words = new long[waypointsLength];
+            registrations.position(waypointsOffset * 8);
+            registrations.asLongBuffer().get(words);
+
+            travelers.put(uniqueId,
+                new Traveler(charges, tokens, home, camp, BitSet.valueOf(words), regenTime, pauseTime));
+        }
+
+        return travelers;
+    }
+
+    private StoredLocation readLocation(ByteBuffer buffer) {
+        final var worldIndex = buffer.getInt();
+        final var x = buffer.getDouble();
+        final var y = buffer.getDouble();
+        final var z = buffer.getDouble();
+
+        if (worldIndex == BinaryWriter.NO_WORLD) {
+            return null;
+        }
+
+        return new StoredLocation(worldIds[worldIndex], worldNames[worldIndex], x, y, z);
+    }
+
+    private static Waypoint.Banner readBanner(ByteBuffer buffer) throws IOException {
+        final var type = Material.getMaterial(readString(buffer));
+        final var name = readString(buffer);
+        final var patternCount = buffer.getInt();
+        final var patterns = new ArrayList<Pattern>(patternCount);
+
+        for (int i = 0; i < patternCount; i++) {
+            final var color = DyeColor.valueOf(readString(buffer));
+            final var pattern = PatternType.getByIdentifier(readString(buffer));
+
+            if (pattern == null) {
+                throw new IOException("Invalid banner pattern");
+            }
+
+            patterns.add(new Pattern(color, pattern));
+        }
+
+        if (type == null) {
+            throw new IOException("Invalid banner type");
+        }
+
+        return new Waypoint.Banner(type, !name.isEmpty() ? GsonComponentSerializer.gson().deserialize(name) : null,
+            patterns);
+    }
+
+    private static UUID readUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+// waypoint.dat and traveler.dat in the format of BinaryWriter, rewritten whole on every save
+public class BinaryStorage implements Storage {
+
+    private final PaperPlugin plugin;
+    private final File waypointFile;
+    private final File travelerFile;
+
+    public BinaryStorage(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.waypointFile = new File(plugin.getDataFolder(), WaypointManager.BINARY_FILENAME);
+        this.travelerFile = new File(plugin.getDataFolder(), TravelerManager.BINARY_FILENAME);
+    }
+
+    @Override
+    public List<Waypoint> readWaypoints() throws IOException {
+        if (!waypointFile.exists()) {
+            return null;
+        }
+
+        final var start = System.nanoTime();
+        final var waypoints = BinaryReader.readWaypoints(waypointFile);
+        plugin.getMetrics().recordStorage("waypoints.load", waypointFile, start);
+        return waypoints;
+    }
+
+    @Override
+    public Map<UUID, Traveler> readTravelers(ForkJoinPool pool) throws IOException {
+        if (!travelerFile.exists()) {
+            return null;
+        }
+
+        final var start = System.nanoTime();
+        final var travelers = BinaryReader.readTravelers(travelerFile);
+        plugin.getMetrics().recordStorage("travelers.load", travelerFile, start);
+        return travelers;
+    }
+
+    @Override
+    public void saveWaypoints(List<Waypoint> waypoints) throws IOException {
+        final var start = System.nanoTime();
+        BinaryWriter.writeWaypoints(waypointFile, waypoints);
+        plugin.getMetrics().recordStorage("waypoints.save", waypointFile, start);
+    }
+
+    @Override
+    public void saveTravelers(Map<UUID, Traveler> travelers) throws IOException {
+        final var start = System.nanoTime();
+        BinaryWriter.writeTravelers(travelerFile, travelers);
+        plugin.getMetrics().recordStorage("travelers.save", travelerFile, start);
+    }
+}
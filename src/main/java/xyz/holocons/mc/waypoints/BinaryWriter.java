@@ -0,0 +1,226 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
+// Versioned binary snapshot format, see BinaryReader for the layout
+public class BinaryWriter {
+
+    public static final int MAGIC = 0x48435750; // HCWP
+    public static final int VERSION = 1;
+
+    public static final int SECTION_WORLDS = 1;
+    public static final int SECTION_WAYPOINTS = 2;
+    public static final int SECTION_CONTRIBUTORS = 3;
+    public static final int SECTION_BANNERS = 4;
+    public static final int SECTION_TRAVELERS = 5;
+    public static final int SECTION_REGISTRATIONS = 6;
+
+    public static final int WAYPOINT_RECORD_SIZE = 45;
+    public static final int TRAVELER_RECORD_SIZE = 104;
+
+    public static final int NO_WORLD = -1;
+    public static final int NO_BANNER = -1;
+
+    private final HashMap<UUID, Integer> worldIndices;
+    private final ArrayList<StoredLocation> worlds;
+    private final ArrayList<Section> sections;
+
+    private record Section(int tag, byte[] payload) {
+    }
+
+    public BinaryWriter() {
+        this.worldIndices = new HashMap<>();
+        this.worlds = new ArrayList<>();
+        this.sections = new ArrayList<>();
+    }
+
+    public static void writeWaypoints(File file, List<Waypoint> waypoints) throws IOException {
+        final var writer = new BinaryWriter();
+        final var records = new Buffer();
+        final var contributors = new Buffer();
+        final var banners = new Buffer();
+
+        records.writeInt(WAYPOINT_RECORD_SIZE);
+        records.writeInt(waypoints.size());
+
+        for (final var waypoint : waypoints) {
+            final var location = waypoint.getStoredLocation();
+            final var banner = waypoint.getBanner();
+
+            records.writeInt(waypoint.getId());
+            writer.writeLocation(records, location);
+            records.writeBoolean(waypoint.isActive());
+            records.writeInt(contributors.size() / 16);
+            records.writeInt(waypoint.getContributors().size());
+            records.writeInt(banner != null ? banners.size() : NO_BANNER);
+
+            for (final var uniqueId : waypoint.getContributors()) {
+                contributors.writeUUID(uniqueId);
+            }
+
+            if (banner != null) {
+                banners.writeString(banner.type().name());
+                banners.writeString(banner.name() != null ? GsonComponentSerializer.gson().serialize(banner.name()) : "");
+                banners.writeInt(banner.patterns().size());
+
+                for (final var pattern : banner.patterns()) {
+                    banners.writeString(pattern.getColor().name());
+                    banners.writeString(pattern.getPattern().getIdentifier());
+                }
+            }
+        }
+
+        // The world dictionary is only complete once every record has been written
+        writer.addSection(SECTION_WORLDS, writer.writeWorlds());
+        writer.addSection(SECTION_WAYPOINTS, records);
+        writer.addSection(SECTION_CONTRIBUTORS, contributors);
+        writer.addSection(SECTION_BANNERS, banners);
+        writer.commit(file);
+    }
+
+    public static void writeTravelers(File file, Map<UUID, Traveler> travelers) throws IOException {
+        final var writer = new BinaryWriter();
+        final var records = new Buffer();
+        final var registrations = new Buffer();
+
+        records.writeInt(TRAVELER_RECORD_SIZE);
+        records.writeInt(travelers.size());
+
+        for (final var entry : travelers.entrySet()) {
+            final var traveler = entry.getValue();
+            final var waypoints = traveler.getWaypoints().toLongArray();
+
+            records.writeUUID(entry.getKey());
+            records.writeInt(traveler.getStoredCharges());
+            records.writeInt(traveler.getTokens());
+            writer.writeLocation(records, traveler.getStoredHome());
+            writer.writeLocation(records, traveler.getStoredCamp());
+            records.writeInt(registrations.size() / 8);
+            records.writeInt(waypoints.length);
+            records.writeLong(traveler.getRegenTime());
+            records.writeLong(traveler.getPauseTime());
+
+            for (final var word : waypoints) {
+                registrations.writeLong(word);
+            }
+        }
+
+        writer.addSection(SECTION_WORLDS, writer.writeWorlds());
+        writer.addSection(SECTION_TRAVELERS, records);
+        writer.addSection(SECTION_REGISTRATIONS, registrations);
+        writer.commit(file);
+    }
+
+    // World index followed by the coordinates, 28 bytes
+    private void writeLocation(Buffer buffer, StoredLocation location) throws IOException {
+        if (location == null) {
+            buffer.writeInt(NO_WORLD);
+            buffer.writeDouble(0.0);
+            buffer.writeDouble(0.0);
+            buffer.writeDouble(0.0);
+            return;
+        }
+
+        buffer.writeInt(getWorldIndex(location));
+        buffer.writeDouble(location.getX());
+        buffer.writeDouble(location.getY());
+        buffer.writeDouble(location.getZ());
+    }
+
+    // The first location seen in each world stands in for it in the dictionary
+    private int getWorldIndex(StoredLocation location) throws IOException {
+        if (!location.isBound()) {
+            throw new IOException("World " + location.getWorldName() + " hasn't been bound");
+        }
+
+        return worldIndices.computeIfAbsent(location.getWorldId(), uniqueId -> {
+            worlds.add(location);
+            return worlds.size() - 1;
+        });
+    }
+
+    private Buffer writeWorlds() throws IOException {
+        final var buffer = new Buffer();
+
+        buffer.writeInt(worlds.size());
+
+        for (final var world : worlds) {
+            buffer.writeUUID(world.getWorldId());
+            buffer.writeString(world.getWorldName());
+        }
+
+        return buffer;
+    }
+
+    private void addSection(int tag, Buffer buffer) {
+        sections.add(new Section(tag, buffer.toByteArray()));
+    }
+
+    private void commit(File file) throws IOException {
+        final var tempFile = AtomicFile.getTempFile(file);
+
+        try (final var channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final var header = ByteBuffer.allocate(12);
+            header.putInt(MAGIC).putInt(VERSION).putInt(sections.size()).flip();
+            writeFully(channel, header);
+
+            for (final var section : sections) {
+                final var crc = new CRC32C();
+                crc.update(section.payload());
+
+                final var sectionHeader = ByteBuffer.allocate(12);
+                sectionHeader.putInt(section.tag()).putInt(section.payload().length).putInt((int) crc.getValue()).flip();
+                writeFully(channel, sectionHeader);
+                writeFully(channel, ByteBuffer.wrap(section.payload()));
+            }
+
+            channel.force(true);
+        }
+
+        AtomicFile.commit(tempFile, file);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static class Buffer extends DataOutputStream {
+
+        private Buffer() {
+            super(new ByteArrayOutputStream());
+        }
+
+        private void writeUUID(UUID uniqueId) throws IOException {
+            writeLong(uniqueId.getMostSignificantBits());
+            writeLong(uniqueId.getLeastSignificantBits());
+        }
+
+        private void writeString(String string) throws IOException {
+            final var bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            write(bytes);
+        }
+
+        private byte[] toByteArray() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package xyz.holocons.mc.waypoints;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+
+// The Bukkit scheduler, where the main thread owns every entity and location
+public class BukkitTaskScheduler implements TaskScheduler {
+
+    private final PaperPlugin plugin;
+
+    public BukkitTaskScheduler(final PaperPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void run(Runnable task) {
+        Bukkit.getScheduler().runTask(plugin, task);
+    }
+
+    @Override
+    public Task runTimer(Runnable task, long delay, long period) {
+        return Bukkit.getScheduler().runTaskTimer(plugin, task, delay, period)::cancel;
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, task);
+    }
+
+    @Override
+    public void run(Entity entity, Runnable task, Runnable retired) {
+        runOnMainThread(() -> {
+            // Players stay valid while they're dead, only leaving removes them
+            if (entity instanceof Player player ? player.isOnline() : entity.isValid()) {
+                task.run();
+            } else if (retired != null) {
+                retired.run();
+            }
+        });
+    }
+
+    @Override
+    public void run(Location location, Runnable task) {
+        runOnMainThread(task);
+    }
+
+    @Override
+    public int getCurrentTick() {
+        return Bukkit.getCurrentTick();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    private void runOnMainThread(Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            run(task);
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package xyz.holocons.mc.waypoints;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.stream.Stream;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -12,21 +16,32 @@ import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
 
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
 
 public class CommandHandler implements TabExecutor {
 
+    private static final DateTimeFormatter EXPORT_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
     private final PaperPlugin plugin;
+    private final SessionManager sessionManager;
     private final TravelerManager travelerManager;
     private final WaypointManager waypointManager;
 
     public CommandHandler(PaperPlugin plugin) {
         this.plugin = plugin;
+        this.sessionManager = plugin.getSessionManager();
         this.travelerManager = plugin.getTravelerManager();
         this.waypointManager = plugin.getWaypointManager();
     }
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!plugin.isReady()) {
+            sender.sendMessage(Component.text("Waypoints are still loading, try again in a moment!",
+                NamedTextColor.RED));
+            return true;
+        }
+
         if (sender instanceof Player player) {
             switch (command.getName().toUpperCase()) {
                 case "WAYPOINTS" -> {
@@ -38,10 +53,11 @@ public class CommandHandler implements TabExecutor {
                     final var subcommand = args[0].toUpperCase();
                     switch (subcommand) {
                         case "ADDPOINT", "CREATE", "REMOVEPOINT", "SETCAMP", "SETHOME" -> {
-                            new ModifyWaypointTask(plugin, player, ModifyWaypointTask.Mode.valueOf(subcommand));
+                            sessionManager.startSession(player, ModifyWaypointSession.Mode.valueOf(subcommand));
                         }
                         case "CANCEL" -> {
-                            travelerManager.unregisterTask(player);
+                            sessionManager.endSession(player);
+                            plugin.getTeleportManager().cancelTeleport(player);
                         }
                         case "TELEPORT" -> {
                             if (args.length == 1) {
@@ -63,11 +79,17 @@ public class CommandHandler implements TabExecutor {
                     final var subcommand = args[0].toUpperCase();
                     switch (subcommand) {
                         case "ACTIVATE", "DELETE" -> {
-                            new ModifyWaypointTask(plugin, player, ModifyWaypointTask.Mode.valueOf(subcommand));
+                            sessionManager.startSession(player, ModifyWaypointSession.Mode.valueOf(subcommand));
+                        }
+                        case "EXPORT" -> {
+                            exportData(player);
                         }
                         case "MENU" -> {
                             showEditMenu(player);
                         }
+                        case "STATS" -> {
+                            showStats(player);
+                        }
                         default -> {
                             return false;
                         }
@@ -82,38 +104,45 @@ public class CommandHandler implements TabExecutor {
 
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (!plugin.isReady()) {
+            return List.of();
+        }
+
         if (sender instanceof Player player) {
             return switch (command.getName().toUpperCase()) {
                 case "WAYPOINTS" -> {
                     yield switch (args.length) {
+                        case 0 -> List.of();
                         case 1 -> {
                             yield List.of("addpoint", "create", "removepoint", "setcamp", "sethome", "teleport");
                         }
-                        case 2 -> {
+                        default -> {
                             if (args[0].equalsIgnoreCase("teleport")) {
                                 final var traveler = travelerManager.getOrCreateTraveler(player);
-                                final var waypoints = waypointManager.getNamedWaypoints().filter(traveler::hasWaypoint);
-                                var names = waypoints.map(Waypoint::getName);
-
-                                if (traveler.getCamp() != null) {
-                                    names = Stream.concat(names, Stream.of("camp"));
-                                }
-                                if (traveler.getHome() != null) {
-                                    names = Stream.concat(names, Stream.of("home"));
+                                final var destination = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+                                var names = getRegisteredWaypointsByPrefix(traveler, destination)
+                                    .map(waypoint -> getNextWord(waypoint.getName(), destination));
+
+                                if (args.length == 2) {
+                                    if (traveler.getCamp() != null && startsWithIgnoreCase("camp", destination)) {
+                                        names = Stream.concat(names, Stream.of("camp"));
+                                    }
+                                    if (traveler.getHome() != null && startsWithIgnoreCase("home", destination)) {
+                                        names = Stream.concat(names, Stream.of("home"));
+                                    }
                                 }
 
-                                yield names.toList();
+                                yield names.distinct().toList();
                             } else {
                                 yield List.of();
                             }
                         }
-                        default -> List.of();
                     };
                 }
                 case "EDITWAYPOINTS" -> {
                     yield switch (args.length) {
                         case 1 -> {
-                            yield List.of("activate", "delete", "menu");
+                            yield List.of("activate", "delete", "export", "menu", "stats");
                         }
                         default -> List.of();
                     };
@@ -125,6 +154,33 @@ public class CommandHandler implements TabExecutor {
         }
     }
 
+    private void exportData(Player player) {
+        // Snapshot on the main thread, then write the JSON files in the background
+        final var waypoints = waypointManager.copyWaypoints();
+        final var travelers = travelerManager.copyTravelers();
+        final var prefix = "export-" + EXPORT_TIMESTAMP.format(LocalDateTime.now()) + "-";
+
+        plugin.getTaskScheduler().runAsync(() -> {
+            try {
+                final var waypointFile = WaypointManager.exportWaypointsJson(plugin, prefix, waypoints);
+                final var travelerFile = TravelerManager.exportTravelersJson(plugin, prefix, travelers);
+                player.sendMessage(Component.text("Exported waypoint data as " + waypointFile.getName() + " and "
+                    + travelerFile.getName() + "!", NamedTextColor.GOLD));
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to export waypoint data", e);
+                player.sendMessage(Component.text("Failed to export waypoint data!", NamedTextColor.RED));
+            }
+        });
+    }
+
+    private void showStats(Player player) {
+        player.sendMessage(Component.text("Waypoints stats", NamedTextColor.GOLD));
+
+        for (final var line : plugin.getMetrics().report()) {
+            player.sendMessage(Component.text(line, NamedTextColor.GRAY));
+        }
+    }
+
     private void showEditMenu(Player player) {
         // TODO
     }
@@ -150,10 +206,12 @@ public class CommandHandler implements TabExecutor {
                 player.sendMessage(Component.text("You don't have a camp!"));
             }
         } else {
-            Predicate<Waypoint> matchesName = waypoint -> waypoint.getName().matches(destination);
-
-            final var waypoint = waypointManager.getNamedWaypoints().filter(matchesName).findAny().orElse(null);
-            location = traveler.hasWaypoint(waypoint) ? waypoint.getLocation() : null;
+            // Duplicate names resolve to the lowest id the traveler has registered
+            final var waypoint = waypointManager.getNameIndex().getWaypoints(destination)
+                .filter(traveler::hasWaypoint)
+                .findFirst()
+                .orElse(null);
+            location = waypoint != null ? waypoint.getLocation() : null;
         }
 
         if (location == null) {
@@ -161,6 +219,33 @@ public class CommandHandler implements TabExecutor {
             return;
         }
 
-        new TeleportTask(plugin, player, location);
+        sessionManager.endSession(player);
+        plugin.getTeleportManager().startTeleport(player, location);
+    }
+
+    // A short prefix matches most names, then the traveler's own waypoints are fewer to go through
+    private Stream<Waypoint> getRegisteredWaypointsByPrefix(Traveler traveler, String prefix) {
+        final var nameIndex = waypointManager.getNameIndex();
+        final var registered = traveler.copyWaypoints();
+
+        if (nameIndex.countByPrefix(prefix) <= registered.cardinality()) {
+            return nameIndex.getWaypointsByPrefix(prefix).filter(traveler::hasWaypoint);
+        }
+
+        return waypointManager.getWaypoints(registered)
+            .filter(waypoint -> WaypointNameIndex.matchesPrefix(waypoint, prefix))
+            .sorted(WaypointNameIndex.ORDER);
+    }
+
+    // Bukkit only completes the last argument, so suggest the word of a multi-word name that is being typed
+    private static String getNextWord(String name, String typed) {
+        final var wordStart = Math.min(typed.lastIndexOf(' ') + 1, name.length());
+        final var wordEnd = name.indexOf(' ', Math.min(typed.length(), name.length()));
+
+        return wordEnd != -1 ? name.substring(wordStart, wordEnd) : name.substring(wordStart);
+    }
+
+    private static boolean startsWithIgnoreCase(String string, String prefix) {
+        return string.regionMatches(true, 0, prefix, 0, prefix.length());
     }
 }
@@ -12,7 +12,9 @@ import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.inventory.EquipmentSlot;
 
 import io.papermc.paper.event.packet.PlayerChunkLoadEvent;
@@ -24,20 +26,60 @@ public final class EventListener implements Listener {
 
     private final PaperPlugin plugin;
     private final HologramManager hologramManager;
+    private final Journal journal;
+    private final NameManager nameManager;
+    private final SessionManager sessionManager;
     private final TravelerManager travelerManager;
+    private final VisibilityManager visibilityManager;
     private final WaypointManager waypointManager;
+    // Each handler's work is in a handle method, timed by the handler around a single call. A handler that throws
+    // isn't recorded.
+    private final Metrics.Timer blockPlaceTimer;
+    private final Metrics.Timer chunkLoadTimer;
+    private final Metrics.Timer chunkUnloadTimer;
+    private final Metrics.Timer moveTimer;
+    private final Metrics.Timer teleportTimer;
+    private final Metrics.Timer interactTimer;
+    private final Metrics.Timer joinTimer;
+    private final Metrics.Timer quitTimer;
 
     public EventListener(final PaperPlugin plugin) {
         this.plugin = plugin;
 
         // Set managers
         this.hologramManager = plugin.getHologramManager();
+        this.journal = plugin.getJournal();
+        this.nameManager = plugin.getNameManager();
+        this.sessionManager = plugin.getSessionManager();
         this.travelerManager = plugin.getTravelerManager();
+        this.visibilityManager = plugin.getVisibilityManager();
         this.waypointManager = plugin.getWaypointManager();
+
+        // Handler timings
+        final var metrics = plugin.getMetrics();
+        this.blockPlaceTimer = metrics.timer("listener.block-place");
+        this.chunkLoadTimer = metrics.timer("listener.chunk-load");
+        this.chunkUnloadTimer = metrics.timer("listener.chunk-unload");
+        this.moveTimer = metrics.timer("listener.move");
+        this.teleportTimer = metrics.timer("listener.teleport");
+        this.interactTimer = metrics.timer("listener.interact");
+        this.joinTimer = metrics.timer("listener.join");
+        this.quitTimer = metrics.timer("listener.quit");
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
+        // Nothing is indexed until the loaded data is published
+        if (!plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        handleBlockPlace(event);
+        blockPlaceTimer.record(start);
+    }
+
+    private void handleBlockPlace(BlockPlaceEvent event) {
         // Don't continue if block placed isn't a banner
         if (!Tag.ITEMS_BANNERS.isTagged(event.getItemInHand().getType())) {
             return;
@@ -45,15 +87,17 @@ public final class EventListener implements Listener {
 
         final var blockPlaced = event.getBlockPlaced();
         final var player =  event.getPlayer();
-        // Check if the player has an open modify waypoint task
-        final var task = travelerManager.getTask(player, ModifyWaypointTask.class);
+        // Check if the player has an open modify waypoint session
+        final var session = sessionManager.getSession(player);
 
-        if (task == null) {
+        if (session == null) {
             // Check if there's a waypoint in this chunk
             if (waypointManager.isWaypoint(blockPlaced)) {
-                // Add player to waypoint
+                // The banner was replaced, so take a new snapshot of it
                 final var waypoint = waypointManager.getNearbyWaypoint(blockPlaced);
-                hologramManager.updateTrackedPlayers(waypoint, player);
+                waypointManager.refreshBanner(waypoint);
+                journal.refreshBanner(waypoint);
+                hologramManager.updateViewers(waypoint);
             }
 
             return;
@@ -63,7 +107,7 @@ public final class EventListener implements Listener {
             return;
         }
 
-        switch (task.getMode()) {
+        switch (session.mode()) {
             case CREATE -> {
                 // Attempt to create waypoint
                 final var waypoint = waypointManager.createWaypoint(blockPlaced);
@@ -73,14 +117,15 @@ public final class EventListener implements Listener {
                     return;
                 }
 
-                hologramManager.showTrackedPlayers(waypoint, player);
+                journal.createWaypoint(waypoint);
+                visibilityManager.loadWaypointTrackedPlayers(waypoint, player);
             }
             default -> {
                 return;
             }
         }
 
-        travelerManager.unregisterTask(player);
+        sessionManager.endSession(player);
     }
 
     private boolean isValidWaypointPlacement(Block blockPlaced, Block blockAgainst) {
@@ -95,28 +140,97 @@ public final class EventListener implements Listener {
 
     @EventHandler
     public void onPlayerChunkLoad(PlayerChunkLoadEvent event) {
-        final var waypoint = waypointManager.getWaypoint(event.getChunk().getChunkKey());
+        if (!plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        handlePlayerChunkLoad(event);
+        chunkLoadTimer.record(start);
+    }
+
+    private void handlePlayerChunkLoad(PlayerChunkLoadEvent event) {
+        final var waypoint = waypointManager.getWaypoint(event.getWorld(), event.getChunk().getChunkKey());
 
-        if (waypoint == null || waypoint.getLocation().getWorld() != event.getWorld()) {
+        if (waypoint == null) {
             return;
         }
 
-        hologramManager.show(waypoint, event.getPlayer());
+        visibilityManager.loadWaypoint(waypoint, event.getPlayer());
     }
 
     @EventHandler
     public void onPlayerChunkUnload(PlayerChunkUnloadEvent event) {
-        final var waypoint = waypointManager.getWaypoint(event.getChunk().getChunkKey());
+        if (!plugin.isReady()) {
+            return;
+        }
 
-        if (waypoint == null || waypoint.getLocation().getWorld() != event.getWorld()) {
+        final var start = System.nanoTime();
+        handlePlayerChunkUnload(event);
+        chunkUnloadTimer.record(start);
+    }
+
+    private void handlePlayerChunkUnload(PlayerChunkUnloadEvent event) {
+        final var waypoint = waypointManager.getWaypoint(event.getWorld(), event.getChunk().getChunkKey());
+
+        if (waypoint == null) {
             return;
         }
 
-        hologramManager.hide(waypoint, event.getPlayer());
+        visibilityManager.unloadWaypoint(waypoint, event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        if (!plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        handlePlayerMove(event);
+        moveTimer.record(start);
+    }
+
+    private void handlePlayerMove(PlayerMoveEvent event) {
+        final var from = event.getFrom();
+        final var to = event.getTo();
+
+        // Holograms are only re-checked when the player crosses into another chunk
+        if (from.getBlockX() >> 4 == to.getBlockX() >> 4 && from.getBlockZ() >> 4 == to.getBlockZ() >> 4
+            && from.getWorld() == to.getWorld()) {
+            return;
+        }
+
+        visibilityManager.move(event.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        if (!plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        handlePlayerTeleport(event);
+        teleportTimer.record(start);
+    }
+
+    private void handlePlayerTeleport(PlayerTeleportEvent event) {
+        visibilityManager.move(event.getPlayer(), event.getTo());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = false)
     public void onPlayerInteract(PlayerInteractEvent event) {
+        if (!plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        handlePlayerInteract(event);
+        interactTimer.record(start);
+    }
+
+    private void handlePlayerInteract(PlayerInteractEvent event) {
         // Check if hand is empty and is right-clicking on a block
         if (event.isBlockInHand() || event.getAction() != Action.RIGHT_CLICK_BLOCK || event.getHand() != EquipmentSlot.HAND) {
             return;
@@ -124,24 +238,28 @@ public final class EventListener implements Listener {
 
         final var clickedBlock = event.getClickedBlock();
         final var player = event.getPlayer();
-        // Check if player has pending task
-        final var task = travelerManager.getTask(player, ModifyWaypointTask.class);
+        // Check if player has pending session
+        final var session = sessionManager.getSession(player);
 
         if (!waypointManager.isWaypoint(clickedBlock)) {
-            // Don't continue if there isn't a pending task or if the banner isn't tagged with the block
-            if (task == null || !Tag.ITEMS_BANNERS.isTagged(clickedBlock.getType())) {
+            // Don't continue if there isn't a pending session or if the banner isn't tagged with the block
+            if (session == null || !Tag.ITEMS_BANNERS.isTagged(clickedBlock.getType())) {
                 return;
             }
 
-            switch (task.getMode()) {
+            switch (session.mode()) {
                 case SETCAMP -> {
                     if (plugin.getWorldCamp().contains(clickedBlock.getWorld().getName())) {
-                        travelerManager.getOrCreateTraveler(player).setCamp(clickedBlock.getLocation());
+                        final var traveler = travelerManager.getOrCreateTraveler(player);
+                        traveler.setCamp(clickedBlock.getLocation());
+                        journal.setCamp(player.getUniqueId(), traveler.getStoredCamp());
                     }
                 }
                 case SETHOME -> {
                     if (plugin.getWorldHome().contains(clickedBlock.getWorld().getName())) {
-                        travelerManager.getOrCreateTraveler(player).setHome(clickedBlock.getLocation());
+                        final var traveler = travelerManager.getOrCreateTraveler(player);
+                        traveler.setHome(clickedBlock.getLocation());
+                        journal.setHome(player.getUniqueId(), traveler.getStoredHome());
                     }
                 }
                 default -> {
@@ -149,44 +267,37 @@ public final class EventListener implements Listener {
                 }
             }
 
-            travelerManager.unregisterTask(player);
+            sessionManager.endSession(player);
             return;
         }
 
         final var waypoint = waypointManager.getNearbyWaypoint(clickedBlock);
 
-        if (task == null) {
+        if (session == null) {
             if (waypoint.isActive()) {
                 // Register waypoint
                 final var traveler = travelerManager.getOrCreateTraveler(player);
 
                 if (!traveler.hasWaypoint(waypoint)) {
-                    traveler.registerWaypoint(waypoint);
+                    travelerManager.registerWaypoint(player, waypoint);
+                    journal.registerWaypoint(player.getUniqueId(), waypoint);
                     player.sendMessage(Component.text("You registered a waypoint!", NamedTextColor.GOLD));
                 }
             } else {
                 // If waypoint is inactive, show the contributor/token requirement in an actionbar
                 final var tokenRequirement = plugin.getWaypointTokenRequirement();
-                final var contributors = waypoint.getContributorNames();
-                final var contributorNamesBuilder = Component.text()
-                    .color(NamedTextColor.GOLD);
-
-                if (contributors.isEmpty()) {
-                    contributorNamesBuilder.append(Component.text("Nobody has contributed to this waypoint!"));
-                } else {
-                    contributorNamesBuilder.append(Component.text("Contributors: " + String.join(", ", contributors)));
-                }
 
-                player.sendMessage(contributorNamesBuilder.build());
-                sendActionBar(player, contributors.size(), tokenRequirement);
+                player.sendMessage(waypoint.getContributorsComponent(nameManager));
+                sendActionBar(player, waypoint.getContributors().size(), tokenRequirement);
             }
             return;
         }
 
-        switch (task.getMode()) {
+        switch (session.mode()) {
             case ACTIVATE -> {
-                waypoint.activate();
-                hologramManager.updateTrackedPlayers(waypoint, player);
+                waypointManager.activateWaypoint(waypoint);
+                journal.activateWaypoint(waypoint);
+                hologramManager.updateViewers(waypoint);
             }
             case ADDPOINT -> {
                 if (waypoint.isActive()) {
@@ -194,23 +305,24 @@ public final class EventListener implements Listener {
                 }
 
                 final var tokenRequirement = plugin.getWaypointTokenRequirement();
-                final var contributors = waypoint.getContributors();
                 final var traveler = travelerManager.getOrCreateTraveler(player);
-                final var tokens = traveler.getTokens();
 
-                if (tokens > 0) {
+                // The token is taken atomically, so it can't be spent twice from two regions
+                if (traveler.takeToken()) {
                     player.sendMessage(Component.text("You added a token!", NamedTextColor.BLUE));
 
-                    traveler.setTokens(tokens - 1);
-                    contributors.add(player.getUniqueId());
+                    waypoint.addContributor(player.getUniqueId());
+                    journal.setTokens(player.getUniqueId(), traveler.getTokens());
+                    journal.addContributor(waypoint, player.getUniqueId());
 
-                    if (contributors.size() >= tokenRequirement) {
-                        waypoint.activate();
-                        hologramManager.updateTrackedPlayers(waypoint, player);
+                    if (waypoint.getContributors().size() >= tokenRequirement) {
+                        waypointManager.activateWaypoint(waypoint);
+                        journal.activateWaypoint(waypoint);
+                        hologramManager.updateViewers(waypoint);
                     }
                 }
 
-                sendActionBar(player, contributors.size(), tokenRequirement);
+                sendActionBar(player, waypoint.getContributors().size(), tokenRequirement);
             }
             case CREATE -> {
                 if (waypoint.isActive()) {
@@ -220,29 +332,33 @@ public final class EventListener implements Listener {
                 // Remove waypoint
 
                 waypointManager.removeWaypoint(waypoint);
+                journal.removeWaypoint(waypoint);
 
                 final var maxTokens = plugin.getTravelerMaxTokens();
 
                 for (final var uniqueId : waypoint.getContributors()) {
                     final var traveler = travelerManager.getOrCreateTraveler(uniqueId);
-                    traveler.setTokens(Math.min(traveler.getTokens() + 1, maxTokens));
+                    journal.setTokens(uniqueId, traveler.giveToken(maxTokens));
                 }
 
-                hologramManager.remove(waypoint);
+                visibilityManager.remove(waypoint);
             }
             case DELETE -> {
-                // Force remove waypoint
+                // Force remove waypoint, unregistering it before its id can be reused
+                final var registrations = travelerManager.removeWaypoint(waypoint);
                 waypointManager.removeWaypoint(waypoint);
-                travelerManager.removeWaypoint(waypoint);
+                journal.removeWaypoint(waypoint);
+                player.sendMessage(Component.text(String.format("Deleted a waypoint registered by %d travelers!",
+                    registrations), NamedTextColor.RED));
 
                 final var maxTokens = plugin.getTravelerMaxTokens();
 
                 for (final var uniqueId : waypoint.getContributors()) {
                     final var traveler = travelerManager.getOrCreateTraveler(uniqueId);
-                    traveler.setTokens(Math.min(traveler.getTokens() + 1, maxTokens));
+                    journal.setTokens(uniqueId, traveler.giveToken(maxTokens));
                 }
 
-                hologramManager.remove(waypoint);
+                visibilityManager.remove(waypoint);
             }
             case REMOVEPOINT -> {
                 if (waypoint.isActive()) {
@@ -250,28 +366,28 @@ public final class EventListener implements Listener {
                 }
 
                 final var uniqueId = player.getUniqueId();
-                final var contributors = waypoint.getContributors();
 
-                if (contributors.contains(uniqueId)) {
+                // Only the removal that actually took the contribution gives the token back
+                if (waypoint.removeContributor(uniqueId)) {
                     player.sendMessage(Component.text("You removed a token!", NamedTextColor.BLUE));
 
                     final var maxTokens = plugin.getTravelerMaxTokens();
                     final var traveler = travelerManager.getOrCreateTraveler(player);
 
-                    traveler.setTokens(Math.min(traveler.getTokens() + 1, maxTokens));
-                    contributors.remove(uniqueId);
+                    journal.setTokens(uniqueId, traveler.giveToken(maxTokens));
+                    journal.removeContributor(waypoint, uniqueId);
                 }
 
                 final var tokenRequirement = plugin.getWaypointTokenRequirement();
 
-                sendActionBar(player, contributors.size(), tokenRequirement);
+                sendActionBar(player, waypoint.getContributors().size(), tokenRequirement);
             }
             default -> {
                 return;
             }
         }
 
-        travelerManager.unregisterTask(player);
+        sessionManager.endSession(player);
     }
 
     private static void sendActionBar(Player player, int contributorsSize, int tokenRequirement) {
@@ -280,17 +396,45 @@ public final class EventListener implements Listener {
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
+        if (!plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        handlePlayerJoin(event);
+        joinTimer.record(start);
+    }
+
+    private void handlePlayerJoin(PlayerJoinEvent event) {
         final var player = event.getPlayer();
 
-        travelerManager.getOrCreateTraveler(player).startRegenCharge(plugin);
+        nameManager.putName(player.getUniqueId(), player.getName());
+
+        // Charges follow the player to whichever server they're on, with regeneration paused while they're away
+        final var traveler = travelerManager.getOrCreateTraveler(player);
+        traveler.startRegenCharge(plugin);
+        journal.setCharges(player.getUniqueId(), traveler);
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
+        if (!plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        handlePlayerQuit(event);
+        quitTimer.record(start);
+    }
+
+    private void handlePlayerQuit(PlayerQuitEvent event) {
         final var player = event.getPlayer();
 
-        travelerManager.getOrCreateTraveler(player).stopRegenCharge();
-        travelerManager.unregisterTask(player);
-        hologramManager.remove(player);
+        final var traveler = travelerManager.getOrCreateTraveler(player);
+        traveler.stopRegenCharge(plugin);
+        journal.setCharges(player.getUniqueId(), traveler);
+        sessionManager.endSession(player);
+        plugin.getTeleportManager().cancelTeleport(player);
+        visibilityManager.remove(player);
     }
 }
@@ -2,25 +2,92 @@ package xyz.holocons.mc.waypoints;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 
-import org.bukkit.Bukkit;
-import org.bukkit.Location;
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.block.banner.Pattern;
+import org.bukkit.block.banner.PatternType;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
 
 public class GsonReader extends JsonReader {
 
+    // Files without a version property are schema v1
+    private int version = 1;
+    // World dictionary of a v2 file, keyed by the UUID string records refer to
+    private final HashMap<String, UUID> worldIds = new HashMap<>();
+    private final HashMap<String, String> worldNames = new HashMap<>();
+
     public GsonReader(final Gson gson, final File file) throws FileNotFoundException {
-        super(new BufferedReader(new FileReader(file)));
+        this(new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)));
+    }
+
+    public GsonReader(final Reader reader) {
+        super(reader);
+    }
+
+    // For a reader over part of a file, takes the version and world dictionary another reader read from its header
+    public void useHeader(GsonReader header) {
+        version = header.version;
+        worldIds.putAll(header.worldIds);
+        worldNames.putAll(header.worldNames);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int nextVersion() throws IOException {
+        final var fileVersion = nextInt();
+
+        if (fileVersion < 1 || fileVersion > GsonWriter.SCHEMA_VERSION) {
+            throw new IOException("Unsupported schema version " + fileVersion);
+        }
+
+        version = fileVersion;
+        return version;
+    }
+
+    // Reads a {"uuid": "name"} world dictionary. Worlds aren't looked up, so this works before they're loaded.
+    public void nextWorlds() throws IOException {
+        beginObject();
+        while (hasNext()) {
+            final var key = nextName();
+            UUID uniqueId;
+            try {
+                uniqueId = UUID.fromString(key);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e);
+            }
+            String name = null;
+            if (peek() == JsonToken.NULL) {
+                nextNull();
+            } else {
+                name = nextString();
+            }
+
+            worldIds.put(key, uniqueId);
+            worldNames.put(key, name);
+        }
+        endObject();
     }
 
     public Waypoint nextWaypoint() throws IOException {
@@ -32,8 +99,9 @@ public class GsonReader extends JsonReader {
         int id = -1;
         boolean active = false;
 
-        Location location = null;
+        StoredLocation location = null;
         ArrayList<UUID> contributors = null;
+        Waypoint.Banner banner = null;
 
         beginObject();
         while (hasNext()) {
@@ -42,12 +110,100 @@ public class GsonReader extends JsonReader {
                 case "location"     -> location = nextLocation();
                 case "contributors" -> contributors = nextArrayListUUID();
                 case "active"       -> active = nextBoolean();
-                default -> throw new IOException("Unrecognized property name");
+                case "banner"       -> banner = nextBanner();
+                default -> skipValue();
             }
         }
         endObject();
 
-        return id != -1 ? new Waypoint(id, location, contributors, active) : null;
+        if (id != -1 && location == null) {
+            throw new IOException("Waypoint " + id + " has no location");
+        }
+
+        return id != -1 ? new Waypoint(id, location, contributors, active, banner) : null;
+    }
+
+    public Waypoint.Banner nextBanner() throws IOException {
+        if (peek() == JsonToken.NULL) {
+            nextNull();
+            return null;
+        }
+
+        Material type = null;
+        Component name = null;
+        List<Pattern> patterns = null;
+
+        beginObject();
+        while (hasNext()) {
+            switch (nextName()) {
+                case "type"     -> type = Material.getMaterial(nextString());
+                case "name"     -> name = nextComponent();
+                case "patterns" -> patterns = nextPatterns();
+                default -> skipValue();
+            }
+        }
+        endObject();
+
+        if (type == null) {
+            throw new IOException("Invalid banner type");
+        }
+
+        return new Waypoint.Banner(type, name, patterns);
+    }
+
+    public Component nextComponent() throws IOException {
+        if (peek() == JsonToken.NULL) {
+            nextNull();
+            return null;
+        }
+
+        try {
+            return GsonComponentSerializer.gson().deserialize(nextString());
+        } catch (RuntimeException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public List<Pattern> nextPatterns() throws IOException {
+        if (peek() == JsonToken.NULL) {
+            nextNull();
+            return null;
+        }
+
+        ArrayList<Pattern> list = new ArrayList<>();
+
+        beginArray();
+        while (hasNext()) {
+            DyeColor color = null;
+            PatternType pattern = null;
+
+            beginObject();
+            while (hasNext()) {
+                switch (nextName()) {
+                    case "color"   -> color = nextDyeColor();
+                    case "pattern" -> pattern = PatternType.getByIdentifier(nextString());
+                    default -> skipValue();
+                }
+            }
+            endObject();
+
+            if (color == null || pattern == null) {
+                throw new IOException("Invalid banner pattern");
+            }
+
+            list.add(new Pattern(color, pattern));
+        }
+        endArray();
+
+        return list;
+    }
+
+    private DyeColor nextDyeColor() throws IOException {
+        try {
+            return DyeColor.valueOf(nextString());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
     }
 
     public Traveler nextTraveler() throws IOException {
@@ -58,9 +214,11 @@ public class GsonReader extends JsonReader {
 
         int charges = 1;
         int tokens = 1;
+        long regenTime = 0;
+        long pauseTime = 0;
 
-        Location home = null;
-        Location camp = null;
+        StoredLocation home = null;
+        StoredLocation camp = null;
         BitSet waypoints = null;
 
         beginObject();
@@ -68,39 +226,76 @@ public class GsonReader extends JsonReader {
             switch (nextName()) {
                 case "charges"   -> charges = nextInt();
                 case "tokens"    -> tokens = nextInt();
+                case "regenTime" -> regenTime = nextLong();
+                case "pauseTime" -> pauseTime = nextLong();
                 case "home"      -> home = nextLocation();
                 case "camp"      -> camp = nextLocation();
                 case "waypoints" -> waypoints = nextBitSet();
-                default -> throw new IOException("Unrecognized property name");
+                default -> skipValue();
             }
         }
         endObject();
 
-        return new Traveler(charges, tokens, home, camp, waypoints);
+        return new Traveler(charges, tokens, home, camp, waypoints, regenTime, pauseTime);
     }
 
-    public Location nextLocation() throws IOException {
-        if (peek() == JsonToken.NULL) {
-            nextNull();
-            return null;
+    // Reads a v2 {"world": "uuid", "x": 0.0, "y": 0.0, "z": 0.0} object, or a v1 "world,x,y,z" string that only has
+    // the world name
+    public StoredLocation nextLocation() throws IOException {
+        return switch (peek()) {
+            case NULL -> {
+                nextNull();
+                yield null;
+            }
+            case STRING -> nextLegacyLocation();
+            default -> nextLocationObject();
+        };
+    }
+
+    private StoredLocation nextLocationObject() throws IOException {
+        String worldKey = null;
+        double x = 0;
+        double y = 0;
+        double z = 0;
+
+        beginObject();
+        while (hasNext()) {
+            switch (nextName()) {
+                case "world" -> worldKey = nextString();
+                case "x"     -> x = nextDouble();
+                case "y"     -> y = nextDouble();
+                case "z"     -> z = nextDouble();
+                default -> skipValue();
+            }
+        }
+        endObject();
+
+        final var worldId = worldKey != null ? worldIds.get(worldKey) : null;
+
+        if (worldId == null) {
+            throw new IOException("Location refers to world " + worldKey + " that isn't in the world dictionary");
         }
 
+        return new StoredLocation(worldId, worldNames.get(worldKey), x, y, z);
+    }
+
+    private StoredLocation nextLegacyLocation() throws IOException {
         var location = nextString().split(",");
-        var world = Bukkit.getWorld(location[0]);
-        if (world != null) {
-            double x, y, z;
-            try {
-                x = Double.parseDouble(location[1]);
-                y = Double.parseDouble(location[2]);
-                z = Double.parseDouble(location[3]);
-            } catch (NullPointerException | NumberFormatException e) {
-                throw new IOException(e);
-            }
 
-            return new Location(world, x, y, z);
-        } else {
-            return null;
+        if (location.length != 4) {
+            throw new IOException("Invalid location");
+        }
+
+        double x, y, z;
+        try {
+            x = Double.parseDouble(location[1]);
+            y = Double.parseDouble(location[2]);
+            z = Double.parseDouble(location[3]);
+        } catch (NumberFormatException e) {
+            throw new IOException(e);
         }
+
+        return new StoredLocation(null, location[0], x, y, z);
     }
 
     public BitSet nextBitSet() throws IOException {
@@ -148,4 +343,26 @@ public class GsonReader extends JsonReader {
 
         return !list.isEmpty() ? list : null;
     }
+
+    // Reads a {"uuid": "name"} object into names
+    public void nextNames(Map<UUID, String> names) throws IOException {
+        beginObject();
+        while (hasNext()) {
+            final var key = nextName();
+            UUID uniqueId;
+            try {
+                uniqueId = UUID.fromString(key);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e);
+            }
+
+            if (peek() == JsonToken.NULL) {
+                nextNull();
+                continue;
+            }
+
+            names.put(uniqueId, nextString());
+        }
+        endObject();
+    }
 }
@@ -2,23 +2,84 @@ package xyz.holocons.mc.waypoints;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonWriter;
 
-import org.bukkit.Location;
+import org.bukkit.block.banner.Pattern;
+
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
 
 public class GsonWriter extends JsonWriter {
 
+    // v1 is a bare array or object with locations as "world,x,y,z" strings, v2 adds the header
+    public static final int SCHEMA_VERSION = 2;
+
+    private final File file;
+    private final File tempFile;
+    private final FileOutputStream outputStream;
+    // UUID strings of the worlds in the header, so locations don't convert theirs every time
+    private final HashMap<UUID, String> worldIds = new HashMap<>();
+
     public GsonWriter(final Gson gson, final File file) throws IOException {
-        super(new BufferedWriter(new FileWriter(file, Charset.forName("UTF-8"))));
+        this(file, AtomicFile.getTempFile(file));
+    }
+
+    private GsonWriter(final File file, final File tempFile) throws IOException {
+        this(file, tempFile, new FileOutputStream(tempFile));
+    }
+
+    private GsonWriter(final File file, final File tempFile, final FileOutputStream outputStream) {
+        super(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+        this.file = file;
+        this.tempFile = tempFile;
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        outputStream.getChannel().force(true);
+        super.close();
+        AtomicFile.commit(tempFile, file);
+    }
+
+    // Writes the version and the world dictionary of every location the file will contain, inside the top level object
+    public void header(Iterable<StoredLocation> locations) throws IOException {
+        final var worlds = new LinkedHashMap<String, String>();
+
+        for (var location : locations) {
+            final var worldId = location != null ? location.getWorldId() : null;
+
+            if (worldId != null && !worldIds.containsKey(worldId)) {
+                final var key = worldId.toString();
+                worldIds.put(worldId, key);
+                worlds.put(key, location.getWorldName());
+            }
+        }
+
+        name("version");
+        value(SCHEMA_VERSION);
+
+        name("worlds");
+        beginObject();
+        for (var world : worlds.entrySet()) {
+            name(world.getKey());
+            value(world.getValue());
+        }
+        endObject();
     }
 
     public void value(Waypoint value) throws IOException {
@@ -33,7 +94,7 @@ public class GsonWriter extends JsonWriter {
         value(value.getId());
 
         name("location");
-        value(value.getLocation());
+        value(value.getStoredLocation());
 
         name("contributors");
         value(value.getContributors());
@@ -41,9 +102,57 @@ public class GsonWriter extends JsonWriter {
         name("active");
         value(value.isActive());
 
+        name("banner");
+        value(value.getBanner());
+
+        endObject();
+    }
+
+    public void value(Waypoint.Banner value) throws IOException {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+
+        beginObject();
+
+        name("type");
+        value(value.type().name());
+
+        name("name");
+        if (value.name() != null) {
+            value(GsonComponentSerializer.gson().serialize(value.name()));
+        } else {
+            nullValue();
+        }
+
+        name("patterns");
+        value(value.patterns());
+
         endObject();
     }
 
+    public void value(List<Pattern> value) throws IOException {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+
+        beginArray();
+        for (var pattern : value) {
+            beginObject();
+
+            name("color");
+            value(pattern.getColor().name());
+
+            name("pattern");
+            value(pattern.getPattern().getIdentifier());
+
+            endObject();
+        }
+        endArray();
+    }
+
     public void value(Traveler value) throws IOException {
         if (value == null) {
             nullValue();
@@ -53,16 +162,22 @@ public class GsonWriter extends JsonWriter {
         beginObject();
 
         name("charges");
-        value(value.getCharges());
+        value(value.getStoredCharges());
+
+        name("regenTime");
+        value(value.getRegenTime());
+
+        name("pauseTime");
+        value(value.getPauseTime());
 
         name("tokens");
         value(value.getTokens());
 
         name("home");
-        value(value.getHome());
+        value(value.getStoredHome());
 
         name("camp");
-        value(value.getCamp());
+        value(value.getStoredCamp());
 
         name("waypoints");
         value(value.getWaypoints());
@@ -70,18 +185,33 @@ public class GsonWriter extends JsonWriter {
         endObject();
     }
 
-    public void value(Location value) throws IOException {
+    public void value(StoredLocation value) throws IOException {
         if (value == null) {
             nullValue();
             return;
         }
 
-        var world = value.getWorld().getName();
-        var x = Double.toString(value.getX());
-        var y = Double.toString(value.getY());
-        var z = Double.toString(value.getZ());
+        final var world = value.getWorldId() != null ? worldIds.get(value.getWorldId()) : null;
+
+        if (world == null) {
+            throw new IOException("World " + value.getWorldName() + " isn't in the header");
+        }
 
-        value(world + ',' + x + ',' + y + ',' + z);
+        beginObject();
+
+        name("world");
+        value(world);
+
+        name("x");
+        value(value.getX());
+
+        name("y");
+        value(value.getY());
+
+        name("z");
+        value(value.getZ());
+
+        endObject();
     }
 
     public void value(BitSet value) throws IOException {
@@ -109,4 +239,18 @@ public class GsonWriter extends JsonWriter {
         }
         endArray();
     }
+
+    public void value(Map<UUID, String> value) throws IOException {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+
+        beginObject();
+        for (var entry : value.entrySet()) {
+            name(entry.getKey().toString());
+            value(entry.getValue());
+        }
+        endObject();
+    }
 }
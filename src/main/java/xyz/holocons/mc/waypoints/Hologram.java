@@ -2,6 +2,7 @@ package xyz.holocons.mc.waypoints;
 
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.events.PacketContainer;
@@ -9,26 +10,92 @@ import com.comphenix.protocol.wrappers.WrappedChatComponent;
 import com.comphenix.protocol.wrappers.WrappedDataWatcher;
 import com.comphenix.protocol.wrappers.WrappedDataWatcher.Registry;
 
-import org.bukkit.entity.Player;
+import org.bukkit.Bukkit;
 import org.bukkit.util.Vector;
 
 import it.unimi.dsi.fastutil.ints.IntList;
 import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
 
-public record Hologram(long chunkKey, UUID uniqueId) {
+// The fake armor stand showing a waypoint's name. Every player sees the same entity, so its packets are built once and
+// only rebuilt when the waypoint's display changes. Players are shown holograms from their own region threads, so the
+// packets are published through volatile fields, and two threads building the same packet at once is harmless.
+public final class Hologram {
 
-    public Hologram(Waypoint waypoint, Player player) {
-        this(waypoint.getChunkKey(), player.getUniqueId());
+    // A metadata packet and the display revision it was built from, published together
+    private record Metadata(PacketContainer packet, int revision) {
     }
 
     // https://wiki.vg/Entity_metadata#Mobs
     private static final int ARMOR_STAND_TYPE_ID = 1;
     private static final Vector HOLOGRAM_POSITION_OFFSET = new Vector(0.5, 1.6, 0.5);
 
+    private final Waypoint waypoint;
+    private final int entityId;
+    private final UUID uniqueId;
+    private volatile PacketContainer spawnPacket;
+    private volatile Metadata metadata;
+    private volatile PacketContainer destroyPacket;
+
+    @SuppressWarnings("deprecation")
+    public Hologram(Waypoint waypoint) {
+        this(waypoint, Bukkit.getUnsafe().nextEntityId(),
+            new UUID(ThreadLocalRandom.current().nextLong(), ThreadLocalRandom.current().nextLong()));
+    }
+
+    public Hologram(Waypoint waypoint, int entityId, UUID uniqueId) {
+        this.waypoint = waypoint;
+        this.entityId = entityId;
+        this.uniqueId = uniqueId;
+    }
+
+    public Waypoint getWaypoint() {
+        return waypoint;
+    }
+
+    public int getEntityId() {
+        return entityId;
+    }
+
+    public PacketContainer getSpawnPacket() {
+        // The waypoint never moves, so this never has to be rebuilt
+        var packet = spawnPacket;
+
+        if (packet == null) {
+            packet = createSpawnPacket(entityId, uniqueId, waypoint);
+            spawnPacket = packet;
+        }
+
+        return packet;
+    }
+
+    public PacketContainer getMetadataPacket() {
+        // Read before building, a change made during the build gets a newer revision and is built again next time
+        final var revision = waypoint.getDisplayRevision();
+        var current = metadata;
+
+        if (current == null || current.revision() != revision) {
+            current = new Metadata(createMetadataPacket(entityId, waypoint), revision);
+            metadata = current;
+        }
+
+        return current.packet();
+    }
+
+    public PacketContainer getDestroyPacket() {
+        var packet = destroyPacket;
+
+        if (packet == null) {
+            packet = createDestroyPacket(entityId);
+            destroyPacket = packet;
+        }
+
+        return packet;
+    }
+
     // https://nms.screamingsandals.org/1.18.1/net/minecraft/network/protocol/game/ClientboundAddMobPacket.html
-    public static PacketContainer getSpawnPacket(int entityId, UUID uniqueId, Waypoint waypoint) {
+    public static PacketContainer createSpawnPacket(int entityId, UUID uniqueId, Waypoint waypoint) {
         // Calculate the hologram location
-        var location = waypoint.getLocation().add(HOLOGRAM_POSITION_OFFSET);
+        var location = waypoint.getStoredLocation();
 
         // Create a new entity to send to the client
         var packet = new PacketContainer(PacketType.Play.Server.SPAWN_ENTITY_LIVING);
@@ -43,9 +110,9 @@ public record Hologram(long chunkKey, UUID uniqueId) {
 
         // Set entity location
         packet.getDoubles()
-            .write(0, location.getX())      // x
-            .write(1, location.getY())      // y
-            .write(2, location.getZ());     // z
+            .write(0, location.getX() + HOLOGRAM_POSITION_OFFSET.getX())    // x
+            .write(1, location.getY() + HOLOGRAM_POSITION_OFFSET.getY())    // y
+            .write(2, location.getZ() + HOLOGRAM_POSITION_OFFSET.getZ());   // z
 
         // Set the entity UUID
         packet.getUUIDs()
@@ -62,7 +129,7 @@ public record Hologram(long chunkKey, UUID uniqueId) {
 
     // https://nms.screamingsandals.org/1.18.1/net/minecraft/network/protocol/game/ClientboundSetEntityDataPacket.html
     // https://wiki.vg/Entity_metadata#Entity_Metadata_Format
-    public static PacketContainer getMetadataPacket(int entityId, Waypoint waypoint) {
+    public static PacketContainer createMetadataPacket(int entityId, Waypoint waypoint) {
         // Get the waypoint name as chat component
         var name = WrappedChatComponent.fromJson(GsonComponentSerializer.gson().serialize(waypoint.getDisplayName()));
 
@@ -93,7 +160,7 @@ public record Hologram(long chunkKey, UUID uniqueId) {
     }
 
     // https://nms.screamingsandals.org/1.18.1/net/minecraft/network/protocol/game/ClientboundRemoveEntitiesPacket.html
-    public static PacketContainer getDestroyPacket(int... entityId) {
+    public static PacketContainer createDestroyPacket(int... entityId) {
         var entityIds = IntList.of(entityId);
         var packet = new PacketContainer(PacketType.Play.Server.ENTITY_DESTROY);
 
@@ -1,79 +1,155 @@
 package xyz.holocons.mc.waypoints;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.PacketContainer;
 
-import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.entity.Player;
 
-public class HologramManager {
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 
-    public record FakeEntity(int entityId, UUID uniqueId) {
+// Show and hide requests only record what each player should see. Once per tick the pending changes are resolved
+// against what the player actually has, and the resulting packets are handed to a single sender thread, so a join or a
+// long teleport doesn't send hundreds of packets from inside the chunk events.
+//
+// Show and hide requests come from the thread that owns the player, which also hands over the player's position for
+// ordering the spawns. The tick task never touches the player itself, it only builds packets. A player's pending
+// changes and shown holograms are guarded by the stripe their UUID falls in, so players handled on different threads
+// rarely contend, and the tick task only ever holds one stripe at a time. Players are dropped when they quit.
+public class HologramManager implements Runnable {
 
-        private static final ThreadLocalRandom RANDOM = ThreadLocalRandom.current();
+    private static final int STRIPES = 64;
 
-        @SuppressWarnings("deprecation")
-        public FakeEntity() {
-            this(Bukkit.getUnsafe().nextEntityId(), new UUID(RANDOM.nextLong(), RANDOM.nextLong()));
+    private static final class Pending {
+
+        private final Player player;
+        // Waypoint id -> waypoint that should be spawned for the player
+        private final Int2ObjectOpenHashMap<Waypoint> shows;
+        // Waypoint id -> tick at which the hologram should be destroyed for the player
+        private final Int2IntOpenHashMap hides;
+        // Where the player was at the last show, the nearest holograms are spawned first
+        private UUID worldId;
+        private double x;
+        private double y;
+        private double z;
+
+        private Pending(Player player) {
+            this.player = player;
+            this.shows = new Int2ObjectOpenHashMap<>();
+            this.hides = new Int2IntOpenHashMap();
+        }
+
+        private boolean isEmpty() {
+            return shows.isEmpty() && hides.isEmpty();
         }
     }
 
+    private record Send(Player player, PacketContainer packet) {
+    }
+
+    private final PaperPlugin plugin;
     private final ProtocolManager protocolManager;
-    private final HashMap<Hologram, Integer> holograms;
+    private final TaskScheduler scheduler;
+    // One thread, so every player receives their packets in the order they were queued
+    private final ExecutorService executor;
+    private final Object[] stripes;
+    // Waypoint id -> the hologram entity shared by every viewer
+    private final ConcurrentHashMap<Integer, Hologram> holograms;
+    // Player UUID -> ids of the waypoints whose hologram is shown to them, guarded by the player's stripe
+    private final ConcurrentHashMap<UUID, IntOpenHashSet> shownWaypoints;
+    // Waypoint id -> players the hologram is shown to
+    private final ConcurrentHashMap<Integer, Set<Player>> viewers;
+    // Player UUID -> changes that haven't been dispatched yet, guarded by the player's stripe
+    private final ConcurrentHashMap<UUID, Pending> pending;
+    private final Metrics.Counter packetsSent;
+    private final Metrics.Counter spawns;
+    private final Metrics.Counter destroys;
+    private final Metrics.Timer flushTimer;
+    private final TaskScheduler.Task task;
 
-    public HologramManager() {
+    public HologramManager(final PaperPlugin plugin) {
+        this.plugin = plugin;
         this.protocolManager = ProtocolLibrary.getProtocolManager();
-        this.holograms = new HashMap<>();
+        this.scheduler = plugin.getTaskScheduler();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, plugin.getName() + " Hologram Sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stripes = new Object[STRIPES];
+        this.holograms = new ConcurrentHashMap<>();
+        this.shownWaypoints = new ConcurrentHashMap<>();
+        this.viewers = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+
+        final var metrics = plugin.getMetrics();
+        this.packetsSent = metrics.counter("hologram.packets-sent");
+        this.spawns = metrics.counter("hologram.spawns");
+        this.destroys = metrics.counter("hologram.destroys");
+        this.flushTimer = metrics.timer("hologram.flush");
+        metrics.gauge("hologram.entities", holograms::size);
+        metrics.gauge("hologram.pending-players", pending::size);
+
+        this.task = scheduler.runTimer(this, 1, 1);
     }
 
+    // From the thread that owns the player
     public void show(Waypoint waypoint, Player player) {
-        show(waypoint, List.of(player));
+        show(waypoint, player, player.getLocation());
     }
 
-    public void show(Waypoint waypoint, Collection<? extends Player> players) {
-        final var fakeEntity = new FakeEntity();
-        final var spawnPacket = Hologram.getSpawnPacket(fakeEntity.entityId, fakeEntity.uniqueId, waypoint);
+    // From the thread that owns the player, location is where the player is
+    public void show(Waypoint waypoint, Player player, Location location) {
+        synchronized (getStripe(player.getUniqueId())) {
+            final var playerPending = getPending(player);
+            final var waypointId = waypoint.getId();
 
-        players.forEach(player -> {
-            // Send the fake entity to player
-            sendPacket(spawnPacket, player);
+            playerPending.worldId = location.getWorld().getUID();
+            playerPending.x = location.getX();
+            playerPending.y = location.getY();
+            playerPending.z = location.getZ();
 
-            // Create a hologram for the player and set the id
-            final var hologram = new Hologram(waypoint, player);
-            final var entityId = holograms.put(hologram, fakeEntity.entityId);
+            // A show cancels a hide that hasn't been sent yet, so the client keeps the entity it already has
+            playerPending.hides.remove(waypointId);
 
-            // Check if there was previously a hologram with that entity id, if so delete
-            if (entityId != null) {
-                final var destroyPacket = Hologram.getDestroyPacket(entityId);
-                sendPacket(destroyPacket, player);
+            if (!isShown(waypoint, player)) {
+                playerPending.shows.put(waypointId, waypoint);
             }
-        });
-
-        // Update the hologram metadata for players
-        update(waypoint, players);
+        }
     }
 
-    public void showTrackedPlayers(Waypoint waypoint, Player player) {
-        show(waypoint, getTrackedPlayers(player));
+    public void show(Waypoint waypoint, Collection<? extends Player> players) {
+        players.forEach(player -> show(waypoint, player));
     }
 
     public void update(Waypoint waypoint, Player player) {
-        // Get the hologram for that player for that specific waypoint
-        final var hologram = new Hologram(waypoint, player);
-        // Get the entity id of the hologram
-        final var entityId = holograms.get(hologram);
+        final boolean shown;
+
+        synchronized (getStripe(player.getUniqueId())) {
+            shown = isShown(waypoint, player);
+        }
 
-        if (entityId != null) {
-            final var packet = Hologram.getMetadataPacket(entityId, waypoint);
-            sendPacket(packet, player);
+        if (shown) {
+            submit(List.of(new Send(player, getHologram(waypoint).getMetadataPacket())));
         }
     }
 
@@ -81,20 +157,35 @@ public class HologramManager {
         players.forEach(player -> update(waypoint, player));
     }
 
-    public void updateTrackedPlayers(Waypoint waypoint, Player player) {
-        update(waypoint, getTrackedPlayers(player));
+    // Updates the hologram for exactly the players it's shown to
+    public void updateViewers(Waypoint waypoint) {
+        final var waypointViewers = viewers.get(waypoint.getId());
+
+        if (waypointViewers == null) {
+            return;
+        }
+
+        // Built once, sent to every viewer
+        final var packet = getHologram(waypoint).getMetadataPacket();
+        final var sends = new ArrayList<Send>(waypointViewers.size());
+
+        waypointViewers.forEach(player -> sends.add(new Send(player, packet)));
+        submit(sends);
     }
 
     public void hide(Waypoint waypoint, Player player) {
-        // Get the hologram for that player for that specific waypoint
-        final var hologram = new Hologram(waypoint, player);
-        // Try to remove that hologram
-        final var entityId = holograms.remove(hologram);
+        synchronized (getStripe(player.getUniqueId())) {
+            final var playerPending = getPending(player);
+            final var waypointId = waypoint.getId();
+
+            // A hide cancels a show that hasn't been sent yet
+            playerPending.shows.remove(waypointId);
 
-        // If it existed, send destroy entity packet to the client
-        if (entityId != null) {
-            final var packet = Hologram.getDestroyPacket(entityId);
-            sendPacket(packet, player);
+            // The destroy is deferred, a chunk that's unloaded and loaded again shortly after doesn't cause a respawn
+            if (isShown(waypoint, player)) {
+                playerPending.hides.putIfAbsent(waypointId,
+                    scheduler.getCurrentTick() + plugin.getHologramHideGraceTicks());
+            }
         }
     }
 
@@ -102,32 +193,224 @@ public class HologramManager {
         players.forEach(player -> hide(waypoint, player));
     }
 
-    public void hideTrackedPlayers(Waypoint waypoint, Player player) {
-        hide(waypoint, getTrackedPlayers(player));
-    }
-
     public void remove(Waypoint waypoint) {
-        hide(waypoint, Bukkit.getOnlinePlayers());
+        final var waypointId = waypoint.getId();
+        final var hologram = holograms.remove(waypointId);
+        final var waypointViewers = viewers.remove(waypointId);
+
+        // Nothing queued for this waypoint may be sent anymore
+        for (final var entry : pending.entrySet()) {
+            synchronized (getStripe(entry.getKey())) {
+                entry.getValue().shows.remove(waypointId);
+                entry.getValue().hides.remove(waypointId);
+            }
+        }
+
+        if (hologram == null || waypointViewers == null) {
+            return;
+        }
+
+        final var sends = new ArrayList<Send>(waypointViewers.size());
+
+        for (final var player : waypointViewers) {
+            synchronized (getStripe(player.getUniqueId())) {
+                final var playerWaypoints = shownWaypoints.get(player.getUniqueId());
+
+                if (playerWaypoints != null) {
+                    playerWaypoints.remove(waypointId);
+                }
+            }
+
+            sends.add(new Send(player, hologram.getDestroyPacket()));
+        }
+
+        submit(sends);
     }
 
     public void remove(Player player) {
-        final var uniqueId = player.getUniqueId();
-        holograms.keySet().removeIf(hologram -> hologram.uniqueId() == uniqueId);
+        final IntOpenHashSet playerWaypoints;
+
+        synchronized (getStripe(player.getUniqueId())) {
+            pending.remove(player.getUniqueId());
+            playerWaypoints = shownWaypoints.remove(player.getUniqueId());
+        }
+
+        if (playerWaypoints == null) {
+            return;
+        }
+
+        final var iterator = playerWaypoints.iterator();
+
+        while (iterator.hasNext()) {
+            removeViewer(iterator.nextInt(), player);
+        }
     }
 
-    private void sendPacket(PacketContainer packet, Player player) {
+    @Override
+    public void run() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        final var currentTick = scheduler.getCurrentTick();
+        final var spawnsPerTick = Math.max(plugin.getHologramSpawnsPerTick(), 1);
+        final var sends = new ArrayList<Send>();
+
+        for (final var uniqueId : pending.keySet()) {
+            synchronized (getStripe(uniqueId)) {
+                final var playerPending = pending.get(uniqueId);
+
+                if (playerPending == null) {
+                    continue;
+                }
+
+                dispatchHides(playerPending, currentTick, sends);
+                dispatchShows(playerPending, spawnsPerTick, sends);
+
+                if (playerPending.isEmpty()) {
+                    pending.remove(uniqueId);
+                }
+            }
+        }
+
+        submit(sends);
+        flushTimer.record(start);
+    }
+
+    public void shutdown() {
+        task.cancel();
+        pending.clear();
+        executor.shutdown();
+
         try {
-            protocolManager.sendServerPacket(player, packet);
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatchHides(Pending playerPending, int currentTick, ArrayList<Send> sends) {
+        if (playerPending.hides.isEmpty()) {
+            return;
+        }
+
+        final var player = playerPending.player;
+        final var playerWaypoints = shownWaypoints.get(player.getUniqueId());
+        final var iterator = playerPending.hides.int2IntEntrySet().fastIterator();
+
+        while (iterator.hasNext()) {
+            final var entry = iterator.next();
+
+            // Still within the grace window
+            if (entry.getIntValue() > currentTick) {
+                continue;
+            }
+
+            final var waypointId = entry.getIntKey();
+            final var hologram = holograms.get(waypointId);
+
+            iterator.remove();
+
+            if (playerWaypoints != null && playerWaypoints.remove(waypointId) && hologram != null) {
+                removeViewer(waypointId, player);
+                sends.add(new Send(player, hologram.getDestroyPacket()));
+                destroys.increment();
+            }
+        }
+    }
+
+    private void dispatchShows(Pending playerPending, int spawnsPerTick, ArrayList<Send> sends) {
+        if (playerPending.shows.isEmpty()) {
+            return;
+        }
+
+        final var player = playerPending.player;
+        final var waypoints = new ArrayList<>(playerPending.shows.values());
+
+        // Nearest holograms first, the rest wait for the following ticks
+        if (waypoints.size() > spawnsPerTick) {
+            waypoints.sort(Comparator.comparingDouble(waypoint -> {
+                if (!waypoint.getWorldId().equals(playerPending.worldId)) {
+                    return Double.MAX_VALUE;
+                }
+
+                final var waypointLocation = waypoint.getStoredLocation();
+                final var distanceX = waypointLocation.getX() - playerPending.x;
+                final var distanceY = waypointLocation.getY() - playerPending.y;
+                final var distanceZ = waypointLocation.getZ() - playerPending.z;
+                return distanceX * distanceX + distanceY * distanceY + distanceZ * distanceZ;
+            }));
+        }
+
+        final var playerWaypoints = shownWaypoints.computeIfAbsent(player.getUniqueId(),
+            uniqueId -> new IntOpenHashSet());
+
+        for (int i = 0; i < Math.min(waypoints.size(), spawnsPerTick); i++) {
+            final var waypoint = waypoints.get(i);
+            final var waypointId = waypoint.getId();
+
+            playerPending.shows.remove(waypointId);
+
+            if (!playerWaypoints.add(waypointId)) {
+                continue;
+            }
+
+            final var hologram = getHologram(waypoint);
+
+            viewers.computeIfAbsent(waypointId, id -> ConcurrentHashMap.newKeySet()).add(player);
+
+            // Send the fake entity and its metadata to player
+            sends.add(new Send(player, hologram.getSpawnPacket()));
+            sends.add(new Send(player, hologram.getMetadataPacket()));
+            spawns.increment();
         }
     }
 
-    private static Collection<Player> getTrackedPlayers(Player player) {
-        final var players = player.getTrackedPlayers();
+    private Object getStripe(UUID uniqueId) {
+        return stripes[uniqueId.hashCode() & (STRIPES - 1)];
+    }
+
+    // Only with the player's stripe held
+    private Pending getPending(Player player) {
+        return pending.computeIfAbsent(player.getUniqueId(), uniqueId -> new Pending(player));
+    }
 
-        players.add(player);
+    private Hologram getHologram(Waypoint waypoint) {
+        // Waypoint ids are reused, so make sure the hologram belongs to this waypoint
+        return holograms.compute(waypoint.getId(), (id, hologram) -> hologram != null
+            && hologram.getWaypoint() == waypoint ? hologram : new Hologram(waypoint));
+    }
+
+    // Only with the player's stripe held
+    private boolean isShown(Waypoint waypoint, Player player) {
+        final var playerWaypoints = shownWaypoints.get(player.getUniqueId());
+
+        return playerWaypoints != null && playerWaypoints.contains(waypoint.getId());
+    }
 
-        return players;
+    private void removeViewer(int waypointId, Player player) {
+        viewers.computeIfPresent(waypointId, (id, waypointViewers) -> {
+            waypointViewers.remove(player);
+            return waypointViewers.isEmpty() ? null : waypointViewers;
+        });
+    }
+
+    // Packets are built by the calling thread, only the sending happens on the executor
+    private void submit(List<Send> sends) {
+        if (sends.isEmpty() || executor.isShutdown()) {
+            return;
+        }
+
+        executor.execute(() -> sends.forEach(send -> sendPacket(send.packet(), send.player())));
+    }
+
+    private void sendPacket(PacketContainer packet, Player player) {
+        try {
+            protocolManager.sendServerPacket(player, packet);
+            packetsSent.increment();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
     }
 }
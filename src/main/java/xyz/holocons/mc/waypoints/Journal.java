@@ -0,0 +1,739 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.zip.CRC32C;
+
+// Append-only log of the changes players make between saves, so they survive a crash. Records are encoded on the thread
+// that made the change and written by a background thread, which writes everything queued since its last write at once
+// and syncs it according to the fsync policy. Every save rotates to a new segment and deletes the segments it covers
+// once the data files are written, and a save is started early when the records written since the last one pass the
+// compaction size. Records are absolute (tokens are set, not added), so replaying a segment that outlived its save is
+// harmless as long as the segments after it are replayed too. Segments are deleted oldest first, and the last segment a
+// save covers is written to journal.saved beforehand, so a segment that couldn't be deleted is skipped on load. With
+// sync enabled every record is also published to the other servers, and their records are journaled here as they're
+// applied.
+//
+// Segment layout, all values big-endian:
+//   header: magic int, version int
+//   record: payload length int, CRC32C of the payload int, payload (type byte followed by its fields)
+// Reading stops at the first truncated or corrupt record of a segment, which is where a crash interrupted a write.
+public class Journal {
+
+    public enum FsyncPolicy {
+        ALWAYS,
+        INTERVAL,
+        NEVER,
+    }
+
+    public enum Type {
+        CREATE_WAYPOINT,
+        REMOVE_WAYPOINT,
+        ACTIVATE_WAYPOINT,
+        REFRESH_BANNER,
+        ADD_CONTRIBUTOR,
+        REMOVE_CONTRIBUTOR,
+        REGISTER_WAYPOINT,
+        SET_TOKENS,
+        SET_HOME,
+        SET_CAMP,
+        SET_CHARGES,
+    }
+
+    // A decoded record, the fields its type doesn't have are left empty
+    public record Entry(Type type, int waypointId, UUID uniqueId, int value, StoredLocation location, long regenTime,
+            long pauseTime) {
+    }
+
+    public static final int MAGIC = 0x48434a4c; // HCJL
+    public static final int VERSION = 1;
+
+    private static final String FILENAME_PREFIX = "journal-";
+    private static final String FILENAME_SUFFIX = ".dat";
+    private static final String SAVED_FILENAME = "journal.saved";
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Queued in place of a record to make the writer switch segments or stop
+    private static final byte[] ROTATE = new byte[0];
+    private static final byte[] CLOSE = new byte[0];
+
+    private final PaperPlugin plugin;
+    private final File folder;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long compactSize;
+    private final Runnable compactor;
+    // Null when sync is disabled
+    private final SyncManager sync;
+    // Null when journaling is disabled
+    private final LinkedBlockingQueue<byte[]> queue;
+    private final ConcurrentLinkedQueue<CompletableFuture<Long>> rotations;
+    private final Thread writer;
+    private final Metrics.Timer writeTimer;
+    // Bytes in the segments that haven't been deleted yet, replayed ones included
+    private final AtomicLong size;
+    // Cleared by a rotation and again once the save it started deleted the segments, so a request made while that save
+    // was still running isn't lost
+    private volatile boolean compactionRequested;
+    // Only used by the writer thread, or before it starts
+    private long segment;
+    // Bytes not covered by a save that's been started, the segments a running save will delete don't count
+    private long uncompacted;
+    private FileChannel channel;
+    private boolean failed;
+
+    // The compactor is called from the writer thread when the segments pass the compaction size
+    public Journal(final PaperPlugin plugin, final Runnable compactor) throws IOException {
+        this.plugin = plugin;
+        this.folder = plugin.getDataFolder();
+        this.fsyncPolicy = plugin.getJournalFsync();
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(plugin.getJournalFsyncInterval());
+        this.compactSize = plugin.getJournalCompactSize();
+        this.compactor = compactor;
+        this.sync = plugin.getSyncManager();
+        this.rotations = new ConcurrentLinkedQueue<>();
+        this.writeTimer = plugin.getMetrics().timer("journal.write");
+        this.size = new AtomicLong();
+
+        final var segments = listSegments(folder);
+        final var saved = readSaved(plugin);
+        var unsaved = 0L;
+
+        for (final var existing : segments) {
+            final var length = getSegmentFile(folder, existing).length();
+            size.addAndGet(length);
+
+            if (existing > saved) {
+                unsaved += length;
+            }
+        }
+
+        // Segments left by an earlier run are only covered by the next save
+        this.uncompacted = unsaved;
+
+        // Never append to an existing segment, its last record may be torn. Numbers up to the saved segment are
+        // skipped on load, so they're never used again.
+        this.segment = Math.max(segments.length > 0 ? segments[segments.length - 1] : -1, saved) + 1;
+
+        if (!plugin.getJournalEnabled()) {
+            this.queue = null;
+            this.writer = null;
+            return;
+        }
+
+        this.queue = new LinkedBlockingQueue<>();
+        this.channel = openSegment(segment);
+        this.writer = new Thread(this::run, plugin.getName() + " Journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void createWaypoint(Waypoint waypoint) {
+        final var location = waypoint.getStoredLocation();
+        final var worldName = location.getWorldName().getBytes(StandardCharsets.UTF_8);
+        final var buffer = record(Type.CREATE_WAYPOINT, 4 + 16 + 4 + worldName.length + 24);
+
+        buffer.putInt(waypoint.getId());
+        putLocation(buffer, location, worldName);
+        append(buffer);
+    }
+
+    public void removeWaypoint(Waypoint waypoint) {
+        append(record(Type.REMOVE_WAYPOINT, 4).putInt(waypoint.getId()));
+    }
+
+    public void activateWaypoint(Waypoint waypoint) {
+        append(record(Type.ACTIVATE_WAYPOINT, 4).putInt(waypoint.getId()));
+    }
+
+    // Banners aren't recorded, they're read from the world again on replay
+    public void refreshBanner(Waypoint waypoint) {
+        append(record(Type.REFRESH_BANNER, 4).putInt(waypoint.getId()));
+    }
+
+    public void addContributor(Waypoint waypoint, UUID uniqueId) {
+        append(putUUID(record(Type.ADD_CONTRIBUTOR, 4 + 16).putInt(waypoint.getId()), uniqueId));
+    }
+
+    public void removeContributor(Waypoint waypoint, UUID uniqueId) {
+        append(putUUID(record(Type.REMOVE_CONTRIBUTOR, 4 + 16).putInt(waypoint.getId()), uniqueId));
+    }
+
+    public void registerWaypoint(UUID uniqueId, Waypoint waypoint) {
+        append(putUUID(record(Type.REGISTER_WAYPOINT, 4 + 16).putInt(waypoint.getId()), uniqueId));
+    }
+
+    public void setTokens(UUID uniqueId, int tokens) {
+        append(putUUID(record(Type.SET_TOKENS, 16 + 4), uniqueId).putInt(tokens));
+    }
+
+    public void setHome(UUID uniqueId, StoredLocation home) {
+        setLocation(Type.SET_HOME, uniqueId, home);
+    }
+
+    public void setCamp(UUID uniqueId, StoredLocation camp) {
+        setLocation(Type.SET_CAMP, uniqueId, camp);
+    }
+
+    // Charges along with their timestamps, which are what another server needs to keep regenerating them
+    public void setCharges(UUID uniqueId, Traveler traveler) {
+        final var buffer = record(Type.SET_CHARGES, 16 + 4 + 8 + 8);
+        // One state, so the charges and timestamps can't come from different moments
+        final var state = traveler.getChargeState();
+
+        putUUID(buffer, uniqueId);
+        buffer.putInt(state.charges()).putLong(state.regenTime()).putLong(state.pauseTime());
+        append(buffer);
+    }
+
+    private void setLocation(Type type, UUID uniqueId, StoredLocation location) {
+        final var worldName = location.getWorldName().getBytes(StandardCharsets.UTF_8);
+        final var buffer = record(type, 16 + 16 + 4 + worldName.length + 24);
+
+        putUUID(buffer, uniqueId);
+        putLocation(buffer, location, worldName);
+        append(buffer);
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    // Right before the data is snapshotted for a save. Later records go to a new segment, the
+    // future completes with the last segment the snapshot covers once the writer has closed it.
+    public CompletableFuture<Long> rotate() {
+        if (queue == null) {
+            // Nothing is written, but segments left by an earlier run are still covered by the snapshot
+            return CompletableFuture.completedFuture(segment - 1);
+        }
+
+        final var rotation = new CompletableFuture<Long>();
+        rotations.add(rotation);
+        queue.add(ROTATE);
+        return rotation;
+    }
+
+    // Deletes the segments up to and including last, once the snapshot that covers them is written. They're deleted
+    // oldest first and only up to the first one that can't be, the next save tries again.
+    public void deleteThrough(long last) {
+        try {
+            writeSaved(last);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Couldn't record the saved journal segment", e);
+        }
+
+        for (final var existing : listSegments(folder)) {
+            if (existing > last) {
+                break;
+            }
+
+            final var file = getSegmentFile(folder, existing);
+            final var length = file.length();
+
+            if (!file.delete()) {
+                plugin.getLogger().warning("Couldn't delete journal segment " + file.getName());
+                break;
+            }
+
+            size.addAndGet(-length);
+        }
+
+        // A request made while this save was running was turned away, the writer checks again on its next batch
+        compactionRequested = false;
+    }
+
+    // Writes and syncs whatever is still queued, waiting at most timeout seconds
+    public void close(long timeout) {
+        if (writer == null) {
+            return;
+        }
+
+        queue.add(CLOSE);
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (writer.isAlive()) {
+            plugin.getLogger().severe("Writing the journal took longer than " + timeout + " seconds");
+        }
+    }
+
+    private ByteBuffer record(Type type, int payloadSize) {
+        final var buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1 + payloadSize);
+        buffer.position(RECORD_HEADER_SIZE);
+        buffer.put((byte) type.ordinal());
+        return buffer;
+    }
+
+    // Records another server published, they're written without being published again
+    public void write(byte[] payload) {
+        if (queue == null) {
+            return;
+        }
+
+        append(ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length).position(RECORD_HEADER_SIZE).put(payload),
+            false);
+    }
+
+    private void append(ByteBuffer buffer) {
+        append(buffer, true);
+    }
+
+    private void append(ByteBuffer buffer, boolean publish) {
+        final var payloadSize = buffer.position() - RECORD_HEADER_SIZE;
+
+        if (publish && sync != null) {
+            sync.publish(Arrays.copyOfRange(buffer.array(), RECORD_HEADER_SIZE, buffer.position()));
+        }
+
+        if (queue == null) {
+            return;
+        }
+
+        final var crc = new CRC32C();
+        crc.update(buffer.array(), RECORD_HEADER_SIZE, payloadSize);
+
+        buffer.putInt(0, payloadSize);
+        buffer.putInt(4, (int) crc.getValue());
+        queue.add(buffer.array());
+    }
+
+    private static ByteBuffer putUUID(ByteBuffer buffer, UUID uniqueId) {
+        return buffer.putLong(uniqueId.getMostSignificantBits()).putLong(uniqueId.getLeastSignificantBits());
+    }
+
+    private static void putLocation(ByteBuffer buffer, StoredLocation location, byte[] worldName) {
+        putUUID(buffer, location.getWorldId());
+        buffer.putInt(worldName.length).put(worldName);
+        buffer.putDouble(location.getX()).putDouble(location.getY()).putDouble(location.getZ());
+    }
+
+    private void run() {
+        final var batch = new ArrayList<byte[]>();
+        var unsynced = false;
+        var lastSync = System.nanoTime();
+
+        try {
+            while (true) {
+                // With the interval policy, wake up in time to sync what was written without a sync
+                final byte[] first;
+
+                if (unsynced) {
+                    first = queue.poll(Math.max(0, fsyncIntervalNanos - (System.nanoTime() - lastSync)),
+                        TimeUnit.NANOSECONDS);
+                } else {
+                    first = queue.take();
+                }
+
+                if (first != null) {
+                    // Group commit, everything queued while the last batch was written goes out together
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+
+                final var start = System.nanoTime();
+                var closing = false;
+                var written = false;
+                var pending = new ArrayList<ByteBuffer>();
+
+                for (final var record : batch) {
+                    if (record == ROTATE) {
+                        write(pending);
+                        rotateSegment();
+                        unsynced = false;
+                        lastSync = System.nanoTime();
+                    } else if (record == CLOSE) {
+                        closing = true;
+                    } else {
+                        pending.add(ByteBuffer.wrap(record));
+                        written = true;
+                    }
+                }
+
+                write(pending);
+                batch.clear();
+
+                if (written || unsynced) {
+                    final var now = System.nanoTime();
+
+                    switch (fsyncPolicy) {
+                        case ALWAYS -> sync();
+                        case INTERVAL -> {
+                            if (closing || now - lastSync >= fsyncIntervalNanos) {
+                                sync();
+                                lastSync = now;
+                                unsynced = false;
+                            } else {
+                                unsynced = true;
+                            }
+                        }
+                        case NEVER -> {
+                        }
+                    }
+
+                    writeTimer.record(start);
+                }
+
+                if (closing) {
+                    sync();
+                    closeSegment();
+                    return;
+                }
+
+                if (!compactionRequested && compactSize > 0 && uncompacted >= compactSize) {
+                    compactionRequested = true;
+                    compactor.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            closeSegment();
+        }
+    }
+
+    private void write(List<ByteBuffer> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        if (!failed) {
+            try {
+                final var buffers = records.toArray(ByteBuffer[]::new);
+                var remaining = 0L;
+
+                for (final var buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+
+                size.addAndGet(remaining);
+                uncompacted += remaining;
+
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        records.clear();
+    }
+
+    private void sync() {
+        if (failed || channel == null) {
+            return;
+        }
+
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void rotateSegment() {
+        final var last = segment;
+
+        if (!failed) {
+            sync();
+            closeSegment();
+
+            try {
+                segment++;
+                channel = openSegment(segment);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        // The records before the rotation are the save's to delete
+        uncompacted = 0;
+        compactionRequested = false;
+
+        final var rotation = rotations.poll();
+
+        if (rotation != null) {
+            rotation.complete(last);
+        }
+    }
+
+    private void closeSegment() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close the journal", e);
+        }
+
+        channel = null;
+    }
+
+    // Changes keep being applied and saved with the data files, they just aren't journaled anymore
+    private void fail(IOException e) {
+        failed = true;
+        closeSegment();
+        plugin.getLogger().log(Level.SEVERE, "Failed to write the journal, changes are only saved by autosave", e);
+    }
+
+    private FileChannel openSegment(long index) throws IOException {
+        folder.mkdirs();
+
+        final var segmentChannel = FileChannel.open(getSegmentFile(folder, index).toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        final var header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+
+        while (header.hasRemaining()) {
+            segmentChannel.write(header);
+        }
+
+        segmentChannel.force(true);
+        size.addAndGet(HEADER_SIZE);
+        return segmentChannel;
+    }
+
+    private static File getSegmentFile(File folder, long index) {
+        return new File(folder, FILENAME_PREFIX + index + FILENAME_SUFFIX);
+    }
+
+    private void writeSaved(long last) throws IOException {
+        final var file = new File(folder, SAVED_FILENAME);
+        final var tempFile = AtomicFile.getTempFile(file);
+
+        Files.writeString(tempFile.toPath(), Long.toString(last), StandardCharsets.UTF_8);
+        AtomicFile.commit(tempFile, file);
+    }
+
+    // The last segment covered by a save that was written, -1 if there's none
+    private static long readSaved(PaperPlugin plugin) {
+        final var file = new File(plugin.getDataFolder(), SAVED_FILENAME);
+
+        if (!file.exists()) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(Files.readString(file.toPath(), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            // Replaying segments a save already covers is harmless while they're all there
+            plugin.getLogger().warning("Ignoring unreadable " + file.getName() + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Indices of the segments in the folder, oldest first
+    private static long[] listSegments(File folder) {
+        final var files = folder.list((dir, name) -> name.startsWith(FILENAME_PREFIX)
+            && name.endsWith(FILENAME_SUFFIX));
+
+        if (files == null) {
+            return new long[0];
+        }
+
+        return Arrays.stream(files)
+            .map(name -> name.substring(FILENAME_PREFIX.length(), name.length() - FILENAME_SUFFIX.length()))
+            .filter(index -> !index.isEmpty() && index.chars().allMatch(Character::isDigit))
+            .mapToLong(Long::parseLong)
+            .sorted()
+            .toArray();
+    }
+
+    // Reads the records of every segment, oldest first, without touching any index. Safe to call off the main thread.
+    static List<Entry> readEntries(PaperPlugin plugin) throws IOException {
+        final var folder = plugin.getDataFolder();
+        final var entries = new ArrayList<Entry>();
+        final var saved = readSaved(plugin);
+
+        for (final var index : listSegments(folder)) {
+            // Already in the data files, left behind by a delete that failed
+            if (index <= saved) {
+                continue;
+            }
+
+            final var file = getSegmentFile(folder, index);
+            final var buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                // The header is synced before any record is written, so only an empty segment can be missing it
+                plugin.getLogger().warning("Skipping journal segment " + file.getName() + " without a header");
+                continue;
+            }
+
+            final var version = buffer.getInt();
+
+            if (version > VERSION) {
+                throw new IOException("Unsupported journal version " + version);
+            }
+
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final var payloadSize = buffer.getInt();
+                final var checksum = buffer.getInt();
+
+                if (payloadSize < 1 || payloadSize > buffer.remaining()) {
+                    break;
+                }
+
+                final var crc = new CRC32C();
+                crc.update(buffer.array(), buffer.position(), payloadSize);
+
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                final var payload = buffer.slice(buffer.position(), payloadSize);
+                buffer.position(buffer.position() + payloadSize);
+
+                try {
+                    entries.add(readEntry(payload));
+                } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                    throw new IOException("Malformed record in journal segment " + file.getName(), e);
+                }
+            }
+
+            if (buffer.hasRemaining()) {
+                plugin.getLogger().warning("Journal segment " + file.getName() + " ends with a torn record, "
+                    + buffer.remaining() + " bytes are ignored");
+            }
+        }
+
+        return entries;
+    }
+
+    // Payloads that don't match their type throw BufferUnderflowException or IndexOutOfBoundsException
+    static Entry readEntry(ByteBuffer payload) throws IOException {
+        final var ordinal = payload.get();
+
+        if (ordinal < 0 || ordinal >= Type.values().length) {
+            throw new IOException("Unknown journal record type " + ordinal);
+        }
+
+        final var type = Type.values()[ordinal];
+
+        return switch (type) {
+            case CREATE_WAYPOINT -> new Entry(type, payload.getInt(), null, 0, readLocation(payload), 0, 0);
+            case REMOVE_WAYPOINT, ACTIVATE_WAYPOINT, REFRESH_BANNER ->
+                new Entry(type, payload.getInt(), null, 0, null, 0, 0);
+            case ADD_CONTRIBUTOR, REMOVE_CONTRIBUTOR, REGISTER_WAYPOINT ->
+                new Entry(type, payload.getInt(), readUUID(payload), 0, null, 0, 0);
+            case SET_TOKENS -> new Entry(type, -1, readUUID(payload), payload.getInt(), null, 0, 0);
+            case SET_HOME, SET_CAMP -> new Entry(type, -1, readUUID(payload), 0, readLocation(payload), 0, 0);
+            case SET_CHARGES -> new Entry(type, -1, readUUID(payload), payload.getInt(), null, payload.getLong(),
+                payload.getLong());
+        };
+    }
+
+    private static UUID readUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static StoredLocation readLocation(ByteBuffer buffer) {
+        final var worldId = readUUID(buffer);
+        final var worldName = new byte[buffer.getInt()];
+        buffer.get(worldName);
+
+        return new StoredLocation(worldId, new String(worldName, StandardCharsets.UTF_8), buffer.getDouble(),
+            buffer.getDouble(), buffer.getDouble());
+    }
+
+    // Global thread only, applies the records on top of the published data in the order they were written
+    public static void replay(PaperPlugin plugin, List<Entry> entries) {
+        for (final var entry : entries) {
+            apply(plugin, entry);
+        }
+
+        if (!entries.isEmpty()) {
+            plugin.getLogger().info("Replayed " + entries.size() + " journal records");
+        }
+    }
+
+    // Global thread only, records that refer to a waypoint that doesn't exist are ignored
+    public static void apply(PaperPlugin plugin, Entry entry) {
+        final var travelerManager = plugin.getTravelerManager();
+        final var waypointManager = plugin.getWaypointManager();
+        final var waypoint = entry.waypointId() >= 0 ? waypointManager.getWaypoint(entry.waypointId()) : null;
+
+        switch (entry.type()) {
+            case CREATE_WAYPOINT -> {
+                final var created = new Waypoint(entry.waypointId(), entry.location(), null, false, null);
+
+                if (waypointManager.restoreWaypoint(created)) {
+                    refreshBanner(plugin, created);
+                }
+            }
+            case REMOVE_WAYPOINT -> {
+                if (waypoint != null) {
+                    travelerManager.removeWaypoint(waypoint);
+                    waypointManager.removeWaypoint(waypoint);
+                }
+            }
+            case ACTIVATE_WAYPOINT -> {
+                if (waypoint != null && !waypoint.isActive()) {
+                    waypointManager.activateWaypoint(waypoint);
+                }
+            }
+            case REFRESH_BANNER -> {
+                if (waypoint != null) {
+                    refreshBanner(plugin, waypoint);
+                }
+            }
+            case ADD_CONTRIBUTOR -> {
+                if (waypoint != null && !waypoint.hasContributor(entry.uniqueId())) {
+                    waypoint.addContributor(entry.uniqueId());
+                }
+            }
+            case REMOVE_CONTRIBUTOR -> {
+                if (waypoint != null) {
+                    waypoint.removeContributor(entry.uniqueId());
+                }
+            }
+            case REGISTER_WAYPOINT -> {
+                if (waypoint != null) {
+                    travelerManager.registerWaypoint(entry.uniqueId(), waypoint);
+                }
+            }
+            case SET_TOKENS -> travelerManager.getOrCreateTraveler(entry.uniqueId()).setTokens(entry.value());
+            case SET_HOME   -> travelerManager.getOrCreateTraveler(entry.uniqueId()).setHome(entry.location());
+            case SET_CAMP   -> travelerManager.getOrCreateTraveler(entry.uniqueId()).setCamp(entry.location());
+            case SET_CHARGES -> {
+                final var traveler = travelerManager.getOrCreateTraveler(entry.uniqueId());
+
+                // A player online here is regenerating here. The server they switched away from sends its quit after
+                // the join, and its pause must not freeze them.
+                if (plugin.getServer().getPlayer(entry.uniqueId()) != null) {
+                    traveler.setStoredCharges(entry.value(), entry.regenTime());
+                } else {
+                    traveler.setStoredCharges(entry.value(), entry.regenTime(), entry.pauseTime());
+                }
+            }
+        }
+    }
+
+    // The banner is read by the thread that owns its block, right away when that's this one
+    private static void refreshBanner(PaperPlugin plugin, Waypoint waypoint) {
+        final var location = waypoint.getLocation();
+
+        if (location != null) {
+            plugin.getTaskScheduler().run(location, () -> plugin.getWaypointManager().refreshBanner(waypoint));
+        }
+    }
+}
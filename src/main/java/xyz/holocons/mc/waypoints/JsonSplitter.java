@@ -0,0 +1,169 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Finds the members of a JSON object in raw UTF-8 bytes without decoding their values, so a large object can be cut
+// into ranges that are parsed on separate threads. Only structure is checked, the values are validated by whoever
+// parses the ranges.
+public class JsonSplitter {
+
+    private final byte[] bytes;
+
+    public JsonSplitter(final byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    // Offsets of the members of the object starting at offset. Each member takes four ints: the start and end of its
+    // name (quotes included) and the start and end of its value.
+    public int[] members(int offset) throws IOException {
+        var members = new int[64];
+        var count = 0;
+
+        offset = skipWhitespace(offset);
+        expect(offset++, '{');
+        offset = skipWhitespace(offset);
+
+        if (peek(offset) == '}') {
+            return new int[0];
+        }
+
+        while (true) {
+            if (count + 4 > members.length) {
+                members = Arrays.copyOf(members, members.length * 2);
+            }
+
+            members[count++] = offset;
+            offset = skipString(offset);
+            members[count++] = offset;
+
+            offset = skipWhitespace(offset);
+            expect(offset++, ':');
+            offset = skipWhitespace(offset);
+
+            members[count++] = offset;
+            offset = skipValue(offset);
+            members[count++] = offset;
+
+            offset = skipWhitespace(offset);
+            if (peek(offset) == ',') {
+                offset = skipWhitespace(offset + 1);
+            } else {
+                expect(offset, '}');
+                return Arrays.copyOf(members, count);
+            }
+        }
+    }
+
+    // Name of a member found by members, escapes aren't decoded since member names here are versions and UUIDs
+    public String memberName(int[] members, int member) {
+        final var start = members[member * 4] + 1;
+        final var end = members[member * 4 + 1] - 1;
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    public int memberValue(int[] members, int member) {
+        return members[member * 4 + 2];
+    }
+
+    public int skipWhitespace(int offset) {
+        while (offset < bytes.length) {
+            switch (bytes[offset]) {
+                case ' ', '\t', '\n', '\r' -> offset++;
+                default -> {
+                    return offset;
+                }
+            }
+        }
+
+        return offset;
+    }
+
+    public int skipString(int offset) throws IOException {
+        expect(offset++, '"');
+
+        while (offset < bytes.length) {
+            switch (bytes[offset++]) {
+                case '\\' -> offset++;
+                case '"' -> {
+                    return offset;
+                }
+                default -> {
+                }
+            }
+        }
+
+        throw new IOException("Unterminated string");
+    }
+
+    public int skipValue(int offset) throws IOException {
+        switch (peek(offset)) {
+            case '"' -> {
+                return skipString(offset);
+            }
+            case '{', '[' -> {
+                // Brackets inside strings don't count, so strings are skipped whole
+                var depth = 0;
+
+                while (offset < bytes.length) {
+                    switch (bytes[offset]) {
+                        case '"' -> offset = skipString(offset);
+                        case '{', '[' -> {
+                            depth++;
+                            offset++;
+                        }
+                        case '}', ']' -> {
+                            offset++;
+                            if (--depth == 0) {
+                                return offset;
+                            }
+                        }
+                        default -> offset++;
+                    }
+                }
+
+                throw new IOException("Unterminated value");
+            }
+            default -> {
+                // Numbers, booleans and null run until the next delimiter
+                final var start = offset;
+
+                while (offset < bytes.length && !isDelimiter(bytes[offset])) {
+                    offset++;
+                }
+
+                if (offset == start) {
+                    throw new IOException("Expected a value at " + start);
+                }
+
+                return offset;
+            }
+        }
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return switch (b) {
+            case ',', '}', ']', ' ', '\t', '\n', '\r' -> true;
+            default -> false;
+        };
+    }
+
+    private int peek(int offset) throws IOException {
+        if (offset >= bytes.length) {
+            throw new IOException("Unexpected end of data");
+        }
+
+        return bytes[offset];
+    }
+
+    private void expect(int offset, char c) throws IOException {
+        if (peek(offset) != c) {
+            throw new IOException("Expected '" + c + "' at " + offset);
+        }
+    }
+}
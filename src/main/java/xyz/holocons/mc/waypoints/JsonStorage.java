@@ -0,0 +1,61 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+// waypoint.json and traveler.json, rewritten whole on every save. Always readable, so data is imported from here when
+// another storage has none yet.
+public class JsonStorage implements Storage {
+
+    private final PaperPlugin plugin;
+    private final File waypointFile;
+    private final File travelerFile;
+
+    public JsonStorage(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.waypointFile = new File(plugin.getDataFolder(), WaypointManager.FILENAME);
+        this.travelerFile = new File(plugin.getDataFolder(), TravelerManager.FILENAME);
+    }
+
+    @Override
+    public List<Waypoint> readWaypoints() throws IOException {
+        if (!waypointFile.exists()) {
+            return null;
+        }
+
+        final var start = System.nanoTime();
+        final var waypoints = WaypointManager.readWaypointsJson(plugin.getGson(), waypointFile);
+        plugin.getMetrics().recordStorage("waypoints.load", waypointFile, start);
+        return waypoints;
+    }
+
+    @Override
+    public Map<UUID, Traveler> readTravelers(ForkJoinPool pool) throws IOException {
+        if (!travelerFile.exists()) {
+            return null;
+        }
+
+        final var start = System.nanoTime();
+        final var travelers = TravelerManager.readTravelersJson(plugin.getGson(), travelerFile, pool);
+        plugin.getMetrics().recordStorage("travelers.load", travelerFile, start);
+        return travelers;
+    }
+
+    @Override
+    public void saveWaypoints(List<Waypoint> waypoints) throws IOException {
+        final var start = System.nanoTime();
+        WaypointManager.writeWaypointsJson(plugin.getGson(), waypointFile, waypoints);
+        plugin.getMetrics().recordStorage("waypoints.save", waypointFile, start);
+    }
+
+    @Override
+    public void saveTravelers(Map<UUID, Traveler> travelers) throws IOException {
+        final var start = System.nanoTime();
+        TravelerManager.writeTravelersJson(plugin.getGson(), travelerFile, travelers);
+        plugin.getMetrics().recordStorage("travelers.save", travelerFile, start);
+    }
+}
@@ -0,0 +1,63 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Connects the plugin instances in one process that use the same channel, delivering on the publishing thread. Stands
+// in for a network transport when several servers are simulated together.
+public class LocalSyncBus implements SyncBus {
+
+    private static final ConcurrentHashMap<String, CopyOnWriteArrayList<LocalSyncBus>> CHANNELS =
+        new ConcurrentHashMap<>();
+
+    private final String channel;
+    private volatile Consumer<byte[]> receiver;
+    private volatile Supplier<List<byte[]>> snapshot;
+
+    public LocalSyncBus(final String channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver, Supplier<List<byte[]>> snapshot) {
+        this.receiver = receiver;
+        this.snapshot = snapshot;
+
+        final var buses = CHANNELS.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>());
+        buses.add(this);
+
+        // Joining the channel connects to every bus already on it, both ways
+        for (final var bus : buses) {
+            if (bus != this) {
+                bus.snapshot.get().forEach(receiver);
+                snapshot.get().forEach(bus.receiver);
+            }
+        }
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        final var buses = CHANNELS.get(channel);
+
+        if (buses == null) {
+            return;
+        }
+
+        for (final var bus : buses) {
+            if (bus != this) {
+                bus.receiver.accept(message);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        CHANNELS.computeIfPresent(channel, (key, buses) -> {
+            buses.remove(this);
+            return buses.isEmpty() ? null : buses;
+        });
+    }
+}
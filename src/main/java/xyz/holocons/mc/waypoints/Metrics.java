@@ -0,0 +1,207 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Counters, latency histograms and gauges for the plugin's hot paths. Counters and timers are looked up once and kept
+// in fields, recording only touches LongAdders, and JFR events are only created while a recording has them enabled.
+public class Metrics {
+
+    public static final class Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long sum() {
+            return value.sum();
+        }
+    }
+
+    public static final class Timer {
+
+        // Bucket i counts durations below 2^i microseconds, the last bucket counts everything longer
+        private static final int BUCKETS = 24;
+
+        private final String name;
+        private final LongAdder[] buckets;
+        private final LongAdder count;
+        private final LongAdder totalNanos;
+
+        private Timer(String name) {
+            this.name = name;
+            this.buckets = new LongAdder[BUCKETS];
+            this.count = new LongAdder();
+            this.totalNanos = new LongAdder();
+
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        // Records the time elapsed since startNanos, taken from System.nanoTime
+        public void record(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        public void recordNanos(long nanos) {
+            final var bucket = Math.min(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0) / 1000), BUCKETS - 1);
+
+            buckets[bucket].increment();
+            count.increment();
+            totalNanos.add(nanos);
+
+            if (TIMER_EVENT_TYPE.isEnabled()) {
+                final var event = new TimerEvent();
+                event.timer = name;
+                event.elapsed = nanos;
+                event.commit();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMeanMicros() {
+            final var samples = count.sum();
+            return samples > 0 ? totalNanos.sum() / samples / 1000 : 0;
+        }
+
+        // Upper bound of the bucket holding the given quantile
+        public long getQuantileMicros(double quantile) {
+            final var samples = count.sum();
+            final var target = (long) Math.ceil(samples * quantile);
+            var seen = 0L;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i].sum();
+
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+
+            return 1L << (BUCKETS - 1);
+        }
+    }
+
+    @Name("xyz.holocons.waypoints.Timer")
+    @Label("Waypoints Timer")
+    @Category("Waypoints")
+    @Description("A timed section of the waypoints plugin")
+    public static final class TimerEvent extends Event {
+
+        @Label("Timer")
+        private String timer;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        private long elapsed;
+    }
+
+    @Name("xyz.holocons.waypoints.Storage")
+    @Label("Waypoints Storage")
+    @Category("Waypoints")
+    @Description("A data file loaded or saved by the waypoints plugin")
+    public static final class StorageEvent extends Event {
+
+        @Label("Operation")
+        private String operation;
+
+        @Label("File")
+        private String file;
+
+        @Label("Size")
+        @DataAmount
+        private long bytes;
+    }
+
+    private static final EventType TIMER_EVENT_TYPE = EventType.getEventType(TimerEvent.class);
+    private static final EventType STORAGE_EVENT_TYPE = EventType.getEventType(StorageEvent.class);
+
+    private final ConcurrentHashMap<String, Counter> counters;
+    private final ConcurrentHashMap<String, Timer> timers;
+    private final ConcurrentHashMap<String, LongSupplier> gauges;
+
+    public Metrics() {
+        this.counters = new ConcurrentHashMap<>();
+        this.timers = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    // Gauges are only read by the stats command, on the main thread
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    // Load and save durations, and the size of the file that was read or written
+    public void recordStorage(String operation, File file, long startNanos) {
+        final var bytes = file.length();
+
+        timer("storage." + operation).record(startNanos);
+        counter("storage." + operation + ".bytes").add(bytes);
+
+        if (STORAGE_EVENT_TYPE.isEnabled()) {
+            final var event = new StorageEvent();
+            event.operation = operation;
+            event.file = file.getName();
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    public List<String> report() {
+        final var lines = new ArrayList<String>();
+
+        for (final var gauge : sorted(gauges).entrySet()) {
+            lines.add(gauge.getKey() + ": " + gauge.getValue().getAsLong());
+        }
+
+        for (final var counter : sorted(counters).entrySet()) {
+            lines.add(counter.getKey() + ": " + counter.getValue().sum());
+        }
+
+        for (final var entry : sorted(timers).entrySet()) {
+            final var timer = entry.getValue();
+
+            lines.add(String.format("%s: %d calls, mean %dus, p50 <%dus, p99 <%dus", entry.getKey(), timer.getCount(),
+                timer.getMeanMicros(), timer.getQuantileMicros(0.5), timer.getQuantileMicros(0.99)));
+        }
+
+        return lines;
+    }
+
+    private static <T> TreeMap<String, T> sorted(Map<String, T> map) {
+        return new TreeMap<>(map);
+    }
+}
@@ -0,0 +1,16 @@
+package xyz.holocons.mc.waypoints;
+
+import org.bukkit.entity.Player;
+
+public record ModifyWaypointSession(Player player, Mode mode, int expiration) {
+
+    public enum Mode {
+        ACTIVATE,
+        ADDPOINT,
+        CREATE,
+        DELETE,
+        REMOVEPOINT,
+        SETCAMP,
+        SETHOME,
+    }
+}
@@ -0,0 +1,160 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bukkit.Bukkit;
+
+// Bounded UUID -> player name cache, so contributors can be shown without looking up offline players on the main
+// thread. Names are learned when players join, and unknown ones are looked up on a background thread. The cache is
+// guarded by this, reads reorder it too.
+public class NameManager {
+
+    public static final String FILENAME = "names.json";
+
+    private final PaperPlugin plugin;
+    private final LinkedHashMap<UUID, String> names;
+    // Names currently being looked up, so each is only queued once
+    private final HashSet<UUID> resolving;
+    private final ExecutorService executor;
+    // Bumped whenever a name is learned, so components built from the cache know to rebuild
+    private volatile int revision;
+
+    public NameManager(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        final var capacity = plugin.getNameCacheSize();
+        // Access ordered, the least recently used name is evicted first
+        this.names = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.resolving = new HashSet<>();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, plugin.getName() + " Name Lookup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.revision = 0;
+    }
+
+    // Reads the cached names without touching the cache, so it can run on a loader thread. Null when there's none.
+    static Map<UUID, String> readNames(PaperPlugin plugin) throws IOException {
+        final var file = new File(plugin.getDataFolder(), FILENAME);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        final var loadedNames = new LinkedHashMap<UUID, String>();
+        final var reader = new GsonReader(plugin.getGson(), file);
+        reader.nextNames(loadedNames);
+        reader.close();
+
+        return loadedNames;
+    }
+
+    // Names learned while the file was being read are newer, so they're kept
+    public synchronized void publishNames(Map<UUID, String> loadedNames) {
+        if (loadedNames == null) {
+            return;
+        }
+
+        loadedNames.forEach(names::putIfAbsent);
+        revision++;
+    }
+
+    // Safe to call off the main thread with a snapshot
+    public static void saveNames(PaperPlugin plugin, Map<UUID, String> names) throws IOException {
+        if (names.isEmpty()) {
+            return;
+        }
+
+        final var file = new File(plugin.getDataFolder(), FILENAME);
+
+        final var writer = new GsonWriter(plugin.getGson(), file);
+        writer.value(names);
+        writer.close();
+    }
+
+    public synchronized Map<UUID, String> snapshotNames() {
+        return new LinkedHashMap<>(names);
+    }
+
+    public synchronized void putName(UUID uniqueId, String name) {
+        if (!name.equals(names.put(uniqueId, name))) {
+            revision++;
+        }
+    }
+
+    // Returns null when the name isn't known yet, a lookup is started in that case
+    public synchronized String getName(UUID uniqueId) {
+        final var name = names.get(uniqueId);
+
+        if (name == null) {
+            resolveNames(List.of(uniqueId));
+        }
+
+        return name;
+    }
+
+    public synchronized int getNameCount() {
+        return names.size();
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    // Looks up the names that aren't cached in the background, the results are added on the global thread
+    public synchronized void resolveNames(Collection<UUID> uniqueIds) {
+        final var missing = new HashSet<UUID>();
+
+        for (final var uniqueId : uniqueIds) {
+            if (!names.containsKey(uniqueId) && resolving.add(uniqueId)) {
+                missing.add(uniqueId);
+            }
+        }
+
+        if (missing.isEmpty() || executor.isShutdown()) {
+            return;
+        }
+
+        executor.execute(() -> {
+            final var resolved = new LinkedHashMap<UUID, String>();
+
+            for (final var uniqueId : missing) {
+                // Reads the server's user cache, or the player data file of players who aren't in it
+                final var name = Bukkit.getOfflinePlayer(uniqueId).getName();
+
+                if (name != null) {
+                    resolved.put(uniqueId, name);
+                }
+            }
+
+            if (!plugin.isEnabled()) {
+                return;
+            }
+
+            plugin.getTaskScheduler().run(() -> {
+                synchronized (this) {
+                    resolving.removeAll(missing);
+                    resolved.forEach(this::putName);
+                }
+            });
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,21 +1,53 @@
 package xyz.holocons.mc.waypoints;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.logging.Level;
 
 import com.google.gson.Gson;
 
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
 public final class PaperPlugin extends JavaPlugin {
 
+    public enum StorageFormat {
+        BINARY,
+        JSON,
+        SQLITE,
+    }
+
     private FileConfiguration config;
     private Gson gson;
+    private Metrics metrics;
+    private Storage storage;
+    private TaskScheduler taskScheduler;
     private HologramManager hologramManager;
+    private NameManager nameManager;
     private TravelerManager travelerManager;
     private WaypointManager waypointManager;
+    private SessionManager sessionManager;
+    private TeleportManager teleportManager;
+    private VisibilityManager visibilityManager;
+    private AutosaveTask autosaveTask;
+    private Journal journal;
+    private SyncManager syncManager;
+    private StartupLoader startupLoader;
+    // Set once the loaded data is published, commands and events are turned away until then
+    private volatile boolean ready;
+
+    public PaperPlugin() {
+        super();
+    }
+
+    // Runs the plugin outside a server, only used by the load simulator
+    PaperPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onLoad() {
@@ -23,25 +55,62 @@ public final class PaperPlugin extends JavaPlugin {
 
         config = getConfig();
         gson = new Gson();
+        metrics = new Metrics();
+        storage = Storage.open(this);
 
         // Set managers
-        hologramManager = new HologramManager();
+        nameManager = new NameManager(this);
         travelerManager = new TravelerManager();
         waypointManager = new WaypointManager();
+
+        // Start reading the data files while the worlds are loading
+        startupLoader = new StartupLoader(this);
     }
 
     @Override
     public void onEnable() {
-        // Load data
+        // Region-threaded servers only have their schedulers once the plugin is enabled
+        taskScheduler = TaskScheduler.create(this);
+
+        // Index sizes, read by the stats command
+        metrics.gauge("index.waypoints", waypointManager::getWaypointCount);
+        metrics.gauge("index.named-waypoints", () -> waypointManager.getNameIndex().size());
+        metrics.gauge("index.travelers", travelerManager::getTravelerCount);
+        metrics.gauge("index.registrations", travelerManager::getRegistrationCount);
+        metrics.gauge("index.names", nameManager::getNameCount);
+
+        // Start the hologram dispatch, teleport warmup and modify waypoint session tickers
+        hologramManager = new HologramManager(this);
+        visibilityManager = new VisibilityManager(this);
+        teleportManager = new TeleportManager(this);
+        sessionManager = new SessionManager(this);
+
+        // Connect to the other servers before the journal, which publishes every change it records
+        if (getSyncEnabled()) {
+            try {
+                syncManager = new SyncManager(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Open a new journal segment, the existing ones are replayed once the data is published
         try {
-            travelerManager.loadTravelers(this);
-            waypointManager.loadWaypoints(this);
+            journal = new Journal(this, () -> {
+                if (isEnabled()) {
+                    taskScheduler.run(() -> {
+                        if (autosaveTask != null) {
+                            autosaveTask.compact();
+                        }
+                    });
+                }
+            });
         } catch (IOException e) {
-            travelerManager.clearTravelers();
-            waypointManager.clearWaypoints();
             throw new UncheckedIOException(e);
         }
 
+        metrics.gauge("journal.bytes", journal::getSize);
+
         // Initialize command handler
         final var commandHandler = new CommandHandler(this);
 
@@ -52,22 +121,228 @@ public final class PaperPlugin extends JavaPlugin {
         final var eventListener = new EventListener(this);
 
         getServer().getPluginManager().registerEvents(eventListener, this);
+
+        // Publish the data now if it's already read, otherwise as soon as it is
+        if (startupLoader.isDone()) {
+            try {
+                publishData();
+            } catch (IOException e) {
+                travelerManager.clearTravelers();
+                waypointManager.clearWaypoints();
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            startupLoader.whenDone(() -> {
+                if (isEnabled()) {
+                    taskScheduler.run(this::publishDataOrDisable);
+                }
+            });
+        }
+    }
+
+    private void publishDataOrDisable() {
+        try {
+            publishData();
+        } catch (IOException | RuntimeException e) {
+            travelerManager.clearTravelers();
+            waypointManager.clearWaypoints();
+            getLogger().log(Level.SEVERE, "Failed to load data", e);
+            getServer().getPluginManager().disablePlugin(this);
+        }
+    }
+
+    private void publishData() throws IOException {
+        startupLoader.publish(this);
+
+        // Waypoints saved before banner snapshots existed take theirs now, each on the thread that owns its block, so
+        // their names are in the index from the start
+        waypointManager.getWaypoints()
+            .filter(waypoint -> !waypoint.hasBannerSnapshot())
+            .forEach(this::takeBannerSnapshot);
+
+        // Look up contributor names that aren't cached yet before anyone asks for them
+        waypointManager.getWaypoints().forEach(waypoint -> nameManager.resolveNames(waypoint.getContributors()));
+
+        // Players who joined while the data was loading were turned away by the join handler
+        for (final var player : getServer().getOnlinePlayers()) {
+            nameManager.putName(player.getUniqueId(), player.getName());
+
+            final var traveler = travelerManager.getOrCreateTraveler(player);
+            traveler.startRegenCharge(this);
+            journal.setCharges(player.getUniqueId(), traveler);
+
+            taskScheduler.run(player, () -> visibilityManager.loadNearby(player));
+        }
+
+        // Start autosaving last, only once there's data that can be saved over the files. A failure before this
+        // clears the indexes, which the save on disable mustn't write.
+        autosaveTask = new AutosaveTask(this);
+
+        ready = true;
+    }
+
+    private void takeBannerSnapshot(Waypoint waypoint) {
+        final var location = waypoint.getLocation();
+
+        // The world isn't loaded, the snapshot is taken by the next refresh instead
+        if (location == null) {
+            return;
+        }
+
+        taskScheduler.run(location, () -> {
+            if (waypointManager.getWaypoint(waypoint.getId()) == waypoint) {
+                waypointManager.refreshBanner(waypoint);
+            }
+        });
     }
 
     @Override
     public void onDisable() {
-        try {
-            waypointManager.saveWaypoints(this);
-            travelerManager.saveTravelers(this);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        ready = false;
+
+        if (startupLoader != null) {
+            startupLoader.shutdown();
+        }
+
+        if (teleportManager != null) {
+            teleportManager.shutdown();
+            teleportManager.clearTeleports();
+        }
+
+        if (sessionManager != null) {
+            sessionManager.shutdown();
         }
+
+        if (hologramManager != null) {
+            hologramManager.shutdown();
+        }
+
+        // Nothing to save if the data failed to load
+        if (autosaveTask != null) {
+            autosaveTask.shutdown();
+            autosaveTask = null;
+        }
+
+        // After the final save, so the journal only keeps what that save didn't cover
+        if (journal != null) {
+            journal.close(getAutosaveShutdownTimeout());
+            journal = null;
+        }
+
+        if (syncManager != null) {
+            syncManager.shutdown();
+            syncManager = null;
+        }
+
+        if (storage != null) {
+            storage.close();
+        }
+
+        if (nameManager != null) {
+            nameManager.shutdown();
+        }
+
+        if (taskScheduler != null) {
+            taskScheduler.shutdown();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long getAutosaveInterval() {
+        return config.getLong("autosave.interval");
+    }
+
+    public long getAutosaveShutdownTimeout() {
+        return config.getLong("autosave.shutdown-timeout");
+    }
+
+    public int getHologramShowDistance() {
+        return config.getInt("hologram.show-distance");
+    }
+
+    public int getHologramHideDistance() {
+        return config.getInt("hologram.hide-distance");
+    }
+
+    public int getHologramHideGraceTicks() {
+        return config.getInt("hologram.hide-grace-ticks");
+    }
+
+    public int getHologramSpawnsPerTick() {
+        return config.getInt("hologram.spawns-per-tick");
+    }
+
+    public boolean getJournalEnabled() {
+        return config.getBoolean("journal.enabled");
+    }
+
+    public Journal.FsyncPolicy getJournalFsync() {
+        return Journal.FsyncPolicy.valueOf(config.getString("journal.fsync").toUpperCase());
+    }
+
+    public long getJournalFsyncInterval() {
+        return config.getLong("journal.fsync-interval");
+    }
+
+    public long getJournalCompactSize() {
+        return config.getLong("journal.compact-size");
+    }
+
+    public int getNameCacheSize() {
+        return config.getInt("names.cache-size");
+    }
+
+    public StorageFormat getStorageFormat() {
+        return StorageFormat.valueOf(config.getString("storage.format").toUpperCase());
+    }
+
+    public boolean getSyncEnabled() {
+        return config.getBoolean("sync.enabled");
+    }
+
+    public int getSyncServerId() {
+        return config.getInt("sync.server-id");
+    }
+
+    public int getSyncServers() {
+        return config.getInt("sync.servers");
+    }
+
+    public SyncManager.Transport getSyncTransport() {
+        return SyncManager.Transport.valueOf(config.getString("sync.transport").toUpperCase());
+    }
+
+    public String getSyncChannel() {
+        return config.getString("sync.channel");
+    }
+
+    public String getSyncBindAddress() {
+        return config.getString("sync.bind-address");
+    }
+
+    public int getSyncPort() {
+        return config.getInt("sync.port");
+    }
+
+    public List<String> getSyncPeers() {
+        return config.getStringList("sync.peers");
+    }
+
+    public String getSyncSecret() {
+        return config.getString("sync.secret");
     }
 
     public int getTravelerRegenChargeTime() {
         return config.getInt("traveler.regen-charge-time");
     }
 
+    public boolean getTravelerOfflineRegen() {
+        return config.getBoolean("traveler.offline-regen");
+    }
+
     public int getTravelerTeleportWaitTime() {
         return config.getInt("traveler.teleport-wait-time");
     }
@@ -100,10 +375,46 @@ public final class PaperPlugin extends JavaPlugin {
         return hologramManager;
     }
 
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public NameManager getNameManager() {
+        return nameManager;
+    }
+
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public SyncManager getSyncManager() {
+        return syncManager;
+    }
+
+    public TaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
+
+    public TeleportManager getTeleportManager() {
+        return teleportManager;
+    }
+
     public TravelerManager getTravelerManager() {
         return travelerManager;
     }
 
+    public VisibilityManager getVisibilityManager() {
+        return visibilityManager;
+    }
+
     public WaypointManager getWaypointManager() {
         return waypointManager;
     }
@@ -0,0 +1,154 @@
+package xyz.holocons.mc.waypoints;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+// The schedulers of region-threaded servers (Folia). The plugin is compiled against an API that doesn't have them, so
+// they're looked up by reflection once and called through the methods found.
+public class RegionTaskScheduler implements TaskScheduler {
+
+    private static final String REGIONIZED_SERVER = "io.papermc.paper.threadedregions.RegionizedServer";
+
+    private final PaperPlugin plugin;
+    private final Object globalScheduler;
+    private final Object regionScheduler;
+    private final Object asyncScheduler;
+    private final Method globalExecute;
+    private final Method globalRunAtFixedRate;
+    private final Method regionExecute;
+    private final Method asyncRunNow;
+    private final Method entityGetScheduler;
+    private final Method entityExecute;
+    private final Method isOwnedByCurrentRegionEntity;
+    private final Method isOwnedByCurrentRegionLocation;
+    private final Method taskCancel;
+    private final AtomicInteger currentTick;
+    private final Task ticker;
+
+    public RegionTaskScheduler(final PaperPlugin plugin) {
+        this.plugin = plugin;
+
+        try {
+            final var server = Bukkit.getServer();
+            final var serverClass = server.getClass();
+
+            this.globalScheduler = serverClass.getMethod("getGlobalRegionScheduler").invoke(server);
+            this.regionScheduler = serverClass.getMethod("getRegionScheduler").invoke(server);
+            this.asyncScheduler = serverClass.getMethod("getAsyncScheduler").invoke(server);
+            this.globalExecute = getMethod(globalScheduler, "execute", Plugin.class, Runnable.class);
+            this.globalRunAtFixedRate = getMethod(globalScheduler, "runAtFixedRate", Plugin.class, Consumer.class,
+                long.class, long.class);
+            this.regionExecute = getMethod(regionScheduler, "execute", Plugin.class, Location.class, Runnable.class);
+            this.asyncRunNow = getMethod(asyncScheduler, "runNow", Plugin.class, Consumer.class);
+            this.entityGetScheduler = Entity.class.getMethod("getScheduler");
+            this.entityExecute = entityGetScheduler.getReturnType().getMethod("execute", Plugin.class, Runnable.class,
+                Runnable.class, long.class);
+            this.isOwnedByCurrentRegionEntity = serverClass.getMethod("isOwnedByCurrentRegion", Entity.class);
+            this.isOwnedByCurrentRegionLocation = serverClass.getMethod("isOwnedByCurrentRegion", Location.class);
+            this.taskCancel = globalRunAtFixedRate.getReturnType().getMethod("cancel");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Region schedulers aren't available", e);
+        }
+
+        this.currentTick = new AtomicInteger();
+        this.ticker = runTimer(currentTick::incrementAndGet, 1, 1);
+    }
+
+    public static boolean isSupported() {
+        try {
+            Class.forName(REGIONIZED_SERVER);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void run(Runnable task) {
+        invoke(globalExecute, globalScheduler, plugin, task);
+    }
+
+    @Override
+    public Task runTimer(Runnable task, long delay, long period) {
+        // The initial delay of a region scheduler task can't be 0
+        final Consumer<Object> consumer = scheduledTask -> task.run();
+        final var scheduledTask = invoke(globalRunAtFixedRate, globalScheduler, plugin, consumer, Math.max(delay, 1),
+            period);
+
+        return () -> invoke(taskCancel, scheduledTask);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        final Consumer<Object> consumer = scheduledTask -> task.run();
+        invoke(asyncRunNow, asyncScheduler, plugin, consumer);
+    }
+
+    @Override
+    public void run(Entity entity, Runnable task, Runnable retired) {
+        if ((boolean) invoke(isOwnedByCurrentRegionEntity, Bukkit.getServer(), entity)) {
+            task.run();
+            return;
+        }
+
+        // Returns false without scheduling anything when the entity is already removed
+        if (!(boolean) invoke(entityExecute, invoke(entityGetScheduler, entity), plugin, task, retired, 1L)
+            && retired != null) {
+            retired.run();
+        }
+    }
+
+    @Override
+    public void run(Location location, Runnable task) {
+        if ((boolean) invoke(isOwnedByCurrentRegionLocation, Bukkit.getServer(), location)) {
+            task.run();
+            return;
+        }
+
+        invoke(regionExecute, regionScheduler, plugin, location, task);
+    }
+
+    @Override
+    public int getCurrentTick() {
+        return currentTick.get();
+    }
+
+    @Override
+    public void shutdown() {
+        ticker.cancel();
+    }
+
+    private static Method getMethod(Object target, String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        // Declared by the scheduler interfaces, the implementations may not be accessible
+        for (final var type : target.getClass().getInterfaces()) {
+            try {
+                return type.getMethod(name, parameterTypes);
+            } catch (NoSuchMethodException e) {
+                // Try the next interface
+            }
+        }
+
+        return target.getClass().getMethod(name, parameterTypes);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
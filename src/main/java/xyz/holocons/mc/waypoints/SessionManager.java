@@ -0,0 +1,92 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import org.bukkit.entity.Player;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+
+// Tracks the modify waypoint mode of every player, with one ticker for all action bars and expirations. Sessions are
+// started and ended from whichever thread handles the player.
+public class SessionManager implements Runnable {
+
+    private static final int SESSION_DURATION = 600;
+    private static final int ACTION_BAR_PERIOD = 40;
+
+    private final PaperPlugin plugin;
+    private final TaskScheduler scheduler;
+    private final ConcurrentHashMap<UUID, ModifyWaypointSession> sessions;
+    // Ordered by expiration; replaced or ended sessions are skipped when they reach the head
+    private final PriorityBlockingQueue<ModifyWaypointSession> expirations;
+    private final TaskScheduler.Task task;
+
+    public SessionManager(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = plugin.getTaskScheduler();
+        this.sessions = new ConcurrentHashMap<>();
+        this.expirations = new PriorityBlockingQueue<>(11, Comparator.comparingInt(ModifyWaypointSession::expiration));
+        this.task = scheduler.runTimer(this, ACTION_BAR_PERIOD, ACTION_BAR_PERIOD);
+    }
+
+    public ModifyWaypointSession getSession(Player player) {
+        final var session = sessions.get(player.getUniqueId());
+
+        // The ticker only expires sessions periodically, so check the expiration here too
+        return session != null && session.expiration() > scheduler.getCurrentTick() ? session : null;
+    }
+
+    public void startSession(Player player, ModifyWaypointSession.Mode mode) {
+        plugin.getTeleportManager().cancelTeleport(player);
+
+        final var session = new ModifyWaypointSession(player, mode, scheduler.getCurrentTick() + SESSION_DURATION);
+
+        sessions.put(player.getUniqueId(), session);
+        expirations.add(session);
+
+        // Send message to player with what mode they entered
+        final var messageComponent = Component.text()
+            .clickEvent(ClickEvent.runCommand("/waypoints cancel"))
+            .hoverEvent(HoverEvent.showText(Component.text("Click to cancel early!")))
+            .append(Component.text("You entered WAYPOINT " + mode.toString() + " mode for 30 seconds!"))
+            .build();
+
+        player.sendMessage(messageComponent);
+        sendActionBar(session);
+    }
+
+    public void endSession(Player player) {
+        sessions.remove(player.getUniqueId());
+    }
+
+    @Override
+    public void run() {
+        final var currentTick = scheduler.getCurrentTick();
+        ModifyWaypointSession head;
+
+        // Expire sessions from the head of the queue
+        while ((head = expirations.peek()) != null && head.expiration() <= currentTick) {
+            if (expirations.remove(head)) {
+                sessions.remove(head.player().getUniqueId(), head);
+            }
+        }
+
+        sessions.values().forEach(this::sendActionBar);
+    }
+
+    public void shutdown() {
+        task.cancel();
+    }
+
+    // The action bar is sent from the player's own thread
+    private void sendActionBar(ModifyWaypointSession session) {
+        final var player = session.player();
+        scheduler.run(player, () -> player.sendActionBar(Component.text("WAYPOINT " + session.mode().toString(),
+            NamedTextColor.GREEN)));
+    }
+}
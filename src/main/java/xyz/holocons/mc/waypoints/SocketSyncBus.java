@@ -0,0 +1,348 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+// Connects to every peer over TCP and accepts their connections in turn. A connection only carries messages one way,
+// a server writes to the connections it opened and reads from the ones it accepted. Each peer has a writer thread that
+// sends everything queued since its last write at once, and keeps messages queued (up to a limit) while the peer is
+// unreachable, reconnecting with a backoff. A batch that failed midway is sent again whole, which is harmless since
+// applying a message twice changes nothing. Every connection starts with the snapshot, and a peer whose queue
+// overflowed gets it again, so a peer that was down or missed messages catches up.
+//
+// Neither the secret nor the messages are encrypted, anyone who can reach the port or watch the traffic can read and
+// forge them. The listener binds to sync.bind-address, which should stay on loopback or a private network.
+//
+// Stream layout, all values big-endian:
+//   header: magic int, version int, secret length int, secret (UTF-8)
+//   message: length int, message
+public class SocketSyncBus implements SyncBus {
+
+    public static final int MAGIC = 0x48435359; // HCSY
+    public static final int VERSION = 1;
+
+    private static final int MAX_MESSAGE_SIZE = 1 << 16;
+    private static final int MAX_SECRET_SIZE = 1024;
+    // Messages kept per peer while it's unreachable, newer ones are dropped
+    private static final int MAX_QUEUED = 1 << 16;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+    // How often an idle writer checks whether the bus is closing
+    private static final long POLL_MILLIS = 250;
+    // Time given to the writers to send what's still queued on close
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final class Peer implements Runnable {
+
+        private final String host;
+        private final int port;
+        private final LinkedBlockingQueue<byte[]> queue;
+        private final Thread thread;
+        // Set when a message for this peer was dropped, so the snapshot is sent again
+        private volatile boolean resync;
+
+        private Peer(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+            this.thread = new Thread(this, plugin.getName() + " Sync Writer " + getName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final var batch = new ArrayList<byte[]>();
+            var backoff = MIN_BACKOFF_MILLIS;
+            var reported = false;
+
+            while (!closed || !batch.isEmpty() || !queue.isEmpty()) {
+                try (final var socket = new Socket()) {
+                    // Resolved on every attempt, so a peer that moved is found again
+                    socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+
+                    final var output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                    output.writeInt(secret.length);
+                    output.write(secret);
+                    writeSnapshot(output);
+
+                    plugin.getLogger().info("Connected to sync peer " + getName());
+                    backoff = MIN_BACKOFF_MILLIS;
+                    reported = false;
+
+                    while (true) {
+                        if (resync) {
+                            writeSnapshot(output);
+                        }
+
+                        if (batch.isEmpty()) {
+                            final var first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                            if (first == null) {
+                                if (closed) {
+                                    return;
+                                }
+                                continue;
+                            }
+
+                            batch.add(first);
+                            queue.drainTo(batch);
+                        }
+
+                        for (final var message : batch) {
+                            output.writeInt(message.length);
+                            output.write(message);
+                        }
+
+                        output.flush();
+                        sent.add(batch.size());
+                        batch.clear();
+                    }
+                } catch (IOException e) {
+                    // Whatever is left can't be delivered during shutdown
+                    if (closed) {
+                        return;
+                    }
+
+                    if (!reported) {
+                        plugin.getLogger().warning("Can't reach sync peer " + getName() + ", retrying: "
+                            + e.getMessage());
+                        reported = true;
+                    }
+
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void writeSnapshot(DataOutputStream output) throws IOException {
+            resync = false;
+
+            final var messages = snapshot.get();
+
+            for (final var message : messages) {
+                output.writeInt(message.length);
+                output.write(message);
+            }
+
+            output.flush();
+            sent.add(messages.size());
+        }
+
+        private String getName() {
+            return host + ":" + port;
+        }
+    }
+
+    private final PaperPlugin plugin;
+    private final String bindAddress;
+    private final int port;
+    private final byte[] secret;
+    private final List<Peer> peers;
+    private final Set<Socket> accepted;
+    private final Metrics.Counter sent;
+    private final Metrics.Counter dropped;
+    private volatile boolean closed;
+    private ServerSocket serverSocket;
+    private Consumer<byte[]> receiver;
+    private Supplier<List<byte[]>> snapshot;
+
+    public SocketSyncBus(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.bindAddress = plugin.getSyncBindAddress();
+        this.port = plugin.getSyncPort();
+        this.secret = plugin.getSyncSecret().getBytes(StandardCharsets.UTF_8);
+        this.peers = new ArrayList<>();
+        this.accepted = ConcurrentHashMap.newKeySet();
+
+        final var metrics = plugin.getMetrics();
+        this.sent = metrics.counter("sync.sent");
+        this.dropped = metrics.counter("sync.dropped");
+
+        for (final var peer : plugin.getSyncPeers()) {
+            final var separator = peer.lastIndexOf(':');
+
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Sync peer " + peer + " isn't host:port");
+            }
+
+            peers.add(new Peer(peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1))));
+        }
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver, Supplier<List<byte[]>> snapshot) throws IOException {
+        if (secret.length == 0) {
+            throw new IOException("sync.secret must be set for the tcp transport");
+        }
+
+        this.receiver = receiver;
+        this.snapshot = snapshot;
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getByName(bindAddress));
+
+        final var acceptor = new Thread(this::accept, plugin.getName() + " Sync Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        for (final var peer : peers) {
+            peer.thread.start();
+        }
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        if (closed) {
+            return;
+        }
+
+        for (final var peer : peers) {
+            if (!peer.queue.offer(message)) {
+                peer.resync = true;
+                dropped.increment();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close the sync socket", e);
+        }
+
+        for (final var socket : accepted) {
+            closeQuietly(socket);
+        }
+
+        final var deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+
+        for (final var peer : peers) {
+            try {
+                peer.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (peer.thread.isAlive()) {
+                peer.thread.interrupt();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final var socket = serverSocket.accept();
+                accepted.add(socket);
+
+                final var reader = new Thread(() -> read(socket), plugin.getName() + " Sync Reader "
+                    + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to accept a sync connection", e);
+                }
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        try (socket) {
+            final var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a sync connection");
+            }
+
+            final var version = input.readInt();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported sync version " + version);
+            }
+
+            final var secretLength = input.readInt();
+
+            if (secretLength < 0 || secretLength > MAX_SECRET_SIZE) {
+                throw new IOException("Invalid secret length " + secretLength);
+            }
+
+            final var presented = new byte[secretLength];
+            input.readFully(presented);
+
+            if (!MessageDigest.isEqual(presented, secret)) {
+                throw new IOException("Wrong secret");
+            }
+
+            while (!closed) {
+                final int length;
+
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                if (length <= 0 || length > MAX_MESSAGE_SIZE) {
+                    throw new IOException("Invalid message length " + length);
+                }
+
+                final var message = new byte[length];
+                input.readFully(message);
+                receiver.accept(message);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                plugin.getLogger().warning("Closed sync connection from " + socket.getRemoteSocketAddress() + ": "
+                    + e.getMessage());
+            }
+        } finally {
+            accepted.remove(socket);
+        }
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.block.banner.Pattern;
+import org.bukkit.block.banner.PatternType;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+
+// waypoints.db, an SQLite database through the driver the server ships. Saves only write the rows that changed since
+// the last save, which the snapshots mark as dirty, and delete the rows that were removed. Every statement runs on one
+// writer thread with its own connection, the callers wait for it.
+//
+// Tables, which can be queried with any SQLite client while the server runs:
+//   waypoints:     id, world_id, world_name, x, y, z, chunk_x, chunk_z, active, contributors (comma separated UUIDs in
+//                  contribution order), banner_type, banner_name (component JSON), banner_patterns (color:pattern,...)
+//   travelers:     uuid, charges, tokens, regen_time, pause_time, home_* and camp_* (world_id, world_name, x, y, z)
+//   registrations: traveler, waypoint
+//   meta:          key, value
+public class SqliteStorage implements Storage {
+
+    public static final String FILENAME = "waypoints.db";
+    public static final int SCHEMA_VERSION = 1;
+
+    // Statements sent to the database at once
+    private static final int BATCH_SIZE = 1024;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value TEXT NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS waypoints (id INTEGER PRIMARY KEY, world_id TEXT NOT NULL,"
+            + " world_name TEXT NOT NULL, x REAL NOT NULL, y REAL NOT NULL, z REAL NOT NULL,"
+            + " chunk_x INTEGER NOT NULL, chunk_z INTEGER NOT NULL, active INTEGER NOT NULL,"
+            + " contributors TEXT, banner_type TEXT, banner_name TEXT, banner_patterns TEXT)",
+        "CREATE INDEX IF NOT EXISTS waypoints_chunk ON waypoints (world_id, chunk_x, chunk_z)",
+        "CREATE TABLE IF NOT EXISTS travelers (uuid TEXT PRIMARY KEY, charges INTEGER NOT NULL,"
+            + " tokens INTEGER NOT NULL, regen_time INTEGER NOT NULL, pause_time INTEGER NOT NULL,"
+            + " home_world_id TEXT, home_world_name TEXT, home_x REAL, home_y REAL, home_z REAL,"
+            + " camp_world_id TEXT, camp_world_name TEXT, camp_x REAL, camp_y REAL, camp_z REAL) WITHOUT ROWID",
+        "CREATE TABLE IF NOT EXISTS registrations (traveler TEXT NOT NULL, waypoint INTEGER NOT NULL,"
+            + " PRIMARY KEY (traveler, waypoint)) WITHOUT ROWID",
+        "CREATE INDEX IF NOT EXISTS registrations_waypoint ON registrations (waypoint)",
+    };
+
+    private static final String UPSERT_WAYPOINT = "INSERT INTO waypoints (id, world_id, world_name, x, y, z, chunk_x,"
+        + " chunk_z, active, contributors, banner_type, banner_name, banner_patterns)"
+        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (id) DO UPDATE SET"
+        + " world_id = excluded.world_id, world_name = excluded.world_name, x = excluded.x, y = excluded.y,"
+        + " z = excluded.z, chunk_x = excluded.chunk_x, chunk_z = excluded.chunk_z, active = excluded.active,"
+        + " contributors = excluded.contributors, banner_type = excluded.banner_type,"
+        + " banner_name = excluded.banner_name, banner_patterns = excluded.banner_patterns";
+    private static final String DELETE_WAYPOINT = "DELETE FROM waypoints WHERE id = ?";
+    private static final String UPSERT_TRAVELER = "INSERT INTO travelers (uuid, charges, tokens, regen_time,"
+        + " pause_time, home_world_id, home_world_name, home_x, home_y, home_z, camp_world_id, camp_world_name,"
+        + " camp_x, camp_y, camp_z) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (uuid) DO UPDATE"
+        + " SET charges = excluded.charges, tokens = excluded.tokens, regen_time = excluded.regen_time,"
+        + " pause_time = excluded.pause_time, home_world_id = excluded.home_world_id,"
+        + " home_world_name = excluded.home_world_name, home_x = excluded.home_x, home_y = excluded.home_y,"
+        + " home_z = excluded.home_z, camp_world_id = excluded.camp_world_id,"
+        + " camp_world_name = excluded.camp_world_name, camp_x = excluded.camp_x, camp_y = excluded.camp_y,"
+        + " camp_z = excluded.camp_z";
+    private static final String DELETE_TRAVELER = "DELETE FROM travelers WHERE uuid = ?";
+    private static final String INSERT_REGISTRATION = "INSERT INTO registrations (traveler, waypoint) VALUES (?, ?)";
+    private static final String DELETE_REGISTRATIONS = "DELETE FROM registrations WHERE traveler = ?";
+
+    // Runs on the writer thread with its connection
+    @FunctionalInterface
+    public interface Query<T> {
+
+        T run(Connection connection) throws SQLException;
+    }
+
+    private final PaperPlugin plugin;
+    private final File file;
+    private final ExecutorService writer;
+    // Only used on the writer thread
+    private Connection connection;
+    // The rows in the database, so the ones removed since can be deleted
+    private IntOpenHashSet savedWaypoints;
+    private ObjectOpenHashSet<UUID> savedTravelers;
+    // Stay set after a failed save, whose snapshots already took the dirty flags, so the next save writes every row
+    private boolean saveAllWaypoints;
+    private boolean saveAllTravelers;
+
+    public SqliteStorage(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), FILENAME);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, plugin.getName() + " SQLite");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.savedWaypoints = new IntOpenHashSet();
+        this.savedTravelers = new ObjectOpenHashSet<>();
+        this.saveAllWaypoints = false;
+        this.saveAllTravelers = false;
+    }
+
+    // For ad-hoc queries that shouldn't load everything, such as counting the registrations of a waypoint
+    public <T> CompletableFuture<T> submit(Query<T> query) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return query.run(getConnection());
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, writer);
+    }
+
+    private <T> T call(Query<T> query) throws IOException {
+        try {
+            return submit(query).get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (connection != null) {
+            return connection;
+        }
+
+        plugin.getDataFolder().mkdirs();
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+
+        try (final var statement = connection.createStatement()) {
+            // Readers don't block the writer, and a commit only syncs at checkpoints
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+
+            for (final var sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+
+        final var version = getMeta(connection, "schema_version");
+
+        if (version == null) {
+            setMeta(connection, "schema_version", Integer.toString(SCHEMA_VERSION));
+        } else if (Integer.parseInt(version) > SCHEMA_VERSION) {
+            throw new SQLException("Unsupported schema version " + version);
+        }
+
+        return connection;
+    }
+
+    @Override
+    public List<Waypoint> readWaypoints() throws IOException {
+        return call(connection -> {
+            if (getMeta(connection, "waypoints.saved") == null) {
+                return null;
+            }
+
+            final var start = System.nanoTime();
+            final var waypoints = new ArrayList<Waypoint>();
+            final var saved = new IntOpenHashSet();
+
+            try (final var statement = connection.createStatement();
+                    final var result = statement.executeQuery("SELECT id, world_id, world_name, x, y, z, active,"
+                        + " contributors, banner_type, banner_name, banner_patterns FROM waypoints")) {
+                while (result.next()) {
+                    final var waypoint = readWaypoint(result);
+                    // Matches its row
+                    waypoint.clearDirty();
+                    waypoints.add(waypoint);
+                    saved.add(waypoint.getId());
+                }
+            }
+
+            savedWaypoints = saved;
+            plugin.getMetrics().recordStorage("waypoints.load", file, start);
+            return waypoints;
+        });
+    }
+
+    @Override
+    public Map<UUID, Traveler> readTravelers(ForkJoinPool pool) throws IOException {
+        return call(connection -> {
+            if (getMeta(connection, "travelers.saved") == null) {
+                return null;
+            }
+
+            final var start = System.nanoTime();
+            final var travelers = new HashMap<UUID, Traveler>();
+
+            try (final var statement = connection.createStatement()) {
+                try (final var result = statement.executeQuery("SELECT uuid, charges, tokens, regen_time, pause_time,"
+                        + " home_world_id, home_world_name, home_x, home_y, home_z, camp_world_id, camp_world_name,"
+                        + " camp_x, camp_y, camp_z FROM travelers")) {
+                    while (result.next()) {
+                        final var home = readLocation(result, 6);
+                        final var camp = readLocation(result, 11);
+
+                        travelers.put(readUUID(result.getString(1)), new Traveler(result.getInt(2), result.getInt(3),
+                            home, camp, null, result.getLong(4), result.getLong(5)));
+                    }
+                }
+
+                try (final var result = statement.executeQuery("SELECT traveler, waypoint FROM registrations")) {
+                    while (result.next()) {
+                        final var traveler = travelers.get(readUUID(result.getString(1)));
+
+                        if (traveler != null) {
+                            traveler.getWaypoints().set(result.getInt(2));
+                        }
+                    }
+                }
+            }
+
+            // Each matches its rows
+            travelers.values().forEach(Traveler::clearDirty);
+
+            savedTravelers = new ObjectOpenHashSet<>(travelers.keySet());
+            plugin.getMetrics().recordStorage("travelers.load", file, start);
+            return travelers;
+        });
+    }
+
+    @Override
+    public void saveWaypoints(List<Waypoint> waypoints) throws IOException {
+        call(connection -> {
+            final var start = System.nanoTime();
+            final var saved = new IntOpenHashSet(waypoints.size());
+            final var saveAll = saveAllWaypoints;
+            var written = 0;
+
+            saveAllWaypoints = true;
+            connection.setAutoCommit(false);
+
+            try (final var upsert = connection.prepareStatement(UPSERT_WAYPOINT);
+                    final var delete = connection.prepareStatement(DELETE_WAYPOINT)) {
+                for (final var waypoint : waypoints) {
+                    saved.add(waypoint.getId());
+
+                    if (!saveAll && !waypoint.isDirty() && savedWaypoints.contains(waypoint.getId())) {
+                        continue;
+                    }
+
+                    bindWaypoint(upsert, waypoint);
+                    upsert.addBatch();
+
+                    if (++written % BATCH_SIZE == 0) {
+                        upsert.executeBatch();
+                    }
+                }
+
+                for (final var id : savedWaypoints) {
+                    if (!saved.contains(id)) {
+                        delete.setInt(1, id);
+                        delete.addBatch();
+                        written++;
+                    }
+                }
+
+                upsert.executeBatch();
+                delete.executeBatch();
+                setMeta(connection, "waypoints.saved", Long.toString(System.currentTimeMillis()));
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            savedWaypoints = saved;
+            saveAllWaypoints = false;
+            plugin.getMetrics().counter("storage.sqlite.rows-written").add(written);
+            plugin.getMetrics().recordStorage("waypoints.save", file, start);
+            return null;
+        });
+    }
+
+    @Override
+    public void saveTravelers(Map<UUID, Traveler> travelers) throws IOException {
+        call(connection -> {
+            final var start = System.nanoTime();
+            final var saved = new ObjectOpenHashSet<UUID>(travelers.size());
+            final var saveAll = saveAllTravelers;
+            var written = 0;
+
+            saveAllTravelers = true;
+            connection.setAutoCommit(false);
+
+            try (final var upsert = connection.prepareStatement(UPSERT_TRAVELER);
+                    final var delete = connection.prepareStatement(DELETE_TRAVELER);
+                    final var insertRegistration = connection.prepareStatement(INSERT_REGISTRATION);
+                    final var deleteRegistrations = connection.prepareStatement(DELETE_REGISTRATIONS)) {
+                for (final var entry : travelers.entrySet()) {
+                    final var uniqueId = entry.getKey();
+                    final var traveler = entry.getValue();
+                    saved.add(uniqueId);
+
+                    if (!saveAll && !traveler.isDirty() && savedTravelers.contains(uniqueId)) {
+                        continue;
+                    }
+
+                    bindTraveler(upsert, uniqueId, traveler);
+                    upsert.addBatch();
+
+                    // A changed traveler's registrations are replaced whole, they're one row each
+                    deleteRegistrations.setString(1, uniqueId.toString());
+                    deleteRegistrations.addBatch();
+
+                    final var waypoints = traveler.getWaypoints();
+
+                    for (int id = waypoints.nextSetBit(0); id >= 0; id = waypoints.nextSetBit(id + 1)) {
+                        insertRegistration.setString(1, uniqueId.toString());
+                        insertRegistration.setInt(2, id);
+                        insertRegistration.addBatch();
+                    }
+
+                    if (++written % BATCH_SIZE == 0) {
+                        upsert.executeBatch();
+                        deleteRegistrations.executeBatch();
+                        insertRegistration.executeBatch();
+                    }
+                }
+
+                for (final var uniqueId : savedTravelers) {
+                    if (!saved.contains(uniqueId)) {
+                        delete.setString(1, uniqueId.toString());
+                        delete.addBatch();
+                        deleteRegistrations.setString(1, uniqueId.toString());
+                        deleteRegistrations.addBatch();
+                        written++;
+                    }
+                }
+
+                upsert.executeBatch();
+                delete.executeBatch();
+                deleteRegistrations.executeBatch();
+                insertRegistration.executeBatch();
+                setMeta(connection, "travelers.saved", Long.toString(System.currentTimeMillis()));
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            savedTravelers = saved;
+            saveAllTravelers = false;
+            plugin.getMetrics().counter("storage.sqlite.rows-written").add(written);
+            plugin.getMetrics().recordStorage("travelers.save", file, start);
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        writer.execute(() -> {
+            if (connection == null) {
+                return;
+            }
+
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to close " + FILENAME, e);
+            }
+
+            connection = null;
+        });
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(plugin.getAutosaveShutdownTimeout(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String getMeta(Connection connection, String key) throws SQLException {
+        try (final var statement = connection.prepareStatement("SELECT value FROM meta WHERE key = ?")) {
+            statement.setString(1, key);
+
+            try (final var result = statement.executeQuery()) {
+                return result.next() ? result.getString(1) : null;
+            }
+        }
+    }
+
+    private static void setMeta(Connection connection, String key, String value) throws SQLException {
+        try (final var statement = connection.prepareStatement("INSERT INTO meta (key, value) VALUES (?, ?)"
+                + " ON CONFLICT (key) DO UPDATE SET value = excluded.value")) {
+            statement.setString(1, key);
+            statement.setString(2, value);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void bindWaypoint(PreparedStatement statement, Waypoint waypoint) throws SQLException {
+        final var location = waypoint.getStoredLocation();
+        final var banner = waypoint.getBanner();
+        final var contributors = new StringBuilder();
+
+        for (final var uniqueId : waypoint.getContributors()) {
+            if (contributors.length() > 0) {
+                contributors.append(',');
+            }
+            contributors.append(uniqueId);
+        }
+
+        statement.setInt(1, waypoint.getId());
+        statement.setString(2, location.getWorldId().toString());
+        statement.setString(3, location.getWorldName());
+        statement.setDouble(4, location.getX());
+        statement.setDouble(5, location.getY());
+        statement.setDouble(6, location.getZ());
+        statement.setInt(7, waypoint.getChunkX());
+        statement.setInt(8, waypoint.getChunkZ());
+        statement.setBoolean(9, waypoint.isActive());
+        statement.setString(10, contributors.length() > 0 ? contributors.toString() : null);
+        statement.setString(11, banner != null ? banner.type().name() : null);
+        statement.setString(12, banner != null && banner.name() != null
+            ? GsonComponentSerializer.gson().serialize(banner.name())
+            : null);
+        statement.setString(13, banner != null ? encodePatterns(banner.patterns()) : null);
+    }
+
+    private static Waypoint readWaypoint(ResultSet result) throws SQLException {
+        final var id = result.getInt(1);
+        final var location = new StoredLocation(readUUID(result.getString(2)), result.getString(3),
+            result.getDouble(4), result.getDouble(5), result.getDouble(6));
+        final var active = result.getBoolean(7);
+        final var contributorsText = result.getString(8);
+        final var contributors = new ArrayList<UUID>();
+
+        if (contributorsText != null && !contributorsText.isEmpty()) {
+            for (final var uniqueId : contributorsText.split(",")) {
+                contributors.add(readUUID(uniqueId));
+            }
+        }
+
+        final var bannerType = result.getString(9);
+        Waypoint.Banner banner = null;
+
+        if (bannerType != null) {
+            final var type = Material.getMaterial(bannerType);
+
+            if (type == null) {
+                throw new SQLException("Invalid banner type " + bannerType + " of waypoint " + id);
+            }
+
+            final var name = result.getString(10);
+
+            try {
+                banner = new Waypoint.Banner(type,
+                    name != null ? GsonComponentSerializer.gson().deserialize(name) : null,
+                    decodePatterns(result.getString(11)));
+            } catch (RuntimeException e) {
+                throw new SQLException("Invalid banner of waypoint " + id, e);
+            }
+        }
+
+        return new Waypoint(id, location, contributors, active, banner);
+    }
+
+    private static void bindTraveler(PreparedStatement statement, UUID uniqueId, Traveler traveler)
+            throws SQLException {
+        statement.setString(1, uniqueId.toString());
+        statement.setInt(2, traveler.getStoredCharges());
+        statement.setInt(3, traveler.getTokens());
+        statement.setLong(4, traveler.getRegenTime());
+        statement.setLong(5, traveler.getPauseTime());
+        bindLocation(statement, 6, traveler.getStoredHome());
+        bindLocation(statement, 11, traveler.getStoredCamp());
+    }
+
+    private static void bindLocation(PreparedStatement statement, int index, StoredLocation location)
+            throws SQLException {
+        if (location == null) {
+            statement.setNull(index, Types.VARCHAR);
+            statement.setNull(index + 1, Types.VARCHAR);
+            statement.setNull(index + 2, Types.DOUBLE);
+            statement.setNull(index + 3, Types.DOUBLE);
+            statement.setNull(index + 4, Types.DOUBLE);
+            return;
+        }
+
+        statement.setString(index, location.getWorldId().toString());
+        statement.setString(index + 1, location.getWorldName());
+        statement.setDouble(index + 2, location.getX());
+        statement.setDouble(index + 3, location.getY());
+        statement.setDouble(index + 4, location.getZ());
+    }
+
+    private static StoredLocation readLocation(ResultSet result, int index) throws SQLException {
+        final var worldId = result.getString(index);
+
+        if (worldId == null) {
+            return null;
+        }
+
+        return new StoredLocation(readUUID(worldId), result.getString(index + 1), result.getDouble(index + 2),
+            result.getDouble(index + 3), result.getDouble(index + 4));
+    }
+
+    private static UUID readUUID(String uniqueId) throws SQLException {
+        try {
+            return UUID.fromString(uniqueId);
+        } catch (IllegalArgumentException e) {
+            throw new SQLException("Invalid UUID " + uniqueId, e);
+        }
+    }
+
+    private static String encodePatterns(List<Pattern> patterns) {
+        final var builder = new StringBuilder();
+
+        for (final var pattern : patterns) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(pattern.getColor().name()).append(':').append(pattern.getPattern().getIdentifier());
+        }
+
+        return builder.toString();
+    }
+
+    private static List<Pattern> decodePatterns(String patterns) {
+        final var list = new ArrayList<Pattern>();
+
+        if (patterns == null || patterns.isEmpty()) {
+            return list;
+        }
+
+        for (final var pattern : patterns.split(",")) {
+            final var separator = pattern.indexOf(':');
+
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid banner pattern " + pattern);
+            }
+
+            final var type = PatternType.getByIdentifier(pattern.substring(separator + 1));
+            final DyeColor color;
+
+            try {
+                color = DyeColor.valueOf(pattern.substring(0, separator));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid banner pattern " + pattern, e);
+            }
+
+            if (type == null) {
+                throw new IllegalArgumentException("Invalid banner pattern " + pattern);
+            }
+
+            list.add(new Pattern(color, type));
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,98 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+// Reads the data files on background threads from onLoad, while the server is still loading worlds. The files are
+// read in parallel, and traveler JSON is split further across the pool. Nothing here touches a world or an index,
+// the results are published on the main thread once the plugin is enabled.
+public class StartupLoader {
+
+    private final ForkJoinPool pool;
+    private final CompletableFuture<List<Waypoint>> waypoints;
+    private final CompletableFuture<Map<UUID, Traveler>> travelers;
+    private final CompletableFuture<Map<UUID, String>> names;
+    private final CompletableFuture<List<Journal.Entry>> journal;
+    private final CompletableFuture<Void> done;
+
+    public StartupLoader(final PaperPlugin plugin) {
+        this.pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()), forkJoinPool -> {
+            final var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName(plugin.getName() + " Loader-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            // Pool threads don't inherit the plugin class loader
+            thread.setContextClassLoader(PaperPlugin.class.getClassLoader());
+            return thread;
+        }, null, false);
+
+        this.waypoints = CompletableFuture.supplyAsync(() -> {
+            try {
+                return WaypointManager.readWaypoints(plugin);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+        this.travelers = CompletableFuture.supplyAsync(() -> {
+            try {
+                return TravelerManager.readTravelers(plugin, pool);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+        this.names = CompletableFuture.supplyAsync(() -> {
+            try {
+                return NameManager.readNames(plugin);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+
+        this.journal = CompletableFuture.supplyAsync(() -> {
+            try {
+                return Journal.readEntries(plugin);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+
+        this.done = CompletableFuture.allOf(waypoints, travelers, names, journal);
+        this.done.whenComplete((result, e) -> pool.shutdown());
+    }
+
+    public boolean isDone() {
+        return done.isDone();
+    }
+
+    // Runs the action once every file has been read or one of them failed, on a loader thread
+    public void whenDone(Runnable action) {
+        done.whenComplete((result, e) -> action.run());
+    }
+
+    // Main thread only, after the loader is done. Travelers come before waypoints, so registrations of waypoints that
+    // no longer exist can be dropped, and the journal comes last.
+    public void publish(PaperPlugin plugin) throws IOException {
+        try {
+            plugin.getTravelerManager().publishTravelers(plugin, travelers.join());
+            plugin.getWaypointManager().publishWaypoints(waypoints.join());
+            plugin.getTravelerManager().retainWaypoints(plugin.getWaypointManager());
+            plugin.getNameManager().publishNames(names.join());
+            // Changes made after the data files were last saved
+            Journal.replay(plugin, journal.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,34 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+// Where waypoints and travelers are persisted. Reads run on the startup loader and saves on the autosave executor, both
+// with copies the managers no longer touch, so implementations never see the live indexes.
+public interface Storage {
+
+    static Storage open(PaperPlugin plugin) {
+        return switch (plugin.getStorageFormat()) {
+            case BINARY -> new BinaryStorage(plugin);
+            case JSON   -> new JsonStorage(plugin);
+            case SQLITE -> new SqliteStorage(plugin);
+        };
+    }
+
+    // Null when nothing was saved yet
+    List<Waypoint> readWaypoints() throws IOException;
+
+    // Null when nothing was saved yet. Implementations that can parse in parallel do so on the pool.
+    Map<UUID, Traveler> readTravelers(ForkJoinPool pool) throws IOException;
+
+    void saveWaypoints(List<Waypoint> waypoints) throws IOException;
+
+    void saveTravelers(Map<UUID, Traveler> travelers) throws IOException;
+
+    // Called after the final save
+    default void close() {
+    }
+}
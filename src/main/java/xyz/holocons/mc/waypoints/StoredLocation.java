@@ -0,0 +1,94 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+
+// A location as it's saved, with its world by UUID and name instead of a World. Data files can be read before their
+// worlds are loaded, off the main thread, and locations in worlds that aren't loaded are kept and saved again as they
+// were. Schema v1 JSON only has the world name, those locations are bound to a UUID once the data is published.
+public final class StoredLocation {
+
+    private final UUID worldId;
+    private final String worldName;
+    private final double x;
+    private final double y;
+    private final double z;
+
+    public StoredLocation(UUID worldId, String worldName, double x, double y, double z) {
+        this.worldId = worldId;
+        this.worldName = worldName;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public static StoredLocation of(Location location) {
+        if (location == null) {
+            return null;
+        }
+
+        final var world = location.getWorld();
+        return new StoredLocation(world.getUID(), world.getName(), location.getX(), location.getY(), location.getZ());
+    }
+
+    // Null until bound, for locations read from schema v1
+    public UUID getWorldId() {
+        return worldId;
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    public int getBlockX() {
+        return (int) Math.floor(x);
+    }
+
+    public int getBlockY() {
+        return (int) Math.floor(y);
+    }
+
+    public int getBlockZ() {
+        return (int) Math.floor(z);
+    }
+
+    public boolean isBound() {
+        return worldId != null;
+    }
+
+    // Main thread only. Looks up the UUID of a location that only has a world name, which needs the world loaded.
+    public StoredLocation bind() throws IOException {
+        if (worldId != null) {
+            return this;
+        }
+
+        final var world = Bukkit.getWorld(worldName);
+
+        if (world == null) {
+            throw new IOException("World " + worldName + " isn't loaded");
+        }
+
+        return new StoredLocation(world.getUID(), worldName, x, y, z);
+    }
+
+    // Main thread only. Null while the world isn't loaded.
+    public Location toLocation() {
+        final var world = worldId != null ? Bukkit.getWorld(worldId) : Bukkit.getWorld(worldName);
+        return world != null ? new Location(world, x, y, z) : null;
+    }
+}
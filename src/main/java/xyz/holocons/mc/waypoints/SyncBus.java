@@ -0,0 +1,26 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Carries sync messages between servers. Messages are opaque to the bus, they're published from the main thread and
+// handed to the receiver on whatever thread the bus reads them on. Publishing never blocks, and a server doesn't
+// receive its own messages. Whenever a peer (re)connects, or may have missed messages, the bus sends it the snapshot
+// first, so it catches up on everything it didn't receive in the meantime.
+public interface SyncBus {
+
+    static SyncBus open(PaperPlugin plugin) {
+        return switch (plugin.getSyncTransport()) {
+            case LOCAL -> new LocalSyncBus(plugin.getSyncChannel());
+            case TCP   -> new SocketSyncBus(plugin);
+        };
+    }
+
+    void start(Consumer<byte[]> receiver, Supplier<List<byte[]>> snapshot) throws IOException;
+
+    void publish(byte[] message);
+
+    void close();
+}
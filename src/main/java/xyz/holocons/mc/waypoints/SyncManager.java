@@ -0,0 +1,343 @@
+package xyz.holocons.mc.waypoints;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.bukkit.Chunk;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+
+// Keeps the waypoints and travelers of several servers in step. Every journal record is also published on the bus with
+// a version stamp, and the records of other servers are applied to the indexes and holograms once per tick, then
+// journaled here without being published again. Records that set something (tokens, charges, home, camp, whether a
+// waypoint exists, whether a player contributed to it) only apply when their stamp is newer than the last one seen for
+// the same thing, so every server ends up with the same value in whatever order the records arrive. Activations, banner
+// refreshes and registrations only ever add, so they apply unless the very same message was already applied. When two
+// servers create a waypoint in the same chunk before hearing of each other, the one with the lower stamp wins on every
+// server and the other is removed wherever it was created or already applied.
+//
+// The last message for every key is kept, and the bus sends all of them to a peer when it connects or may have missed
+// messages, so a server that was down or dropped messages converges again. A removed waypoint keeps only its removal,
+// so the kept messages grow with the waypoints and travelers that exist, not with the changes made. Only changes made
+// since this server started are kept, a change made while every other server was down only reaches them through shared
+// data files.
+//
+// Stamps are hybrid logical clocks: the time in milliseconds, moved past every stamp seen, times MAX_SERVERS plus the
+// server id, so two servers never produce the same stamp. They stay ordered across restarts while the server clocks
+// roughly agree.
+//
+// Message layout, all values big-endian:
+//   origin server id int, stamp long, journal record payload
+public class SyncManager implements Runnable {
+
+    public enum Transport {
+        LOCAL,
+        TCP,
+    }
+
+    public static final int MAX_SERVERS = 1024;
+
+    private static final int HEADER_SIZE = 4 + 8;
+
+    // What a message is kept for, records with the same key overwrite each other
+    private record Key(Journal.Type type, int waypointId, UUID uniqueId) {
+    }
+
+    private final PaperPlugin plugin;
+    private final int serverId;
+    private final SyncBus bus;
+    // Filled by the bus threads, drained by the sync task
+    private final ConcurrentLinkedQueue<byte[]> inbox;
+    // Guarded by this, records are published from whichever thread made the change. The last message for every key, in
+    // the order they were last changed, so a waypoint is always created before it's activated or registered.
+    private final Object2ObjectLinkedOpenHashMap<Key, byte[]> latest;
+    // Guarded by this, the keys in latest that belong to a waypoint, other than its creation or removal
+    private final Int2ObjectOpenHashMap<List<Key>> waypointKeys;
+    private long clock;
+    private final Metrics.Counter published;
+    private final Metrics.Counter applied;
+    private final Metrics.Counter stale;
+    private final Metrics.Timer applyTimer;
+    private final TaskScheduler.Task task;
+
+    public SyncManager(final PaperPlugin plugin) throws IOException {
+        this.plugin = plugin;
+        this.serverId = plugin.getSyncServerId();
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.latest = new Object2ObjectLinkedOpenHashMap<>();
+        this.waypointKeys = new Int2ObjectOpenHashMap<>();
+
+        final var servers = plugin.getSyncServers();
+
+        if (servers < 1 || servers > MAX_SERVERS || serverId < 0 || serverId >= servers) {
+            throw new IllegalArgumentException("sync.server-id must be from 0 to sync.servers - 1, and sync.servers "
+                + "at most " + MAX_SERVERS);
+        }
+
+        // Waypoints created at the same time on two servers must not get the same id
+        plugin.getWaypointManager().setIdPartition(serverId, servers);
+
+        final var metrics = plugin.getMetrics();
+        this.published = metrics.counter("sync.published");
+        this.applied = metrics.counter("sync.applied");
+        this.stale = metrics.counter("sync.stale");
+        this.applyTimer = metrics.timer("sync.apply");
+        metrics.gauge("sync.inbox", inbox::size);
+
+        this.bus = SyncBus.open(plugin);
+        this.bus.start(inbox::add, this::snapshot);
+
+        this.task = plugin.getTaskScheduler().runTimer(this, 1, 1);
+    }
+
+    // Called by the journal with the payload of every record it's given
+    public synchronized void publish(byte[] payload) {
+        final Journal.Entry entry;
+
+        try {
+            entry = Journal.readEntry(ByteBuffer.wrap(payload));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        final var message = ByteBuffer.allocate(HEADER_SIZE + payload.length)
+            .putInt(serverId)
+            .putLong(nextStamp())
+            .put(payload)
+            .array();
+
+        // Remote records older than this change must not undo it
+        remember(getKey(entry), entry.type(), message);
+        bus.publish(message);
+        published.increment();
+    }
+
+    @Override
+    public void run() {
+        // Records received before the data is published wait for it
+        if (inbox.isEmpty() || !plugin.isReady()) {
+            return;
+        }
+
+        final var start = System.nanoTime();
+        byte[] message;
+
+        while ((message = inbox.poll()) != null) {
+            synchronized (this) {
+                receive(message);
+            }
+        }
+
+        applyTimer.record(start);
+    }
+
+    // Every message kept, for a peer that has to catch up. Called from the bus threads.
+    public synchronized List<byte[]> snapshot() {
+        return new ArrayList<>(latest.values());
+    }
+
+    public void shutdown() {
+        task.cancel();
+        bus.close();
+        inbox.clear();
+    }
+
+    private void receive(byte[] message) {
+        final Journal.Entry entry;
+        final int origin;
+        final long stamp;
+
+        try {
+            final var buffer = ByteBuffer.wrap(message);
+            origin = buffer.getInt();
+            stamp = buffer.getLong();
+            entry = Journal.readEntry(buffer.slice());
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            // A newer server can send records this one doesn't know yet
+            plugin.getLogger().warning("Ignoring a sync message that can't be read: " + e.getMessage());
+            return;
+        }
+
+        if (origin == serverId) {
+            return;
+        }
+
+        clock = Math.max(clock, stamp / MAX_SERVERS);
+
+        final var key = getKey(entry);
+        final var last = latest.get(key);
+
+        if (last != null && (isAddOnly(entry.type()) ? Arrays.equals(last, message) : getStamp(last) >= stamp)) {
+            stale.increment();
+            return;
+        }
+
+        if (entry.type() == Journal.Type.CREATE_WAYPOINT && !resolveCollision(entry, stamp)) {
+            stale.increment();
+            return;
+        }
+
+        remember(key, entry.type(), message);
+        apply(entry);
+        plugin.getJournal().write(Arrays.copyOfRange(message, HEADER_SIZE, message.length));
+        applied.increment();
+    }
+
+    // Applies a record like a journal replay, and shows the change to the players who can see it
+    private void apply(Journal.Entry entry) {
+        final var waypointManager = plugin.getWaypointManager();
+        final var waypoint = entry.waypointId() >= 0 ? waypointManager.getWaypoint(entry.waypointId()) : null;
+
+        Journal.apply(plugin, entry);
+
+        switch (entry.type()) {
+            case CREATE_WAYPOINT -> {
+                final var created = waypointManager.getWaypoint(entry.waypointId());
+
+                if (created != null && created != waypoint) {
+                    plugin.getVisibilityManager().loadWaypointNearbyPlayers(created);
+                }
+            }
+            case REMOVE_WAYPOINT -> {
+                if (waypoint != null) {
+                    plugin.getVisibilityManager().remove(waypoint);
+                }
+            }
+            case ACTIVATE_WAYPOINT, REFRESH_BANNER -> {
+                if (waypoint != null) {
+                    plugin.getHologramManager().updateViewers(waypoint);
+                }
+            }
+            case ADD_CONTRIBUTOR -> {
+                if (waypoint != null) {
+                    plugin.getNameManager().resolveNames(waypoint.getContributors());
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // Returns false if a waypoint created earlier already takes the chunk. A waypoint created later is removed, and
+    // the removal published so the servers that applied it remove it too.
+    private boolean resolveCollision(Journal.Entry entry, long stamp) {
+        final var waypointManager = plugin.getWaypointManager();
+        final var location = entry.location();
+
+        if (location.getWorldId() == null) {
+            return true;
+        }
+
+        final var occupant = waypointManager.getWaypoint(location.getWorldId(),
+            Chunk.getChunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4));
+
+        if (occupant == null) {
+            return true;
+        }
+
+        // A waypoint created before this server started came from the shared data files, and is older than any
+        // waypoint created since
+        final var created = latest.get(new Key(Journal.Type.CREATE_WAYPOINT, occupant.getId(), null));
+        final var occupantStamp = created != null ? getStamp(created) : Long.MIN_VALUE;
+
+        if (occupantStamp < stamp) {
+            return false;
+        }
+
+        final var journal = plugin.getJournal();
+        final var travelerManager = plugin.getTravelerManager();
+
+        travelerManager.removeWaypoint(occupant);
+        waypointManager.removeWaypoint(occupant);
+        journal.removeWaypoint(occupant);
+        plugin.getVisibilityManager().remove(occupant);
+
+        // Only the server it was created on gives the tokens back, so they're given back once
+        if (occupantStamp % MAX_SERVERS == serverId) {
+            final var maxTokens = plugin.getTravelerMaxTokens();
+
+            for (final var uniqueId : occupant.getContributors()) {
+                final var traveler = travelerManager.getOrCreateTraveler(uniqueId);
+                journal.setTokens(uniqueId, traveler.giveToken(maxTokens));
+            }
+        }
+
+        return true;
+    }
+
+    private void remember(Key key, Journal.Type type, byte[] message) {
+        final var isNew = latest.putAndMoveToLast(key, message) == null;
+
+        if (key.type() != Journal.Type.CREATE_WAYPOINT) {
+            if (isNew && key.waypointId() >= 0) {
+                var keys = waypointKeys.get(key.waypointId());
+
+                if (keys == null) {
+                    keys = new ArrayList<>();
+                    waypointKeys.put(key.waypointId(), keys);
+                }
+
+                keys.add(key);
+            }
+
+            return;
+        }
+
+        final var keys = waypointKeys.get(key.waypointId());
+
+        if (keys == null) {
+            return;
+        }
+
+        // The records that only add belong to the waypoint that had the id before, which mustn't be replayed onto a
+        // new waypoint reusing the id. Nothing is left to replay onto a removed waypoint.
+        final var removed = type == Journal.Type.REMOVE_WAYPOINT;
+
+        keys.removeIf(other -> {
+            if (removed || isAddOnly(other.type())) {
+                latest.remove(other);
+                return true;
+            }
+            return false;
+        });
+
+        if (keys.isEmpty()) {
+            waypointKeys.remove(key.waypointId());
+        }
+    }
+
+    private static long getStamp(byte[] message) {
+        return ByteBuffer.wrap(message).getLong(4);
+    }
+
+    private long nextStamp() {
+        clock = Math.max(System.currentTimeMillis(), clock + 1);
+        return clock * MAX_SERVERS + serverId;
+    }
+
+    private static Key getKey(Journal.Entry entry) {
+        return switch (entry.type()) {
+            case CREATE_WAYPOINT, REMOVE_WAYPOINT ->
+                new Key(Journal.Type.CREATE_WAYPOINT, entry.waypointId(), null);
+            case ADD_CONTRIBUTOR, REMOVE_CONTRIBUTOR ->
+                new Key(Journal.Type.ADD_CONTRIBUTOR, entry.waypointId(), entry.uniqueId());
+            case SET_TOKENS, SET_HOME, SET_CAMP, SET_CHARGES -> new Key(entry.type(), -1, entry.uniqueId());
+            case ACTIVATE_WAYPOINT, REFRESH_BANNER -> new Key(entry.type(), entry.waypointId(), null);
+            case REGISTER_WAYPOINT -> new Key(entry.type(), entry.waypointId(), entry.uniqueId());
+        };
+    }
+
+    private static boolean isAddOnly(Journal.Type type) {
+        return switch (type) {
+            case ACTIVATE_WAYPOINT, REFRESH_BANNER, REGISTER_WAYPOINT -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,44 @@
+package xyz.holocons.mc.waypoints;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+
+// Where the plugin's tasks run. On Paper everything but async tasks runs on the main thread. On region-threaded
+// servers (Folia) global tasks run on the global region, and tasks for an entity or a location on the thread that
+// owns its region, which is the only thread allowed to touch it.
+public interface TaskScheduler {
+
+    interface Task {
+
+        void cancel();
+    }
+
+    static TaskScheduler create(PaperPlugin plugin) {
+        return RegionTaskScheduler.isSupported() ? new RegionTaskScheduler(plugin) : new BukkitTaskScheduler(plugin);
+    }
+
+    // Runs the task on the global thread in the next tick
+    void run(Runnable task);
+
+    Task runTimer(Runnable task, long delay, long period);
+
+    void runAsync(Runnable task);
+
+    // Runs the task on the thread that owns the entity, right away if that's the current thread. Tasks for an entity
+    // that's removed first don't run.
+    default void run(Entity entity, Runnable task) {
+        run(entity, task, null);
+    }
+
+    // Like run, but retired runs instead of the task if the entity is removed first. It may run on any thread.
+    void run(Entity entity, Runnable task, Runnable retired);
+
+    // Runs the task on the thread that owns the location, right away if that's the current thread
+    void run(Location location, Runnable task);
+
+    // Ticks since the plugin was enabled on region-threaded servers, which have no single tick count, and the server
+    // tick otherwise. Only for measuring durations.
+    int getCurrentTick();
+
+    void shutdown();
+}
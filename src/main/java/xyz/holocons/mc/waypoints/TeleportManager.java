@@ -0,0 +1,199 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import net.kyori.adventure.bossbar.BossBar;
+import net.kyori.adventure.text.Component;
+
+// Advances every pending teleport warmup from a single tick task. The task only hands each teleport to the thread that
+// owns its player, which does the checks, the boss bar and the teleport itself. Teleports are started and cancelled
+// from that thread too.
+public class TeleportManager implements Runnable {
+
+    private static final Component BOSS_BAR_NAME = Component.text("Teleporting...");
+    private static final int BOSS_BAR_SEGMENTS = 20;
+
+    private static final class Teleport {
+
+        private final Player player;
+        private final Traveler traveler;
+        private final Location destination;
+        private final double initialHealth;
+        private final double initialX;
+        private final double initialZ;
+        private final int startTick;
+        private final BossBar bossBar;
+        // Reused for reading the player's position so the checks don't allocate, only used by the player's thread
+        private final Location scratchLocation;
+        // Set while a check is waiting for the player's thread, so a slow region doesn't pile them up
+        private final AtomicBoolean queued;
+
+        private Teleport(Player player, Traveler traveler, Location destination, int startTick) {
+            final var location = player.getLocation();
+
+            this.player = player;
+            this.traveler = traveler;
+            this.destination = destination;
+            this.initialHealth = player.getHealth();
+            this.initialX = location.getX();
+            this.initialZ = location.getZ();
+            this.startTick = startTick;
+            this.bossBar = BossBar.bossBar(BOSS_BAR_NAME, 0.0f, BossBar.Color.GREEN, BossBar.Overlay.NOTCHED_20);
+            this.scratchLocation = new Location(null, 0.0, 0.0, 0.0);
+            this.queued = new AtomicBoolean();
+        }
+    }
+
+    private final PaperPlugin plugin;
+    private final TaskScheduler scheduler;
+    private final ConcurrentHashMap<UUID, Teleport> teleports;
+    private final TaskScheduler.Task task;
+
+    public TeleportManager(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = plugin.getTaskScheduler();
+        this.teleports = new ConcurrentHashMap<>();
+        this.task = scheduler.runTimer(this, 1, 1);
+    }
+
+    public void startTeleport(Player player, Location destination) {
+        cancelTeleport(player);
+
+        final var traveler = plugin.getTravelerManager().getOrCreateTraveler(player);
+
+        // Refused straight away instead of after the warmup, the charge is still only taken once it completes
+        if (traveler.getCharges(plugin) <= 0) {
+            player.sendMessage("You don't have any charges left!");
+            return;
+        }
+
+        final var teleport = new Teleport(player, traveler, toXZCenterLocation(destination),
+            scheduler.getCurrentTick());
+
+        player.showBossBar(teleport.bossBar);
+        teleports.put(player.getUniqueId(), teleport);
+    }
+
+    public boolean cancelTeleport(Player player) {
+        final var teleport = teleports.remove(player.getUniqueId());
+
+        if (teleport == null) {
+            return false;
+        }
+
+        hideBossBar(teleport);
+        return true;
+    }
+
+    public void clearTeleports() {
+        for (final var uniqueId : teleports.keySet()) {
+            final var teleport = teleports.remove(uniqueId);
+
+            if (teleport != null) {
+                hideBossBar(teleport);
+            }
+        }
+    }
+
+    public void shutdown() {
+        task.cancel();
+    }
+
+    @Override
+    public void run() {
+        if (teleports.isEmpty()) {
+            return;
+        }
+
+        final var currentTick = scheduler.getCurrentTick();
+        final var teleportWaitTime = plugin.getTravelerTeleportWaitTime();
+
+        for (final var teleport : teleports.values()) {
+            if (teleport.queued.compareAndSet(false, true)) {
+                scheduler.run(teleport.player, () -> advanceTeleport(teleport, currentTick, teleportWaitTime),
+                    () -> removeTeleport(teleport));
+            }
+        }
+    }
+
+    // On the thread that owns the player
+    private void advanceTeleport(Teleport teleport, int currentTick, int teleportWaitTime) {
+        final var player = teleport.player;
+
+        teleport.queued.set(false);
+
+        if (playerTookDamage(teleport) || playerMoved(teleport)) {
+            if (removeTeleport(teleport)) {
+                player.sendMessage("Teleportation cancelled!");
+            }
+            return;
+        }
+
+        final var elapsed = currentTick - teleport.startTick;
+
+        if (elapsed >= teleportWaitTime) {
+            if (removeTeleport(teleport)) {
+                completeTeleport(teleport);
+            }
+            return;
+        }
+
+        // Only step the progress per segment, so the boss bar isn't resent every tick
+        final var segments = elapsed * BOSS_BAR_SEGMENTS / Math.max(teleportWaitTime, 1);
+        teleport.bossBar.progress((float) segments / BOSS_BAR_SEGMENTS);
+    }
+
+    // Only the thread that removes a teleport finishes it, so it can't complete after it was cancelled
+    private boolean removeTeleport(Teleport teleport) {
+        if (!teleports.remove(teleport.player.getUniqueId(), teleport)) {
+            return false;
+        }
+
+        hideBossBar(teleport);
+        return true;
+    }
+
+    private void completeTeleport(Teleport teleport) {
+        final var player = teleport.player;
+
+        // The charge is taken atomically, two teleports finishing at once can't both spend the last one
+        if (!teleport.traveler.takeCharge(plugin)) {
+            player.sendMessage("Teleportation cancelled!");
+            return;
+        }
+
+        plugin.getJournal().setCharges(player.getUniqueId(), teleport.traveler);
+        teleport.destination.setDirection(player.getLocation().getDirection());
+        player.teleportAsync(teleport.destination);
+    }
+
+    private static void hideBossBar(Teleport teleport) {
+        teleport.player.hideBossBar(teleport.bossBar);
+    }
+
+    private static boolean playerTookDamage(Teleport teleport) {
+        return teleport.player.getHealth() < teleport.initialHealth;
+    }
+
+    private static boolean playerMoved(Teleport teleport) {
+        final var location = teleport.player.getLocation(teleport.scratchLocation);
+        final var distanceX = location.getX() - teleport.initialX;
+        final var distanceZ = location.getZ() - teleport.initialZ;
+
+        return distanceX * distanceX + distanceZ * distanceZ > 1.0;
+    }
+
+    private static Location toXZCenterLocation(final Location location) {
+        final var newLocation = location.clone();
+
+        newLocation.setX(location.getBlockX() + 0.5);
+        newLocation.setZ(location.getBlockZ() + 0.5);
+
+        return newLocation;
+    }
+}
@@ -1,59 +1,166 @@
 package xyz.holocons.mc.waypoints;
 
+import java.io.IOException;
 import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import org.bukkit.Location;
-import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitTask;
 
+// Safe to share between threads. Charges and their timestamps change together as one immutable state, tokens are
+// counted atomically, and the registered waypoints are guarded by their BitSet.
 public class Traveler {
 
-    private int charges;
-    private int tokens;
-    private Location home;
-    private Location camp;
-    private BitSet waypoints;
-    private BukkitTask regenChargeTask;
+    // Charges are regenerated lazily from the timestamps (epoch millis) when they're read
+    public record ChargeState(int charges, long regenTime, long pauseTime) {
+    }
+
+    private final AtomicReference<ChargeState> chargeState;
+    private final AtomicInteger tokens;
+    private volatile StoredLocation home;
+    private volatile StoredLocation camp;
+    private final BitSet waypoints;
+    // Set by every change, taken by the save snapshot so row storage only writes changed travelers
+    private final AtomicBoolean dirty;
+
+    public Traveler(int charges, int tokens, StoredLocation home, StoredLocation camp, BitSet waypoints, long regenTime,
+            long pauseTime) {
+        final var now = System.currentTimeMillis();
 
-    public Traveler(int charges, int tokens, Location home, Location camp, BitSet waypoints) {
-        this.charges = charges;
-        this.tokens = tokens;
+        // Travelers start out paused until their player is online
+        this.chargeState = new AtomicReference<>(new ChargeState(charges, regenTime != 0 ? regenTime : now,
+            pauseTime != 0 ? pauseTime : now));
+        this.tokens = new AtomicInteger(tokens);
         this.home = home;
         this.camp = camp;
         this.waypoints = waypoints != null ? waypoints : new BitSet();
-        this.regenChargeTask = null;
+        this.dirty = new AtomicBoolean(true);
+    }
+
+    public Traveler copy() {
+        final var state = chargeState.get();
+        final var copy = new Traveler(state.charges(), tokens.get(), home, camp, copyWaypoints(), state.regenTime(),
+            state.pauseTime());
+        copy.dirty.set(dirty.get());
+        return copy;
+    }
+
+    // A copy for saving, which takes the dirty flag so every change is saved once
+    public Traveler snapshot() {
+        final var changed = clearDirty();
+        final var snapshot = copy();
+        snapshot.dirty.set(changed);
+        return snapshot;
+    }
+
+    public boolean isDirty() {
+        return dirty.get();
+    }
+
+    // Returns whether the traveler changed since the flag was last cleared
+    public boolean clearDirty() {
+        return dirty.getAndSet(false);
+    }
+
+    // Charges with regeneration up to now, without storing it
+    public int getCharges(PaperPlugin plugin) {
+        return regenCharges(chargeState.get(), plugin.getTravelerMaxCharges(),
+            plugin.getTravelerRegenChargeTime() * 50L, System.currentTimeMillis()).charges();
+    }
+
+    // Charges as last stored, without regeneration, for persisting along with the timestamps
+    public int getStoredCharges() {
+        return chargeState.get().charges();
     }
 
-    public int getCharges() {
-        return charges;
+    public long getRegenTime() {
+        return chargeState.get().regenTime();
+    }
+
+    public long getPauseTime() {
+        return chargeState.get().pauseTime();
+    }
+
+    // The charges and both timestamps as of the same moment
+    public ChargeState getChargeState() {
+        return chargeState.get();
     }
 
     public int getTokens() {
-        return tokens;
+        return tokens.get();
     }
 
+    // Null while there's none or its world isn't loaded
     public Location getHome() {
-        return home;
+        final var storedHome = home;
+        return storedHome != null ? storedHome.toLocation() : null;
     }
 
     public Location getCamp() {
+        final var storedCamp = camp;
+        return storedCamp != null ? storedCamp.toLocation() : null;
+    }
+
+    public StoredLocation getStoredHome() {
+        return home;
+    }
+
+    public StoredLocation getStoredCamp() {
         return camp;
     }
 
+    // Main thread only, gives locations read from schema v1 the UUID of their world
+    public void bindWorlds() throws IOException {
+        final var boundHome = home != null ? home.bind() : null;
+        final var boundCamp = camp != null ? camp.bind() : null;
+
+        // Locations that were already bound are returned as they are
+        if (boundHome != home || boundCamp != camp) {
+            home = boundHome;
+            camp = boundCamp;
+            dirty.set(true);
+        }
+    }
+
+    // The live set, only for travelers that aren't shared yet or copies. Shared travelers go through the methods below.
     public BitSet getWaypoints() {
         return waypoints;
     }
 
+    // The ids of the registered waypoints, safe to read while the traveler changes
+    public BitSet copyWaypoints() {
+        synchronized (waypoints) {
+            return (BitSet) waypoints.clone();
+        }
+    }
+
     public boolean hasWaypoint(Waypoint waypoint) {
-        return waypoint != null && waypoints.get(waypoint.getId());
+        if (waypoint == null) {
+            return false;
+        }
+
+        synchronized (waypoints) {
+            return waypoints.get(waypoint.getId());
+        }
     }
 
-    public void registerWaypoint(Waypoint waypoint) {
+    // Returns false if the waypoint was already registered
+    public boolean registerWaypoint(Waypoint waypoint) {
         if (waypoint == null) {
-            return;
+            return false;
         }
 
-        waypoints.set(waypoint.getId());
+        synchronized (waypoints) {
+            if (waypoints.get(waypoint.getId())) {
+                return false;
+            }
+
+            waypoints.set(waypoint.getId());
+            dirty.set(true);
+            return true;
+        }
     }
 
     public void unregisterWaypoint(Waypoint waypoint) {
@@ -61,51 +168,162 @@ public class Traveler {
             return;
         }
 
-        waypoints.clear(waypoint.getId());
+        unregisterWaypoint(waypoint.getId());
+    }
+
+    public void unregisterWaypoint(int id) {
+        synchronized (waypoints) {
+            waypoints.clear(id);
+            dirty.set(true);
+        }
+    }
+
+    // Takes one charge, returning false if there was none left
+    public boolean takeCharge(PaperPlugin plugin) {
+        return takeCharge(plugin.getTravelerMaxCharges(), plugin.getTravelerRegenChargeTime() * 50L,
+            System.currentTimeMillis());
+    }
+
+    // Same, with the regeneration time in milliseconds and the current time given
+    boolean takeCharge(int maxCharges, long regenChargeTime, long now) {
+        while (true) {
+            final var current = chargeState.get();
+            final var regenerated = regenCharges(current, maxCharges, regenChargeTime, now);
+
+            if (regenerated.charges() <= 0) {
+                chargeState.compareAndSet(current, regenerated);
+                dirty.set(true);
+                return false;
+            }
+
+            final var taken = new ChargeState(regenerated.charges() - 1, regenerated.regenTime(),
+                regenerated.pauseTime());
+
+            if (chargeState.compareAndSet(current, taken)) {
+                dirty.set(true);
+                return true;
+            }
+        }
+    }
+
+    // Charges as another server stored them, with its timestamps, so regeneration carries on from where it was
+    public void setStoredCharges(int charges, long regenTime, long pauseTime) {
+        chargeState.set(new ChargeState(charges, regenTime, pauseTime));
+        dirty.set(true);
     }
 
-    public void setCharges(int charges) {
-        this.charges = charges;
+    // Same, but keeps this server's pause time
+    public void setStoredCharges(int charges, long regenTime) {
+        chargeState.updateAndGet(state -> new ChargeState(charges, regenTime, state.pauseTime()));
+        dirty.set(true);
     }
 
     public void setTokens(int tokens) {
-        this.tokens = tokens;
+        this.tokens.set(tokens);
+        dirty.set(true);
+    }
+
+    // Takes one token, returning false if there was none left
+    public boolean takeToken() {
+        while (true) {
+            final var current = tokens.get();
+
+            if (current <= 0) {
+                return false;
+            }
+
+            if (tokens.compareAndSet(current, current - 1)) {
+                dirty.set(true);
+                return true;
+            }
+        }
+    }
+
+    // Gives back one token up to maxTokens, returning the tokens afterwards
+    public int giveToken(int maxTokens) {
+        final var given = tokens.updateAndGet(current -> Math.min(current + 1, maxTokens));
+        dirty.set(true);
+        return given;
     }
 
     public void setHome(Location home) {
-        this.home = home;
+        setHome(StoredLocation.of(home));
     }
 
     public void setCamp(Location camp) {
+        setCamp(StoredLocation.of(camp));
+    }
+
+    public void setHome(StoredLocation home) {
+        this.home = home;
+        dirty.set(true);
+    }
+
+    public void setCamp(StoredLocation camp) {
         this.camp = camp;
+        dirty.set(true);
     }
 
     public void startRegenCharge(PaperPlugin plugin) {
-        if (regenChargeTask == null || regenChargeTask.isCancelled()) {
-            final var traveler = this;
-            final var maxCharges = plugin.getTravelerMaxCharges();
-            final var period = plugin.getTravelerRegenChargeTime();
+        final var offlineRegen = plugin.getTravelerOfflineRegen();
 
-            regenChargeTask = new BukkitRunnable() {
+        chargeState.updateAndGet(state -> {
+            if (state.pauseTime() == 0) {
+                return state;
+            }
 
-                @Override
-                public void run() {
-                    final var newCharges = Math.min(maxCharges, traveler.getCharges() + 1);
+            // Unless offline time counts, shift the regeneration forward by the time spent paused
+            final var regenTime = offlineRegen
+                ? state.regenTime()
+                : state.regenTime() + System.currentTimeMillis() - state.pauseTime();
 
-                    traveler.setCharges(newCharges);
+            return new ChargeState(state.charges(), regenTime, 0);
+        });
+        dirty.set(true);
+    }
 
-                    if (newCharges == maxCharges) {
-                        cancel();
-                    }
-                }
-            }.runTaskTimer(plugin, period, period);
-        }
+    public void stopRegenCharge(PaperPlugin plugin) {
+        updateCharges(plugin, state -> state.pauseTime() != 0
+            ? state
+            : new ChargeState(state.charges(), state.regenTime(), System.currentTimeMillis()));
+    }
+
+    // Regenerates and then applies the update, retrying if another thread changed the state in between
+    private ChargeState updateCharges(PaperPlugin plugin, UnaryOperator<ChargeState> update) {
+        final var maxCharges = plugin.getTravelerMaxCharges();
+        final var regenChargeTime = plugin.getTravelerRegenChargeTime() * 50L;
+
+        final var updated = chargeState.updateAndGet(state -> update.apply(regenCharges(state, maxCharges,
+            regenChargeTime, System.currentTimeMillis())));
+        dirty.set(true);
+        return updated;
     }
 
-    public void stopRegenCharge() {
-        if (regenChargeTask != null) {
-            regenChargeTask.cancel();
-            regenChargeTask = null;
+    static ChargeState regenCharges(ChargeState state, int maxCharges, long regenChargeTime, long now) {
+        // Paused travelers don't regenerate past the moment they were paused
+        if (state.pauseTime() != 0) {
+            now = state.pauseTime();
         }
+
+        if (state.charges() >= maxCharges) {
+            return new ChargeState(state.charges(), now, state.pauseTime());
+        }
+
+        if (regenChargeTime <= 0) {
+            return new ChargeState(maxCharges, now, state.pauseTime());
+        }
+
+        final var regenerated = (now - state.regenTime()) / regenChargeTime;
+
+        if (regenerated <= 0) {
+            return state;
+        }
+
+        if (state.charges() + regenerated >= maxCharges) {
+            return new ChargeState(maxCharges, now, state.pauseTime());
+        }
+
+        return new ChargeState(state.charges() + (int) regenerated, state.regenTime() + regenerated * regenChargeTime,
+            state.pauseTime());
     }
 }
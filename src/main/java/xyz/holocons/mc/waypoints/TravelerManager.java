@@ -1,131 +1,462 @@
 package xyz.holocons.mc.waypoints;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import com.google.gson.Gson;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+// Travelers are looked up from every region thread without locking. Creating one takes the index lock, and the
+// registrants of a waypoint are only touched inside the map's compute for it, so each waypoint's set is updated
+// atomically and independently of the others.
 public class TravelerManager {
 
     public static final String FILENAME = "traveler.json";
+    public static final String BINARY_FILENAME = "traveler.dat";
+    // Fewer travelers than this aren't worth a task of their own
+    private static final int MIN_CHUNK_SIZE = 1024;
+    private static final byte[] OPEN_OBJECT = { '{' };
+    private static final byte[] CLOSE_OBJECT = { '}' };
 
-    private final HashMap<UUID, Traveler> travelers;
-    private final HashMap<UUID, BukkitRunnable> tasks;
+    private final ConcurrentHashMap<UUID, Traveler> travelers;
+    // Travelers numbered in the order they were added, never reused until the travelers are cleared. Both are guarded
+    // by travelersByIndex.
+    private final Object2IntOpenHashMap<UUID> travelerIndices;
+    private final ArrayList<Traveler> travelersByIndex;
+    // Waypoint id -> indices of the travelers who registered it, the reverse of each traveler's BitSet
+    private final ConcurrentHashMap<Integer, BitSet> registrants;
+    private final AtomicInteger registrationCount;
 
     public TravelerManager() {
-        this.travelers = new HashMap<>();
-        this.tasks = new HashMap<>();
+        this.travelers = new ConcurrentHashMap<>();
+        this.travelerIndices = new Object2IntOpenHashMap<>();
+        this.travelersByIndex = new ArrayList<>();
+        this.registrants = new ConcurrentHashMap<>();
+        this.registrationCount = new AtomicInteger();
     }
 
-    public void loadTravelers(PaperPlugin plugin) throws IOException {
-        final var file = new File(plugin.getDataFolder(), FILENAME);
+    // Reads the traveler data without touching the indexes or any world, so it can run on a loader thread. JSON is
+    // parsed in chunks on the pool. Null when there's no data yet.
+    static Map<UUID, Traveler> readTravelers(PaperPlugin plugin, ForkJoinPool pool) throws IOException {
+        final var storage = plugin.getStorage();
+        final var loadedTravelers = storage.readTravelers(pool);
+
+        // JSON data is imported when there's no data in the configured storage yet
+        if (loadedTravelers == null && !(storage instanceof JsonStorage)) {
+            return new JsonStorage(plugin).readTravelers(pool);
+        }
 
-        if (!file.exists()) {
+        return loadedTravelers;
+    }
+
+    // Main thread only, replaces the indexes with travelers read by readTravelers
+    public void publishTravelers(PaperPlugin plugin, Map<UUID, Traveler> loadedTravelers) throws IOException {
+        if (loadedTravelers == null) {
             return;
         }
 
-        // Clear internal if internal data isn't empty
-        if (!travelers.isEmpty()) {
-            clearTravelers();
+        for (final var traveler : loadedTravelers.values()) {
+            traveler.bindWorlds();
+        }
+
+        synchronized (travelersByIndex) {
+            // Clear internal if internal data isn't empty
+            if (!travelers.isEmpty()) {
+                clearTravelers();
+            }
+
+            for (final var traveler : loadedTravelers.entrySet()) {
+                putTraveler(traveler.getKey(), traveler.getValue());
+            }
+        }
+
+        // Resume charge regeneration for online players
+        for (var player : Bukkit.getOnlinePlayers()) {
+            getOrCreateTraveler(player).startRegenCharge(plugin);
+        }
+    }
+
+    // Splits the travelers of a v2 file into ranges of members and parses them in parallel. The header is parsed
+    // first and shared, since every range needs the world dictionary. v1 files are read sequentially.
+    static Map<UUID, Traveler> readTravelersJson(Gson gson, File file, ForkJoinPool pool) throws IOException {
+        final var splitter = new JsonSplitter(Files.readAllBytes(file.toPath()));
+        final var members = splitter.members(0);
+        final var memberCount = members.length / 4;
+
+        var versionMember = -1;
+        var travelersMember = -1;
+
+        for (int member = 0; member < memberCount; member++) {
+            switch (splitter.memberName(members, member)) {
+                case "version"   -> versionMember = member;
+                case "travelers" -> travelersMember = member;
+                default -> {
+                }
+            }
+        }
+
+        // Schema v1 has the travelers at the top level and no version
+        if (versionMember == -1) {
+            return readTravelersJson(gson, file);
         }
 
-        // Load player data
-        final var reader = new GsonReader(plugin.getGson(), file);
+        GsonReader header = null;
+
+        for (int member = 0; member < memberCount; member++) {
+            if (member == travelersMember) {
+                continue;
+            }
+
+            // Each header member is read on its own, passing on what the previous ones read
+            final var reader = openMembers(splitter.getBytes(), members, member, member + 1);
+            if (header != null) {
+                reader.useHeader(header);
+            }
+            reader.beginObject();
+            switch (reader.nextName()) {
+                case "version" -> reader.nextVersion();
+                case "worlds"  -> reader.nextWorlds();
+                default -> reader.skipValue();
+            }
+            reader.endObject();
+            reader.close();
+            header = reader;
+        }
+
+        final var loadedTravelers = new HashMap<UUID, Traveler>();
+
+        if (travelersMember == -1) {
+            return loadedTravelers;
+        }
+
+        final var travelerMembers = splitter.members(splitter.memberValue(members, travelersMember));
+        final var travelerCount = travelerMembers.length / 4;
+        final var chunkSize = Math.max(MIN_CHUNK_SIZE, travelerCount / (pool.getParallelism() * 4) + 1);
+        final var chunks = new ArrayList<ForkJoinTask<HashMap<UUID, Traveler>>>();
+        final var shared = header;
+
+        for (int from = 0; from < travelerCount; from += chunkSize) {
+            final var reader = openMembers(splitter.getBytes(), travelerMembers, from,
+                Math.min(from + chunkSize, travelerCount));
+            reader.useHeader(shared);
+
+            chunks.add(pool.submit(() -> {
+                final var chunk = new HashMap<UUID, Traveler>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    readTraveler(reader, reader.nextName(), chunk);
+                }
+                reader.endObject();
+                reader.close();
+                return chunk;
+            }));
+        }
+
+        for (final var chunk : chunks) {
+            try {
+                loadedTravelers.putAll(chunk.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        return loadedTravelers;
+    }
+
+    // Reader over members [from, to) wrapped in braces, the members are contiguous so their commas come along
+    private static GsonReader openMembers(byte[] bytes, int[] members, int from, int to) {
+        final var start = members[from * 4];
+        final var end = members[(to - 1) * 4 + 3];
+        final var stream = new SequenceInputStream(Collections.enumeration(List.of(
+            new ByteArrayInputStream(OPEN_OBJECT),
+            new ByteArrayInputStream(bytes, start, end - start),
+            new ByteArrayInputStream(CLOSE_OBJECT))));
+
+        return new GsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    static Map<UUID, Traveler> readTravelersJson(Gson gson, File file) throws IOException {
+        final var loadedTravelers = new HashMap<UUID, Traveler>();
+
+        // Load player data, schema v1 has the travelers at the top level instead of under "travelers"
+        final var reader = new GsonReader(gson, file);
         reader.beginObject();
         while (reader.hasNext()) {
-            UUID uniqueId;
-            try {
-                uniqueId = UUID.fromString(reader.nextName());
-            } catch (IllegalArgumentException e) {
-                throw new IOException(e);
+            final var name = reader.nextName();
+
+            if (name.equals("version")) {
+                reader.nextVersion();
+            } else if (reader.getVersion() == 1) {
+                readTraveler(reader, name, loadedTravelers);
+            } else {
+                switch (name) {
+                    case "worlds" -> reader.nextWorlds();
+                    case "travelers" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            readTraveler(reader, reader.nextName(), loadedTravelers);
+                        }
+                        reader.endObject();
+                    }
+                    default -> reader.skipValue();
+                }
             }
-            var traveler = reader.nextTraveler();
-            travelers.put(uniqueId, traveler);
         }
         reader.endObject();
         reader.close();
 
-        // Start regen timer for online players
-        for (var player : Bukkit.getOnlinePlayers()) {
-            getOrCreateTraveler(player).startRegenCharge(plugin);
+        return loadedTravelers;
+    }
+
+    private static void readTraveler(GsonReader reader, String name, Map<UUID, Traveler> travelers) throws IOException {
+        UUID uniqueId;
+        try {
+            uniqueId = UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
         }
+        var traveler = reader.nextTraveler();
+        travelers.put(uniqueId, traveler);
     }
 
     public void saveTravelers(PaperPlugin plugin) throws IOException {
+        saveTravelers(plugin, snapshotTravelers());
+    }
+
+    // Safe to call off the main thread with a snapshot
+    public static void saveTravelers(PaperPlugin plugin, Map<UUID, Traveler> travelers) throws IOException {
         if (travelers.isEmpty()) {
             return;
         }
 
-        final var file = new File(plugin.getDataFolder(), FILENAME);
+        plugin.getStorage().saveTravelers(travelers);
+    }
+
+    // JSON is always available for exporting, whatever the storage format. Exports get their own name, so they never
+    // replace or race the data files of the JSON storage.
+    public static File exportTravelersJson(PaperPlugin plugin, String prefix, Map<UUID, Traveler> travelers)
+            throws IOException {
+        final var file = new File(plugin.getDataFolder(), prefix + FILENAME);
+        writeTravelersJson(plugin.getGson(), file, travelers);
+        return file;
+    }
 
-        final var writer = new GsonWriter(plugin.getGson(), file);
+    static void writeTravelersJson(Gson gson, File file, Map<UUID, Traveler> travelers) throws IOException {
+        final var locations = new ArrayList<StoredLocation>();
+        for (final var traveler : travelers.values()) {
+            locations.add(traveler.getStoredHome());
+            locations.add(traveler.getStoredCamp());
+        }
+
+        final var writer = new GsonWriter(gson, file);
+        writer.beginObject();
+        writer.header(locations);
+        writer.name("travelers");
         writer.beginObject();
         for (final var traveler : travelers.entrySet()) {
             writer.name(traveler.getKey().toString());
             writer.value(traveler.getValue());
         }
         writer.endObject();
+        writer.endObject();
         writer.close();
     }
 
+    // Copies the travelers for saving, so they can be serialized while the originals keep changing. Takes their dirty
+    // flags like WaypointManager.snapshotWaypoints. Not cheap, every traveler and its BitSet is copied on the calling
+    // thread.
+    public Map<UUID, Traveler> snapshotTravelers() {
+        return copyTravelers(Traveler::snapshot);
+    }
+
+    // Copies the travelers without touching their dirty flags, for anything that isn't a save
+    public Map<UUID, Traveler> copyTravelers() {
+        return copyTravelers(Traveler::copy);
+    }
+
+    private Map<UUID, Traveler> copyTravelers(UnaryOperator<Traveler> copy) {
+        final var snapshot = new HashMap<UUID, Traveler>(travelers.size());
+
+        for (final var traveler : travelers.entrySet()) {
+            snapshot.put(traveler.getKey(), copy.apply(traveler.getValue()));
+        }
+
+        return snapshot;
+    }
+
+    public int getTravelerCount() {
+        return travelers.size();
+    }
+
+    public int getRegistrationCount() {
+        return registrationCount.get();
+    }
+
+    // Number of travelers who registered the waypoint, without visiting any of them
+    public int getRegistrationCount(Waypoint waypoint) {
+        final var count = new int[1];
+
+        // Read inside compute, a registration may be changing the set on another thread
+        registrants.computeIfPresent(waypoint.getId(), (id, indices) -> {
+            count[0] = indices.cardinality();
+            return indices;
+        });
+
+        return count[0];
+    }
+
     public void clearTravelers() {
-        // Stop regen timers and tasks, then clear
-        travelers.values().forEach(Traveler::stopRegenCharge);
-        travelers.clear();
-        tasks.values().forEach(BukkitRunnable::cancel);
-        tasks.clear();
+        synchronized (travelersByIndex) {
+            travelers.clear();
+            travelerIndices.clear();
+            travelersByIndex.clear();
+            registrants.clear();
+            registrationCount.set(0);
+        }
     }
 
     public Traveler getOrCreateTraveler(UUID uniqueId) {
-        var traveler = travelers.get(uniqueId);
+        final var traveler = travelers.get(uniqueId);
 
-        if (traveler == null) {
-            traveler = new Traveler(1, 1, null, null, null);
-            travelers.put(uniqueId, traveler);
+        if (traveler != null) {
+            return traveler;
         }
 
-        return traveler;
+        synchronized (travelersByIndex) {
+            // Another thread may have created it in the meantime
+            final var existing = travelers.get(uniqueId);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            final var created = new Traveler(1, 1, null, null, null, 0, 0);
+            putTraveler(uniqueId, created);
+            return created;
+        }
     }
 
     public Traveler getOrCreateTraveler(Player player) {
         return getOrCreateTraveler(player.getUniqueId());
     }
 
-    public <T extends BukkitRunnable> T getTask(Player player, Class<T> taskCls) {
-        final var task = tasks.get(player.getUniqueId());
+    // With travelersByIndex held, for a traveler that isn't shared yet
+    private void putTraveler(UUID uniqueId, Traveler traveler) {
+        final var index = travelersByIndex.size();
 
-        if (task == null || task.isCancelled()) {
-            return null;
+        travelerIndices.put(uniqueId, index);
+        travelersByIndex.add(traveler);
+
+        final var waypoints = traveler.getWaypoints();
+
+        for (int id = waypoints.nextSetBit(0); id >= 0; id = waypoints.nextSetBit(id + 1)) {
+            addRegistrant(id, index);
         }
 
-        try {
-            return taskCls.cast(task);
-        } catch (ClassCastException e) {
-            return null;
+        // Last, so a traveler that can be looked up is already indexed
+        travelers.put(uniqueId, traveler);
+    }
+
+    private void addRegistrant(int waypointId, int index) {
+        registrants.compute(waypointId, (id, indices) -> {
+            final var updated = indices != null ? indices : new BitSet();
+            updated.set(index);
+            return updated;
+        });
+        registrationCount.incrementAndGet();
+    }
+
+    private int getTravelerIndex(UUID uniqueId) {
+        synchronized (travelersByIndex) {
+            return travelerIndices.getInt(uniqueId);
         }
     }
 
-    public void registerTask(Player player, BukkitRunnable task) {
-        final var previousTask = tasks.put(player.getUniqueId(), task);
+    private Traveler getTraveler(int index) {
+        synchronized (travelersByIndex) {
+            return travelersByIndex.get(index);
+        }
+    }
 
-        if (previousTask != null) {
-            previousTask.cancel();
+    // Registrations go through here so the reverse index stays in step with the travelers
+    public void registerWaypoint(Player player, Waypoint waypoint) {
+        registerWaypoint(player.getUniqueId(), waypoint);
+    }
+
+    public void registerWaypoint(UUID uniqueId, Waypoint waypoint) {
+        final var traveler = getOrCreateTraveler(uniqueId);
+
+        // Only the thread that set the bit indexes the registration
+        if (traveler.registerWaypoint(waypoint)) {
+            addRegistrant(waypoint.getId(), getTravelerIndex(uniqueId));
         }
     }
 
-    public void unregisterTask(Player player) {
-        final var task = tasks.remove(player.getUniqueId());
+    // Unregisters the waypoint from everyone who registered it, returning how many that was
+    public int removeWaypoint(Waypoint waypoint) {
+        final var indices = registrants.remove(waypoint.getId());
+
+        if (indices == null) {
+            return 0;
+        }
 
-        if (task != null) {
-            task.cancel();
+        // Removed from the map, so no other thread changes the set anymore
+        for (int index = indices.nextSetBit(0); index >= 0; index = indices.nextSetBit(index + 1)) {
+            getTraveler(index).unregisterWaypoint(waypoint);
         }
+
+        final var count = indices.cardinality();
+        registrationCount.addAndGet(-count);
+        return count;
     }
 
-    public void removeWaypoint(Waypoint waypoint) {
-        travelers.values().forEach(traveler -> traveler.unregisterWaypoint(waypoint));
+    public void retainWaypoints(WaypointManager waypointManager) {
+        // Drop registrations of waypoints that no longer exist so their ids are safe to reuse
+        for (final var id : registrants.keySet()) {
+            if (waypointManager.getWaypoint(id) != null) {
+                continue;
+            }
+
+            final var indices = registrants.remove(id);
+
+            if (indices == null) {
+                continue;
+            }
+
+            for (int index = indices.nextSetBit(0); index >= 0; index = indices.nextSetBit(index + 1)) {
+                getTraveler(index).unregisterWaypoint(id);
+            }
+
+            registrationCount.addAndGet(-indices.cardinality());
+        }
     }
 }
@@ -0,0 +1,213 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+// Decides which holograms a player should see. A hologram is shown once its chunk is loaded by the client and the
+// player comes within the show distance, and hidden again when the chunk unloads or the player moves beyond the hide
+// distance. The gap between both distances keeps holograms from flickering at the edge.
+//
+// A player's visibility is evaluated on the thread that owns the player, changes made from elsewhere are handed to it.
+// Each viewer is still locked while it's used, since removing a waypoint clears it from every viewer at once.
+public class VisibilityManager {
+
+    private static final class Viewer {
+
+        // Ids of the waypoints whose chunk the client has loaded
+        private final IntOpenHashSet loaded;
+        // Waypoints whose hologram should be shown
+        private final Int2ObjectOpenHashMap<Waypoint> visible;
+        // Chunk the visibility was last evaluated in
+        private UUID worldId;
+        private long chunkKey;
+
+        private Viewer() {
+            this.loaded = new IntOpenHashSet();
+            this.visible = new Int2ObjectOpenHashMap<>();
+        }
+    }
+
+    private final PaperPlugin plugin;
+    private final HologramManager hologramManager;
+    private final WaypointManager waypointManager;
+    private final TaskScheduler scheduler;
+    private final ConcurrentHashMap<UUID, Viewer> viewers;
+
+    public VisibilityManager(final PaperPlugin plugin) {
+        this.plugin = plugin;
+        this.hologramManager = plugin.getHologramManager();
+        this.waypointManager = plugin.getWaypointManager();
+        this.scheduler = plugin.getTaskScheduler();
+        this.viewers = new ConcurrentHashMap<>();
+    }
+
+    public void loadWaypoint(Waypoint waypoint, Player player) {
+        final var viewer = getViewer(player);
+        final var location = player.getLocation();
+
+        synchronized (viewer) {
+            viewer.loaded.add(waypoint.getId());
+
+            if (isWithin(waypoint, location, plugin.getHologramShowDistance())) {
+                show(viewer, waypoint, player, location);
+            }
+        }
+    }
+
+    // Players who were online before the waypoints were published missed the chunk loads, the chunks within their
+    // view distance are taken as loaded
+    public void loadNearby(Player player) {
+        final var location = player.getLocation();
+
+        waypointManager.forEachWaypointNear(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4,
+            player.getViewDistance(), waypoint -> loadWaypoint(waypoint, player));
+    }
+
+    public void loadWaypoint(Waypoint waypoint, Collection<? extends Player> players) {
+        players.forEach(player -> scheduler.run(player, () -> loadWaypoint(waypoint, player)));
+    }
+
+    // A newly created waypoint is in a chunk the player and everyone tracking them already has loaded
+    public void loadWaypointTrackedPlayers(Waypoint waypoint, Player player) {
+        final var players = player.getTrackedPlayers();
+
+        players.add(player);
+        loadWaypoint(waypoint, players);
+    }
+
+    // A waypoint created on another server, the players within view distance of it already have its chunk loaded
+    public void loadWaypointNearbyPlayers(Waypoint waypoint) {
+        final var world = plugin.getServer().getWorld(waypoint.getWorldId());
+
+        if (world == null) {
+            return;
+        }
+
+        for (final var player : world.getPlayers()) {
+            scheduler.run(player, () -> {
+                final var location = player.getLocation();
+                final var viewDistance = player.getViewDistance();
+
+                if (Math.abs((location.getBlockX() >> 4) - waypoint.getChunkX()) <= viewDistance
+                    && Math.abs((location.getBlockZ() >> 4) - waypoint.getChunkZ()) <= viewDistance) {
+                    loadWaypoint(waypoint, player);
+                }
+            });
+        }
+    }
+
+    public void unloadWaypoint(Waypoint waypoint, Player player) {
+        final var viewer = viewers.get(player.getUniqueId());
+
+        if (viewer == null) {
+            return;
+        }
+
+        synchronized (viewer) {
+            viewer.loaded.remove(waypoint.getId());
+            hide(viewer, waypoint, player);
+        }
+    }
+
+    // Only re-evaluates when the player entered another chunk since the last time
+    public void move(Player player, Location location) {
+        final var viewer = getViewer(player);
+        final var world = location.getWorld();
+        final var chunkX = location.getBlockX() >> 4;
+        final var chunkZ = location.getBlockZ() >> 4;
+        final var chunkKey = Chunk.getChunkKey(chunkX, chunkZ);
+
+        synchronized (viewer) {
+            if (world.getUID().equals(viewer.worldId) && chunkKey == viewer.chunkKey) {
+                return;
+            }
+
+            viewer.worldId = world.getUID();
+            viewer.chunkKey = chunkKey;
+
+            final var showDistance = plugin.getHologramShowDistance();
+            final var hideDistance = showDistance > 0 ? Math.max(plugin.getHologramHideDistance(), showDistance) : 0;
+            final var iterator = viewer.visible.values().iterator();
+
+            while (iterator.hasNext()) {
+                final var waypoint = iterator.next();
+
+                if (!isWithin(waypoint, location, hideDistance)) {
+                    iterator.remove();
+                    hologramManager.hide(waypoint, player);
+                }
+            }
+
+            if (showDistance <= 0 || viewer.loaded.isEmpty()) {
+                return;
+            }
+
+            // Only the grid cells around the player are visited, however many waypoints the client has loaded
+            waypointManager.forEachWaypointNear(world, chunkX, chunkZ, (showDistance >> 4) + 1, waypoint -> {
+                if (viewer.loaded.contains(waypoint.getId()) && isWithin(waypoint, location, showDistance)) {
+                    show(viewer, waypoint, player, location);
+                }
+            });
+        }
+    }
+
+    public void remove(Waypoint waypoint) {
+        final var waypointId = waypoint.getId();
+
+        for (final var viewer : viewers.values()) {
+            synchronized (viewer) {
+                viewer.loaded.remove(waypointId);
+                viewer.visible.remove(waypointId, waypoint);
+            }
+        }
+
+        hologramManager.remove(waypoint);
+    }
+
+    public void remove(Player player) {
+        viewers.remove(player.getUniqueId());
+        hologramManager.remove(player);
+    }
+
+    private Viewer getViewer(Player player) {
+        return viewers.computeIfAbsent(player.getUniqueId(), uniqueId -> new Viewer());
+    }
+
+    // With the viewer locked
+    private void show(Viewer viewer, Waypoint waypoint, Player player, Location location) {
+        if (viewer.visible.put(waypoint.getId(), waypoint) != waypoint) {
+            hologramManager.show(waypoint, player, location);
+        }
+    }
+
+    private void hide(Viewer viewer, Waypoint waypoint, Player player) {
+        if (viewer.visible.remove(waypoint.getId(), waypoint)) {
+            hologramManager.hide(waypoint, player);
+        }
+    }
+
+    // Horizontal distance in blocks, a distance of 0 or less means there's no limit
+    private static boolean isWithin(Waypoint waypoint, Location location, int distance) {
+        if (distance <= 0) {
+            return true;
+        }
+
+        if (!waypoint.getWorldId().equals(location.getWorld().getUID())) {
+            return false;
+        }
+
+        final var waypointLocation = waypoint.getStoredLocation();
+        final var distanceX = waypointLocation.getBlockX() + 0.5 - location.getX();
+        final var distanceZ = waypointLocation.getBlockZ() + 0.5 - location.getZ();
+
+        return distanceX * distanceX + distanceZ * distanceZ <= (double) distance * distance;
+    }
+}
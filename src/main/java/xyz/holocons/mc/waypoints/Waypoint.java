@@ -1,15 +1,17 @@
 package xyz.holocons.mc.waypoints;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.DyeColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Tag;
+import org.bukkit.block.Block;
 import org.bukkit.block.banner.Pattern;
 import org.bukkit.block.banner.PatternType;
 import org.bukkit.inventory.ItemFlag;
@@ -22,74 +24,288 @@ import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 
 public class Waypoint {
 
+    // Snapshot of the banner block, so name and display lookups never have to touch the world
+    public record Banner(Material type, Component name, List<Pattern> patterns) {
+
+        public Banner {
+            patterns = patterns == null ? List.of() : List.copyOf(patterns);
+        }
+
+        public static Banner of(ItemStack itemStack) {
+            final var bannerMeta = (BannerMeta) itemStack.getItemMeta();
+            final var name = bannerMeta.hasDisplayName() ? bannerMeta.displayName() : null;
+
+            return new Banner(itemStack.getType(), name, bannerMeta.getPatterns());
+        }
+
+        public ItemStack toItemStack() {
+            final var itemStack = new ItemStack(type);
+            final var bannerMeta = (BannerMeta) itemStack.getItemMeta();
+
+            bannerMeta.setPatterns(patterns);
+            bannerMeta.displayName(name != null ? name : UNNAMED_WAYPOINT_COMPONENT);
+            itemStack.setItemMeta(bannerMeta);
+
+            return itemStack;
+        }
+    }
+
     private static final Component INACTIVE_WAYPOINT_COMPONENT;
     private static final Component UNNAMED_WAYPOINT_COMPONENT;
-    private static final ItemStack MISSING_BANNER_ITEMSTACK;
+    private static final String UNNAMED_WAYPOINT_NAME;
+    private static final Banner MISSING_BANNER;
 
     static {
         INACTIVE_WAYPOINT_COMPONENT = Component.text("Inactive Waypoint");
         UNNAMED_WAYPOINT_COMPONENT = Component.text("Unnamed Waypoint");
-
-        MISSING_BANNER_ITEMSTACK = new ItemStack(Material.WHITE_BANNER);
-
-        var bannerMeta = (BannerMeta) MISSING_BANNER_ITEMSTACK.getItemMeta();
-        bannerMeta.addPattern(new Pattern(DyeColor.BLACK, PatternType.STRIPE_TOP));
-        bannerMeta.addPattern(new Pattern(DyeColor.WHITE, PatternType.RHOMBUS_MIDDLE));
-        bannerMeta.addPattern(new Pattern(DyeColor.BLACK, PatternType.STRIPE_DOWNLEFT));
-        bannerMeta.addPattern(new Pattern(DyeColor.WHITE, PatternType.HALF_HORIZONTAL_MIRROR));
-        bannerMeta.addPattern(new Pattern(DyeColor.BLACK, PatternType.TRIANGLE_BOTTOM));
-        bannerMeta.addPattern(new Pattern(DyeColor.WHITE, PatternType.STRIPE_MIDDLE));
-        bannerMeta.addPattern(new Pattern(DyeColor.WHITE, PatternType.STRIPE_BOTTOM));
-        bannerMeta.addPattern(new Pattern(DyeColor.WHITE, PatternType.BORDER));
-
-        bannerMeta.addItemFlags(ItemFlag.HIDE_ENCHANTS, ItemFlag.HIDE_POTION_EFFECTS);
-        bannerMeta.displayName(UNNAMED_WAYPOINT_COMPONENT);
-
-        MISSING_BANNER_ITEMSTACK.setItemMeta(bannerMeta);
+        UNNAMED_WAYPOINT_NAME = PlainTextComponentSerializer.plainText().serialize(UNNAMED_WAYPOINT_COMPONENT);
+
+        MISSING_BANNER = new Banner(Material.WHITE_BANNER, null, List.of(
+            new Pattern(DyeColor.BLACK, PatternType.STRIPE_TOP),
+            new Pattern(DyeColor.WHITE, PatternType.RHOMBUS_MIDDLE),
+            new Pattern(DyeColor.BLACK, PatternType.STRIPE_DOWNLEFT),
+            new Pattern(DyeColor.WHITE, PatternType.HALF_HORIZONTAL_MIRROR),
+            new Pattern(DyeColor.BLACK, PatternType.TRIANGLE_BOTTOM),
+            new Pattern(DyeColor.WHITE, PatternType.STRIPE_MIDDLE),
+            new Pattern(DyeColor.WHITE, PatternType.STRIPE_BOTTOM),
+            new Pattern(DyeColor.WHITE, PatternType.BORDER)
+        ));
     }
 
     private int id;
-    private Location location;
-    private ArrayList<UUID> contributors;
-    private boolean active;
+    private StoredLocation location;
+    // Copied on write, so a list that's been handed out never changes and can be read from any thread
+    private volatile ArrayList<UUID> contributors;
+    private volatile boolean active;
+    private volatile Banner banner;
+    private volatile String name;
+    private volatile ItemStack displayItem;
+    // Bumped whenever the display name changes, so cached holograms know to rebuild
+    private volatile int displayRevision;
+    // Rendered contributor list, rebuilt when the contributors change or the name cache learned a name
+    private volatile Component contributorsComponent;
+    private volatile int contributorsNameRevision;
+    // Null until bound for waypoints read from schema v1, see StoredLocation
+    private UUID worldId;
+    private final long chunkKey;
+    private final long blockKey;
+    // Set by every change that's saved, taken by the save snapshot so row storage only writes changed waypoints
+    private final AtomicBoolean dirty;
+
+    public Waypoint(int id, Location location, ArrayList<UUID> contributors, boolean active, Banner banner) {
+        this(id, StoredLocation.of(location), contributors, active, banner);
+    }
 
-    public Waypoint(int id, Location location, ArrayList<UUID> contributors, boolean active) {
+    public Waypoint(int id, StoredLocation location, ArrayList<UUID> contributors, boolean active, Banner banner) {
         this.id = id;
         this.location = location;
         this.contributors = contributors == null ? new ArrayList<>() : contributors;
         this.active = active;
+        this.dirty = new AtomicBoolean(true);
+        setBanner(banner);
+
+        // Keys used by the waypoint index, computed once so lookups don't touch the location
+        this.worldId = location.getWorldId();
+        this.chunkKey = Chunk.getChunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        this.blockKey = Block.getBlockKey(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    private Waypoint(Waypoint waypoint) {
+        synchronized (waypoint) {
+            this.id = waypoint.id;
+            this.location = waypoint.location;
+            this.contributors = new ArrayList<>(waypoint.contributors);
+            this.active = waypoint.active;
+            this.banner = waypoint.banner;
+            this.name = waypoint.name;
+            this.displayItem = null;
+            this.displayRevision = waypoint.displayRevision;
+            this.contributorsComponent = null;
+            this.worldId = waypoint.worldId;
+            this.chunkKey = waypoint.chunkKey;
+            this.blockKey = waypoint.blockKey;
+            this.dirty = new AtomicBoolean(waypoint.dirty.get());
+        }
+    }
+
+    public Waypoint copy() {
+        return new Waypoint(this);
+    }
+
+    // A copy for saving, which takes the dirty flag so every change is saved once
+    public Waypoint snapshot() {
+        final var changed = clearDirty();
+        final var snapshot = copy();
+        snapshot.dirty.set(changed);
+        return snapshot;
+    }
+
+    public boolean isDirty() {
+        return dirty.get();
+    }
+
+    // Returns whether the waypoint changed since the flag was last cleared
+    public boolean clearDirty() {
+        return dirty.getAndSet(false);
     }
 
     public int getId() {
         return id;
     }
 
+    // Null while the waypoint's world isn't loaded
     public Location getLocation() {
-        return location.clone();
+        return location.toLocation();
+    }
+
+    public StoredLocation getStoredLocation() {
+        return location;
+    }
+
+    // Main thread only, gives a waypoint read from schema v1 the UUID of its world
+    public void bindWorld() throws IOException {
+        location = location.bind();
+        worldId = location.getWorldId();
+        dirty.set(true);
     }
 
     public ArrayList<UUID> getContributors() {
         return contributors;
     }
 
+    public boolean hasContributor(UUID uniqueId) {
+        return contributors.contains(uniqueId);
+    }
+
+    public synchronized void addContributor(UUID uniqueId) {
+        final var updated = new ArrayList<>(contributors);
+        updated.add(uniqueId);
+        contributors = updated;
+        contributorsComponent = null;
+        dirty.set(true);
+    }
+
+    public synchronized boolean removeContributor(UUID uniqueId) {
+        final var updated = new ArrayList<>(contributors);
+
+        if (!updated.remove(uniqueId)) {
+            return false;
+        }
+
+        contributors = updated;
+        contributorsComponent = null;
+        dirty.set(true);
+        return true;
+    }
+
     public boolean isActive() {
         return active;
     }
 
-    public void activate() {
+    public synchronized void activate() {
         active = true;
+        displayRevision++;
+        dirty.set(true);
     }
 
-    public void deactivate() {
+    public synchronized void deactivate() {
         active = false;
+        displayRevision++;
+        dirty.set(true);
+    }
+
+    public int getDisplayRevision() {
+        return displayRevision;
+    }
+
+    public UUID getWorldId() {
+        return worldId;
     }
 
     public long getChunkKey() {
-        return Chunk.getChunkKey(location);
+        return chunkKey;
+    }
+
+    // Unpacked from the chunk key, see Chunk.getChunkKey
+    public int getChunkX() {
+        return (int) chunkKey;
+    }
+
+    public int getChunkZ() {
+        return (int) (chunkKey >> 32);
+    }
+
+    public long getBlockKey() {
+        return blockKey;
+    }
+
+    // Never does I/O, names that aren't cached yet are looked up in the background and filled in on a later call
+    public Component getContributorsComponent(NameManager nameManager) {
+        if (contributorsComponent != null && contributorsNameRevision == nameManager.getRevision()) {
+            return contributorsComponent;
+        }
+
+        final var contributors = this.contributors;
+        final var builder = Component.text()
+            .color(NamedTextColor.GOLD);
+
+        if (contributors.isEmpty()) {
+            builder.append(Component.text("Nobody has contributed to this waypoint!"));
+        } else {
+            nameManager.resolveNames(contributors);
+
+            final var names = new ArrayList<String>(contributors.size());
+
+            for (final var uniqueId : contributors) {
+                final var name = nameManager.getName(uniqueId);
+                names.add(name != null ? name : uniqueId.toString().substring(0, 8));
+            }
+
+            builder.append(Component.text("Contributors: " + String.join(", ", names)));
+        }
+
+        contributorsComponent = builder.build();
+        contributorsNameRevision = nameManager.getRevision();
+
+        return contributorsComponent;
     }
 
-    public List<String> getContributorNames() {
-        return contributors.stream().map(uniqueId -> Bukkit.getPlayer(uniqueId).getName()).toList();
+    public Banner getBanner() {
+        return banner;
+    }
+
+    private synchronized void setBanner(Banner banner) {
+        this.banner = banner;
+        this.name = banner != null && banner.name() != null
+            ? PlainTextComponentSerializer.plainText().serialize(banner.name())
+            : UNNAMED_WAYPOINT_NAME;
+        this.displayItem = null;
+        this.displayRevision++;
+        this.dirty.set(true);
+    }
+
+    public boolean hasBannerSnapshot() {
+        return banner != null;
+    }
+
+    // Reads the banner from the world, so this should only be called while the chunk is loaded and the banner may
+    // have changed. Returns whether the snapshot changed.
+    public boolean refreshBanner() {
+        final var blockLocation = getLocation();
+
+        if (blockLocation == null) {
+            return false;
+        }
+
+        final var bannerItem = getBannerItem(blockLocation);
+        final var newBanner = bannerItem != null ? Banner.of(bannerItem) : MISSING_BANNER;
+
+        if (newBanner.equals(banner)) {
+            return false;
+        }
+
+        setBanner(newBanner);
+        return true;
     }
 
     private static ItemStack getBannerItem(Location location) {
@@ -100,11 +316,11 @@ public class Waypoint {
             }
         }
 
-        return MISSING_BANNER_ITEMSTACK.clone();
+        return null;
     }
 
-    private static ItemStack getDisplayItem(Location location) {
-        var itemStack = getBannerItem(location);
+    private ItemStack buildDisplayItem() {
+        var itemStack = (banner != null ? banner : MISSING_BANNER).toItemStack();
         var itemMeta = itemStack.getItemMeta();
 
         itemMeta.addItemFlags(ItemFlag.HIDE_ENCHANTS, ItemFlag.HIDE_POTION_EFFECTS);
@@ -119,7 +335,7 @@ public class Waypoint {
             .append(Component.text(location.getBlockZ()))
             .build();
 
-        var worldComponent = Component.text(location.getWorld().getName(), NamedTextColor.GRAY);
+        var worldComponent = Component.text(location.getWorldName(), NamedTextColor.GRAY);
 
         itemMeta.lore(List.of(vectorComponent, worldComponent));
         itemStack.setItemMeta(itemMeta);
@@ -128,7 +344,11 @@ public class Waypoint {
     }
 
     public ItemStack getDisplayItem() {
-        var itemStack = Waypoint.getDisplayItem(location);
+        if (displayItem == null) {
+            displayItem = buildDisplayItem();
+        }
+
+        var itemStack = displayItem.clone();
 
         if (!active) {
             var itemMeta = itemStack.getItemMeta();
@@ -139,34 +359,23 @@ public class Waypoint {
         return itemStack;
     }
 
-    private static Component getDisplayName(Location location) {
-        var itemStack = getBannerItem(location);
-        var itemMeta = itemStack.getItemMeta();
-
-        if (itemMeta.hasDisplayName()) {
-            return itemMeta.displayName();
-        }
-
-        return UNNAMED_WAYPOINT_COMPONENT;
-    }
-
     public Component getDisplayName() {
         if (!active) {
             return INACTIVE_WAYPOINT_COMPONENT;
         }
 
-        return Waypoint.getDisplayName(location);
+        return banner != null && banner.name() != null ? banner.name() : UNNAMED_WAYPOINT_COMPONENT;
     }
 
     public String getName() {
-        return PlainTextComponentSerializer.plainText().serialize(Waypoint.getDisplayName(location));
+        return name;
     }
 
     public boolean hasName() {
-        return getName() != PlainTextComponentSerializer.plainText().serialize(UNNAMED_WAYPOINT_COMPONENT);
+        return banner != null && banner.name() != null;
     }
 
     public boolean hasBannerItem(Waypoint waypoint) {
-        return getBannerItem(location) != MISSING_BANNER_ITEMSTACK;
+        return banner != null && !MISSING_BANNER.equals(banner);
     }
 }
@@ -2,119 +2,546 @@ package xyz.holocons.mc.waypoints;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonToken;
+
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+// Lookups come from every region thread. Each world's primitive-keyed maps sit behind a StampedLock that lookups only
+// read optimistically, so they neither block nor box, grid cells are small arrays replaced whole on write and the id
+// table is an atomic array, so no write copies more than one cell. Writers take writeLock to keep the chunk claim and
+// the id bookkeeping consistent.
 public class WaypointManager {
 
     public static final String FILENAME = "waypoint.json";
-    private final HashMap<Long, Waypoint> waypoints;
+    public static final String BINARY_FILENAME = "waypoint.dat";
+    // Side length of a grid cell is 2^GRID_CELL_SHIFT chunks
+    private static final int GRID_CELL_SHIFT = 3;
+
+    // One world's waypoints by chunk, and by grid cell for radius queries. Changed with the write lock held, read
+    // optimistically and only under the read lock when a write got in between.
+    private static final class WorldIndex {
+
+        private final StampedLock lock;
+        private final Long2ObjectOpenHashMap<Waypoint> chunks;
+        private final Long2ObjectOpenHashMap<Waypoint[]> cells;
+
+        private WorldIndex() {
+            this.lock = new StampedLock();
+            this.chunks = new Long2ObjectOpenHashMap<>();
+            this.cells = new Long2ObjectOpenHashMap<>();
+        }
+
+        private <V> V get(Long2ObjectOpenHashMap<V> map, long key) {
+            final var stamp = lock.tryOptimisticRead();
+
+            if (stamp != 0) {
+                try {
+                    final var value = map.get(key);
+
+                    if (lock.validate(stamp)) {
+                        return value;
+                    }
+                } catch (RuntimeException e) {
+                    // A rehash got in between, the read lock below sees a consistent map
+                }
+            }
+
+            final var readStamp = lock.readLock();
+
+            try {
+                return map.get(key);
+            } finally {
+                lock.unlockRead(readStamp);
+            }
+        }
+
+        private void put(Waypoint waypoint) {
+            final var stamp = lock.writeLock();
+
+            try {
+                // The grid goes first, so a waypoint that can be found by chunk can also be found by radius
+                cells.merge(getCellKey(waypoint), new Waypoint[] {waypoint}, WaypointManager::concat);
+                chunks.put(waypoint.getChunkKey(), waypoint);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void remove(Waypoint waypoint) {
+            final var stamp = lock.writeLock();
+
+            try {
+                chunks.remove(waypoint.getChunkKey(), waypoint);
+                cells.computeIfPresent(getCellKey(waypoint), (cellKey, cell) -> {
+                    final var remaining = Arrays.stream(cell)
+                        .filter(cellWaypoint -> cellWaypoint != waypoint)
+                        .toArray(Waypoint[]::new);
+
+                    return remaining.length > 0 ? remaining : null;
+                });
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private final Object writeLock;
+    // World UID -> the world's waypoints
+    private final ConcurrentHashMap<UUID, WorldIndex> worlds;
+    // Dense id -> waypoint table, with a stack of ids freed by removed waypoints. Only replaced to grow, under
+    // writeLock, so an element set in the current table is never lost.
+    private volatile AtomicReferenceArray<Waypoint> waypointsById;
+    // The free ids, nextId and the partition are guarded by writeLock
+    private final IntArrayList freeIds;
+    private int nextId;
+    // New ids are the ones equal to idPartition modulo idPartitions, so synced servers never hand out the same id
+    private int idPartition;
+    private int idPartitions;
+    // Rebuilt lazily after a name, activation or removal changes it, guarded by this
+    private WaypointNameIndex nameIndex;
 
     public WaypointManager() {
-        this.waypoints = new HashMap<>();
+        this.writeLock = new Object();
+        this.worlds = new ConcurrentHashMap<>();
+        this.waypointsById = new AtomicReferenceArray<>(64);
+        this.freeIds = new IntArrayList();
+        this.nextId = 0;
+        this.idPartition = 0;
+        this.idPartitions = 1;
+        this.nameIndex = null;
     }
 
-    public void loadWaypoints(PaperPlugin plugin) throws IOException {
-        final var file = new File(plugin.getDataFolder(), FILENAME);
+    public void setIdPartition(int partition, int partitions) {
+        synchronized (writeLock) {
+            this.idPartition = partition;
+            this.idPartitions = partitions;
+        }
+    }
+
+    // Reads the waypoint data without touching the indexes or any world, so it can run on a loader thread. Null when
+    // there's no data yet.
+    static List<Waypoint> readWaypoints(PaperPlugin plugin) throws IOException {
+        final var storage = plugin.getStorage();
+        final var loadedWaypoints = storage.readWaypoints();
+
+        // JSON data is imported when there's no data in the configured storage yet
+        if (loadedWaypoints == null && !(storage instanceof JsonStorage)) {
+            return new JsonStorage(plugin).readWaypoints();
+        }
+
+        return loadedWaypoints;
+    }
 
-        if (!file.exists()) {
+    // Main thread only, replaces the indexes with waypoints read by readWaypoints
+    public void publishWaypoints(List<Waypoint> loadedWaypoints) throws IOException {
+        if (loadedWaypoints == null) {
             return;
         }
 
-        if (!waypoints.isEmpty()) {
+        // Waypoints are indexed by world UUID, which schema v1 locations only get once their world is looked up
+        for (var waypoint : loadedWaypoints) {
+            if (!waypoint.getStoredLocation().isBound()) {
+                waypoint.bindWorld();
+            }
+        }
+
+        final var loadedIds = new BitSet();
+
+        for (var waypoint : loadedWaypoints) {
+            final var id = waypoint.getId();
+
+            if (loadedIds.get(id)) {
+                throw new IOException("Duplicate waypoint id " + id);
+            }
+
+            loadedIds.set(id);
+        }
+
+        synchronized (writeLock) {
             clearWaypoints();
+            growIdTable(loadedIds.length());
+
+            for (var waypoint : loadedWaypoints) {
+                putWaypoint(waypoint);
+            }
+
+            nextId = loadedIds.length();
+
+            // Ids below the highest loaded id that aren't in use can be handed out again, lowest first
+            for (int id = nextId - 1; id >= 0; id--) {
+                if (!loadedIds.get(id)) {
+                    freeIds.add(id);
+                }
+            }
         }
+    }
+
+    static List<Waypoint> readWaypointsJson(Gson gson, File file) throws IOException {
+        final var loadedWaypoints = new ArrayList<Waypoint>();
 
-        final var reader = new GsonReader(plugin.getGson(), file);
+        final var reader = new GsonReader(gson, file);
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            // Schema v1 is a bare array, it's rewritten as v2 on the next save
+            readWaypointsJson(reader, loadedWaypoints);
+        } else {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "version"   -> reader.nextVersion();
+                    case "worlds"    -> reader.nextWorlds();
+                    case "waypoints" -> readWaypointsJson(reader, loadedWaypoints);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.close();
+
+        return loadedWaypoints;
+    }
+
+    private static void readWaypointsJson(GsonReader reader, List<Waypoint> loadedWaypoints) throws IOException {
         reader.beginArray();
         while (reader.hasNext()) {
-            var waypoint = reader.nextWaypoint();
-            var chunkKey = waypoint.getChunkKey();
-            waypoints.put(chunkKey, waypoint);
+            final var waypoint = reader.nextWaypoint();
+
+            if (waypoint != null) {
+                loadedWaypoints.add(waypoint);
+            }
         }
         reader.endArray();
-        reader.close();
     }
 
     public void saveWaypoints(PaperPlugin plugin) throws IOException {
+        saveWaypoints(plugin, snapshotWaypoints());
+    }
+
+    // Safe to call off the main thread with a snapshot
+    public static void saveWaypoints(PaperPlugin plugin, List<Waypoint> waypoints) throws IOException {
         if (waypoints.isEmpty()) {
             return;
         }
 
-        final var file = new File(plugin.getDataFolder(), FILENAME);
+        plugin.getStorage().saveWaypoints(waypoints);
+    }
 
-        final var writer = new GsonWriter(plugin.getGson(), file);
+    // JSON is always available for exporting, whatever the storage format. Exports get their own name, so they never
+    // replace or race the data files of the JSON storage.
+    public static File exportWaypointsJson(PaperPlugin plugin, String prefix, List<Waypoint> waypoints)
+            throws IOException {
+        final var file = new File(plugin.getDataFolder(), prefix + FILENAME);
+        writeWaypointsJson(plugin.getGson(), file, waypoints);
+        return file;
+    }
+
+    static void writeWaypointsJson(Gson gson, File file, List<Waypoint> waypoints) throws IOException {
+        final var locations = new ArrayList<StoredLocation>(waypoints.size());
+        for (var waypoint : waypoints) {
+            locations.add(waypoint.getStoredLocation());
+        }
+
+        final var writer = new GsonWriter(gson, file);
+        writer.beginObject();
+        writer.header(locations);
+        writer.name("waypoints");
         writer.beginArray();
-        for (var waypoint : waypoints.values()) {
+        for (var waypoint : waypoints) {
             writer.value(waypoint);
         }
         writer.endArray();
+        writer.endObject();
         writer.close();
     }
 
+    // Copies the waypoints for saving, so they can be serialized while the originals keep changing. Takes their dirty
+    // flags, the copies tell the storage which waypoints changed since the last snapshot.
+    public List<Waypoint> snapshotWaypoints() {
+        return getWaypoints().map(Waypoint::snapshot).toList();
+    }
+
+    // Copies the waypoints without touching their dirty flags, for anything that isn't a save
+    public List<Waypoint> copyWaypoints() {
+        return getWaypoints().map(Waypoint::copy).toList();
+    }
+
     public void clearWaypoints() {
-        waypoints.clear();
+        synchronized (writeLock) {
+            worlds.clear();
+            waypointsById = new AtomicReferenceArray<>(64);
+            freeIds.clear();
+            nextId = 0;
+            invalidateNameIndex();
+        }
     }
 
-    public Waypoint getWaypoint(long chunkKey) {
-        return waypoints.get(chunkKey);
+    // With writeLock held
+    private void putWaypoint(Waypoint waypoint) {
+        worlds.computeIfAbsent(waypoint.getWorldId(), key -> new WorldIndex()).put(waypoint);
+
+        final var id = waypoint.getId();
+        growIdTable(id + 1);
+        waypointsById.set(id, waypoint);
+        invalidateNameIndex();
+    }
+
+    // With writeLock held, doubles the id table until it fits the given number of ids
+    private void growIdTable(int length) {
+        final var byId = waypointsById;
+
+        if (length <= byId.length()) {
+            return;
+        }
+
+        final var grown = new AtomicReferenceArray<Waypoint>(Math.max(length, byId.length() * 2));
+
+        for (int id = 0; id < byId.length(); id++) {
+            grown.set(id, byId.get(id));
+        }
+
+        waypointsById = grown;
+    }
+
+    private static Waypoint[] concat(Waypoint[] cell, Waypoint[] added) {
+        final var merged = Arrays.copyOf(cell, cell.length + added.length);
+        System.arraycopy(added, 0, merged, cell.length, added.length);
+        return merged;
+    }
+
+    // Every id below nextId is either in use or on the free list
+    public int getWaypointCount() {
+        synchronized (writeLock) {
+            return nextId - freeIds.size();
+        }
+    }
+
+    public Waypoint getWaypoint(int id) {
+        final var byId = waypointsById;
+        return id >= 0 && id < byId.length() ? byId.get(id) : null;
+    }
+
+    public Waypoint getWaypoint(World world, long chunkKey) {
+        return getWaypoint(world.getUID(), chunkKey);
+    }
+
+    public Waypoint getWaypoint(UUID worldId, long chunkKey) {
+        final var worldIndex = worlds.get(worldId);
+
+        return worldIndex != null ? worldIndex.get(worldIndex.chunks, chunkKey) : null;
+    }
+
+    // Visits every waypoint whose chunk is at most chunkRadius chunks away on both axes
+    public void forEachWaypointNear(World world, int chunkX, int chunkZ, int chunkRadius, Consumer<Waypoint> action) {
+        final var worldIndex = worlds.get(world.getUID());
+
+        if (worldIndex == null) {
+            return;
+        }
+
+        final var minCellX = (chunkX - chunkRadius) >> GRID_CELL_SHIFT;
+        final var maxCellX = (chunkX + chunkRadius) >> GRID_CELL_SHIFT;
+        final var minCellZ = (chunkZ - chunkRadius) >> GRID_CELL_SHIFT;
+        final var maxCellZ = (chunkZ + chunkRadius) >> GRID_CELL_SHIFT;
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                final var cell = worldIndex.get(worldIndex.cells, Chunk.getChunkKey(cellX, cellZ));
+
+                if (cell == null) {
+                    continue;
+                }
+
+                for (final var waypoint : cell) {
+                    if (Math.abs(waypoint.getChunkX() - chunkX) <= chunkRadius
+                        && Math.abs(waypoint.getChunkZ() - chunkZ) <= chunkRadius) {
+                        action.accept(waypoint);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long getCellKey(Waypoint waypoint) {
+        return Chunk.getChunkKey(waypoint.getChunkX() >> GRID_CELL_SHIFT, waypoint.getChunkZ() >> GRID_CELL_SHIFT);
     }
 
     public Waypoint getNearbyWaypoint(Location location) {
-        return getWaypoint(Chunk.getChunkKey(location));
+        return getWaypoint(location.getWorld(), Chunk.getChunkKey(location));
     }
 
     public Waypoint getNearbyWaypoint(Block block) {
-        return getNearbyWaypoint(block.getLocation());
+        return getWaypoint(block.getWorld(), Chunk.getChunkKey(block.getX() >> 4, block.getZ() >> 4));
     }
 
+    // Called from the thread that owns the location, which reads the banner. Two regions can't claim the same chunk.
     public Waypoint createWaypoint(Location location) {
-        if (getNearbyWaypoint(location) != null) {
-            return null;
-        }
+        synchronized (writeLock) {
+            if (getNearbyWaypoint(location) != null) {
+                return null;
+            }
 
-        var waypoint = new Waypoint(getAvailableId(), location, null, false);
-        var chunkKey = waypoint.getChunkKey();
-        waypoints.put(chunkKey, waypoint);
+            var waypoint = new Waypoint(getAvailableId(), location, null, false, null);
+            waypoint.refreshBanner();
+            putWaypoint(waypoint);
 
-        return waypoint;
+            return waypoint;
+        }
     }
 
     public Waypoint createWaypoint(Block block) {
         return createWaypoint(block.getLocation());
     }
 
+    // Puts a waypoint back under its own id, for replaying the journal. Returns false if the id or chunk is taken.
+    public boolean restoreWaypoint(Waypoint waypoint) {
+        synchronized (writeLock) {
+            final var id = waypoint.getId();
+            final var worldIndex = worlds.get(waypoint.getWorldId());
+
+            if (getWaypoint(id) != null
+                || worldIndex != null && worldIndex.get(worldIndex.chunks, waypoint.getChunkKey()) != null) {
+                return false;
+            }
+
+            if (id < nextId) {
+                freeIds.rem(id);
+            } else {
+                // Ids skipped over can still be handed out
+                for (int skipped = id - 1; skipped >= nextId; skipped--) {
+                    freeIds.add(skipped);
+                }
+                nextId = id + 1;
+            }
+
+            putWaypoint(waypoint);
+            return true;
+        }
+    }
+
+    // With writeLock held
     private int getAvailableId() {
-        return waypoints.values().stream()
-            .mapToInt(Waypoint::getId)
-            .max()
-            .orElse(-1) + 1;
+        // Freed ids are on top of the stack lowest first, only the ones in this server's partition can be reused
+        for (int i = freeIds.size() - 1; i >= 0; i--) {
+            final var id = freeIds.getInt(i);
+
+            if (id % idPartitions == idPartition) {
+                freeIds.removeInt(i);
+                return id;
+            }
+        }
+
+        var id = nextId;
+
+        while (id % idPartitions != idPartition) {
+            id++;
+        }
+
+        // Ids skipped over belong to other servers, which may still create them
+        for (int skipped = id - 1; skipped >= nextId; skipped--) {
+            freeIds.add(skipped);
+        }
+
+        nextId = id + 1;
+        return id;
     }
 
+    // The id of a removed waypoint is reused by the next created waypoint, so it must already be unregistered from
+    // every traveler (inactive waypoints can't be registered in the first place)
     public void removeWaypoint(Waypoint waypoint) {
-        waypoints.remove(waypoint.getChunkKey());
+        synchronized (writeLock) {
+            final var worldIndex = worlds.get(waypoint.getWorldId());
+
+            if (worldIndex != null) {
+                worldIndex.remove(waypoint);
+            }
+
+            final var id = waypoint.getId();
+
+            if (getWaypoint(id) == waypoint) {
+                waypointsById.set(id, null);
+                freeIds.add(id);
+            }
+
+            invalidateNameIndex();
+        }
+    }
+
+    public void activateWaypoint(Waypoint waypoint) {
+        waypoint.activate();
+        invalidateNameIndex();
+    }
+
+    public void refreshBanner(Waypoint waypoint) {
+        if (waypoint.refreshBanner()) {
+            invalidateNameIndex();
+        }
     }
 
     public boolean isWaypoint(Location location) {
         var waypoint = getNearbyWaypoint(location);
 
-        return waypoint != null && waypoint.getLocation().equals(location);
+        return waypoint != null
+            && waypoint.getBlockKey() == Block.getBlockKey(location.getBlockX(), location.getBlockY(), location.getBlockZ());
     }
 
     public boolean isWaypoint(Block block) {
-        return isWaypoint(block.getLocation());
+        var waypoint = getNearbyWaypoint(block);
+
+        return waypoint != null && waypoint.getBlockKey() == block.getBlockKey();
+    }
+
+    public Stream<Waypoint> getWaypoints() {
+        // The id table holds the same waypoints and can be walked without any lock
+        final var byId = waypointsById;
+
+        return IntStream.range(0, byId.length())
+            .mapToObj(byId::get)
+            .filter(Objects::nonNull);
+    }
+
+    public Stream<Waypoint> getWaypoints(BitSet ids) {
+        return ids.stream()
+            .mapToObj(this::getWaypoint)
+            .filter(Objects::nonNull);
     }
 
     public Stream<Waypoint> getActiveWaypoints() {
-        return waypoints.values().stream()
+        return getWaypoints()
             .filter(Waypoint::isActive);
     }
 
     public Stream<Waypoint> getNamedWaypoints() {
         return getActiveWaypoints().filter(Waypoint::hasName);
     }
+
+    public synchronized WaypointNameIndex getNameIndex() {
+        if (nameIndex == null) {
+            nameIndex = new WaypointNameIndex(getNamedWaypoints());
+        }
+
+        return nameIndex;
+    }
+
+    private synchronized void invalidateNameIndex() {
+        nameIndex = null;
+    }
 }
@@ -0,0 +1,110 @@
+package xyz.holocons.mc.waypoints;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Case-insensitive index of waypoint names, kept as a sorted array so exact and prefix lookups are binary searches.
+// Duplicate names are ordered by waypoint id.
+public class WaypointNameIndex {
+
+    public static final Comparator<Waypoint> ORDER = Comparator
+        .comparing((Waypoint waypoint) -> toKey(waypoint.getName()))
+        .thenComparingInt(Waypoint::getId);
+
+    private final String[] keys;
+    private final Waypoint[] waypoints;
+
+    public WaypointNameIndex(Stream<Waypoint> waypoints) {
+        this.waypoints = waypoints
+            .sorted(ORDER)
+            .toArray(Waypoint[]::new);
+        this.keys = Arrays.stream(this.waypoints)
+            .map(waypoint -> toKey(waypoint.getName()))
+            .toArray(String[]::new);
+    }
+
+    public static String toKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    // Waypoints whose name equals the given name, ignoring case
+    public Stream<Waypoint> getWaypoints(String name) {
+        final var key = toKey(name);
+        final var from = lowerBound(key);
+        var to = from;
+
+        while (to < keys.length && keys[to].equals(key)) {
+            to++;
+        }
+
+        return range(from, to);
+    }
+
+    // Waypoints whose name starts with the given prefix, ignoring case
+    public Stream<Waypoint> getWaypointsByPrefix(String prefix) {
+        final var key = toKey(prefix);
+        final var from = lowerBound(key);
+
+        return range(from, prefixUpperBound(key, from));
+    }
+
+    // Number of waypoints getWaypointsByPrefix would return, without visiting them
+    public int countByPrefix(String prefix) {
+        final var key = toKey(prefix);
+        final var from = lowerBound(key);
+
+        return prefixUpperBound(key, from) - from;
+    }
+
+    // Whether the waypoint would be returned by getWaypointsByPrefix, it doesn't have to be in the index
+    public static boolean matchesPrefix(Waypoint waypoint, String prefix) {
+        return waypoint.isActive() && waypoint.hasName() && toKey(waypoint.getName()).startsWith(toKey(prefix));
+    }
+
+    private Stream<Waypoint> range(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> waypoints[i]);
+    }
+
+    // First index whose key is not less than the given key
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+
+        while (low < high) {
+            final var mid = (low + high) >>> 1;
+
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    // Keys starting with the prefix are contiguous from the lower bound, so find the first one after them
+    private int prefixUpperBound(String prefix, int from) {
+        int low = from;
+        int high = keys.length;
+
+        while (low < high) {
+            final var mid = (low + high) >>> 1;
+
+            if (keys[mid].startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,106 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.block.banner.Pattern;
+import org.bukkit.block.banner.PatternType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+
+class BinaryRoundTripTest {
+
+    private static final UUID WORLD_ID = UUID.nameUUIDFromBytes("world".getBytes());
+    private static final UUID NETHER_ID = UUID.nameUUIDFromBytes("world_nether".getBytes());
+
+    @TempDir
+    File folder;
+
+    @Test
+    void readsWaypointsAsWritten() throws IOException {
+        final var contributors = new ArrayList<>(List.of(UUID.randomUUID(), UUID.randomUUID()));
+        final var banner = new Waypoint.Banner(Material.RED_BANNER, Component.text("Spawn", NamedTextColor.GOLD),
+            List.of(new Pattern(DyeColor.BLACK, PatternType.BORDER), new Pattern(DyeColor.WHITE, PatternType.CROSS)));
+        final var waypoints = List.of(
+            new Waypoint(0, new StoredLocation(WORLD_ID, "world", 1.5, 64, -20.25), contributors, true, banner),
+            new Waypoint(3, new StoredLocation(NETHER_ID, "world_nether", -100, 40, 7), null, false, null),
+            new Waypoint(7, new StoredLocation(WORLD_ID, "world", 300, 70, 300), null, true,
+                new Waypoint.Banner(Material.WHITE_BANNER, null, null)));
+        final var file = new File(folder, "waypoints.dat");
+
+        BinaryWriter.writeWaypoints(file, waypoints);
+        final var read = BinaryReader.readWaypoints(file);
+
+        assertEquals(waypoints.size(), read.size());
+
+        for (int i = 0; i < waypoints.size(); i++) {
+            final var expected = waypoints.get(i);
+            final var actual = read.get(i);
+
+            assertEquals(expected.getId(), actual.getId());
+            assertLocationEquals(expected.getStoredLocation(), actual.getStoredLocation());
+            assertEquals(expected.isActive(), actual.isActive());
+            assertEquals(expected.getContributors(), actual.getContributors());
+            assertEquals(expected.getBanner(), actual.getBanner());
+        }
+    }
+
+    @Test
+    void readsTravelersAsWritten() throws IOException {
+        final var waypoints = new BitSet();
+        waypoints.set(0);
+        waypoints.set(65);
+        waypoints.set(1000);
+
+        final var travelers = new LinkedHashMap<UUID, Traveler>();
+        final var first = UUID.randomUUID();
+        final var second = UUID.randomUUID();
+        travelers.put(first, new Traveler(2, 5, new StoredLocation(WORLD_ID, "world", 10, 64, 10),
+            new StoredLocation(NETHER_ID, "world_nether", -3, 33, 4), waypoints, 1000, 2000));
+        travelers.put(second, new Traveler(0, 0, null, null, null, 3000, 4000));
+        final var file = new File(folder, "travelers.dat");
+
+        BinaryWriter.writeTravelers(file, travelers);
+        final var read = BinaryReader.readTravelers(file);
+
+        assertEquals(travelers.keySet(), read.keySet());
+
+        final var firstRead = read.get(first);
+        assertEquals(2, firstRead.getStoredCharges());
+        assertEquals(5, firstRead.getTokens());
+        assertEquals(1000, firstRead.getRegenTime());
+        assertEquals(2000, firstRead.getPauseTime());
+        assertLocationEquals(travelers.get(first).getStoredHome(), firstRead.getStoredHome());
+        assertLocationEquals(travelers.get(first).getStoredCamp(), firstRead.getStoredCamp());
+        assertEquals(waypoints, firstRead.getWaypoints());
+
+        final var secondRead = read.get(second);
+        assertEquals(0, secondRead.getStoredCharges());
+        assertEquals(3000, secondRead.getRegenTime());
+        assertEquals(4000, secondRead.getPauseTime());
+        assertNull(secondRead.getStoredHome());
+        assertNull(secondRead.getStoredCamp());
+        assertEquals(new BitSet(), secondRead.getWaypoints());
+    }
+
+    static void assertLocationEquals(StoredLocation expected, StoredLocation actual) {
+        assertEquals(expected.getWorldId(), actual.getWorldId());
+        assertEquals(expected.getWorldName(), actual.getWorldName());
+        assertEquals(expected.getX(), actual.getX());
+        assertEquals(expected.getY(), actual.getY());
+        assertEquals(expected.getZ(), actual.getZ());
+    }
+}
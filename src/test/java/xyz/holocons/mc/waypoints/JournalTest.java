@@ -0,0 +1,152 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Runs the plugin on the load simulator's server. Bukkit only takes one server per JVM, so the tests share it and
+// enable a plugin of their own on it.
+class JournalTest {
+
+    private static SimulatedServer server;
+    private static World world;
+
+    @TempDir
+    File dataFolder;
+
+    @BeforeAll
+    static void createServer() {
+        server = new SimulatedServer();
+        world = server.createWorld("world");
+    }
+
+    @Test
+    void readsRecordsAsWritten() throws Exception {
+        final var plugin = server.enablePlugin(dataFolder);
+
+        try {
+            final var uniqueId = UUID.randomUUID();
+            final var waypoint = new Waypoint(0, new Location(world, 16, 64, 32), null, false, null);
+            final var home = new StoredLocation(world.getUID(), world.getName(), -5.5, 70, 12.25);
+            final var traveler = new Traveler(2, 0, null, null, null, 1000, 2000);
+
+            writeRecords(plugin.getJournal(), uniqueId, waypoint, home, traveler);
+            final var entries = Journal.readEntries(plugin);
+
+            assertEquals(List.of(Journal.Type.CREATE_WAYPOINT, Journal.Type.ACTIVATE_WAYPOINT,
+                Journal.Type.ADD_CONTRIBUTOR, Journal.Type.REGISTER_WAYPOINT, Journal.Type.SET_TOKENS,
+                Journal.Type.SET_HOME, Journal.Type.SET_CHARGES, Journal.Type.REMOVE_CONTRIBUTOR),
+                entries.stream().map(Journal.Entry::type).toList());
+
+            final var created = entries.get(0);
+            assertEquals(0, created.waypointId());
+            BinaryRoundTripTest.assertLocationEquals(waypoint.getStoredLocation(), created.location());
+
+            final var contributor = entries.get(2);
+            assertEquals(0, contributor.waypointId());
+            assertEquals(uniqueId, contributor.uniqueId());
+
+            final var tokens = entries.get(4);
+            assertEquals(uniqueId, tokens.uniqueId());
+            assertEquals(4, tokens.value());
+
+            BinaryRoundTripTest.assertLocationEquals(home, entries.get(5).location());
+
+            final var charges = entries.get(6);
+            assertEquals(new Journal.Entry(Journal.Type.SET_CHARGES, -1, uniqueId, 2, null, 1000, 2000), charges);
+        } finally {
+            server.disablePlugin(plugin);
+        }
+    }
+
+    @Test
+    void skipsSegmentsASaveCovers() throws Exception {
+        final var plugin = server.enablePlugin(dataFolder);
+
+        try {
+            final var journal = plugin.getJournal();
+            journal.setTokens(UUID.randomUUID(), 1);
+            final var last = journal.rotate().get(10, TimeUnit.SECONDS);
+
+            assertEquals(1, Journal.readEntries(plugin).size());
+
+            Files.writeString(new File(dataFolder, "journal.saved").toPath(), Long.toString(last));
+
+            assertEquals(0, Journal.readEntries(plugin).size());
+        } finally {
+            server.disablePlugin(plugin);
+        }
+    }
+
+    @Test
+    void replaysRecordsLeftByACrash() throws Exception {
+        final var uniqueId = UUID.randomUUID();
+        final var waypoint = new Waypoint(0, new Location(world, 16, 64, 32), null, false, null);
+        final var home = new StoredLocation(world.getUID(), world.getName(), -5.5, 70, 12.25);
+        final var traveler = new Traveler(2, 0, null, null, null, 1000, 2000);
+        final var crashedFolder = new File(dataFolder, "crashed");
+        final var replayFolder = new File(dataFolder, "replayed");
+        final var plugin = server.enablePlugin(crashedFolder);
+
+        replayFolder.mkdirs();
+
+        try {
+            writeRecords(plugin.getJournal(), uniqueId, waypoint, home, traveler);
+
+            // The final save on disable deletes the segments, a crash would have left them behind
+            for (final var file : crashedFolder.listFiles((dir, name) -> name.startsWith("journal-"))) {
+                Files.copy(file.toPath(), new File(replayFolder, file.getName()).toPath());
+            }
+        } finally {
+            server.disablePlugin(plugin);
+        }
+
+        final var replayed = server.enablePlugin(replayFolder);
+
+        try {
+            final var restored = replayed.getWaypointManager().getWaypoint(0);
+            assertNotNull(restored);
+            assertTrue(restored.isActive());
+            BinaryRoundTripTest.assertLocationEquals(waypoint.getStoredLocation(), restored.getStoredLocation());
+            assertEquals(List.of(), restored.getContributors());
+
+            final var restoredTraveler = replayed.getTravelerManager().getOrCreateTraveler(uniqueId);
+            assertTrue(restoredTraveler.hasWaypoint(restored));
+            assertEquals(4, restoredTraveler.getTokens());
+            BinaryRoundTripTest.assertLocationEquals(home, restoredTraveler.getStoredHome());
+            assertEquals(traveler.getChargeState(), restoredTraveler.getChargeState());
+        } finally {
+            server.disablePlugin(replayed);
+        }
+    }
+
+    // Returns once every record is on disk
+    private static void writeRecords(Journal journal, UUID uniqueId, Waypoint waypoint, StoredLocation home,
+            Traveler traveler) throws InterruptedException, ExecutionException, TimeoutException {
+        journal.createWaypoint(waypoint);
+        journal.activateWaypoint(waypoint);
+        journal.addContributor(waypoint, uniqueId);
+        journal.registerWaypoint(uniqueId, waypoint);
+        journal.setTokens(uniqueId, 4);
+        journal.setHome(uniqueId, home);
+        journal.setCharges(uniqueId, traveler);
+        journal.removeContributor(waypoint, uniqueId);
+
+        // The writer closes the segment before completing the rotation
+        journal.rotate().get(10, TimeUnit.SECONDS);
+    }
+}
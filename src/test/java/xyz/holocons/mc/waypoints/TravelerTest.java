@@ -0,0 +1,102 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import xyz.holocons.mc.waypoints.Traveler.ChargeState;
+
+class TravelerTest {
+
+    private static final int MAX_CHARGES = 3;
+    private static final long REGEN_CHARGE_TIME = 1000;
+
+    @Test
+    void regeneratesWholeChargesAndKeepsTheRemainder() {
+        final var state = Traveler.regenCharges(new ChargeState(0, 0, 0), MAX_CHARGES, REGEN_CHARGE_TIME, 2500);
+
+        assertEquals(new ChargeState(2, 2000, 0), state);
+    }
+
+    @Test
+    void leavesTheStateAloneBeforeACharge() {
+        final var state = new ChargeState(1, 0, 0);
+
+        assertSame(state, Traveler.regenCharges(state, MAX_CHARGES, REGEN_CHARGE_TIME, 999));
+    }
+
+    @Test
+    void stopsAtMaxCharges() {
+        final var state = Traveler.regenCharges(new ChargeState(1, 0, 0), MAX_CHARGES, REGEN_CHARGE_TIME, 10000);
+
+        assertEquals(new ChargeState(MAX_CHARGES, 10000, 0), state);
+    }
+
+    @Test
+    void restartsRegenerationWhileFull() {
+        final var state = Traveler.regenCharges(new ChargeState(MAX_CHARGES, 0, 0), MAX_CHARGES, REGEN_CHARGE_TIME,
+            5000);
+
+        assertEquals(new ChargeState(MAX_CHARGES, 5000, 0), state);
+    }
+
+    @Test
+    void regeneratesOnlyUntilPaused() {
+        final var state = Traveler.regenCharges(new ChargeState(0, 0, 1500), MAX_CHARGES, REGEN_CHARGE_TIME, 10000);
+
+        assertEquals(new ChargeState(1, 1000, 1500), state);
+    }
+
+    @Test
+    void fillsUpWithoutARegenerationTime() {
+        final var state = Traveler.regenCharges(new ChargeState(0, 0, 0), MAX_CHARGES, 0, 10);
+
+        assertEquals(new ChargeState(MAX_CHARGES, 10, 0), state);
+    }
+
+    @Test
+    void takesChargesUntilNoneAreLeft() {
+        final var traveler = createTraveler(2, 0);
+
+        assertTrue(traveler.takeCharge(MAX_CHARGES, REGEN_CHARGE_TIME, 0));
+        assertTrue(traveler.takeCharge(MAX_CHARGES, REGEN_CHARGE_TIME, 0));
+        assertFalse(traveler.takeCharge(MAX_CHARGES, REGEN_CHARGE_TIME, 0));
+        assertEquals(0, traveler.getStoredCharges());
+    }
+
+    @Test
+    void takesARegeneratedCharge() {
+        final var traveler = createTraveler(0, 0);
+
+        assertFalse(traveler.takeCharge(MAX_CHARGES, REGEN_CHARGE_TIME, 999));
+        assertTrue(traveler.takeCharge(MAX_CHARGES, REGEN_CHARGE_TIME, 1500));
+        assertEquals(new ChargeState(0, 1000, 0), traveler.getChargeState());
+    }
+
+    @Test
+    void takingFromFullStartsRegeneratingFromNow() {
+        final var traveler = createTraveler(MAX_CHARGES, 0);
+
+        assertTrue(traveler.takeCharge(MAX_CHARGES, REGEN_CHARGE_TIME, 5000));
+        assertEquals(new ChargeState(MAX_CHARGES - 1, 5000, 0), traveler.getChargeState());
+    }
+
+    @Test
+    void takingAChargeMarksTheTravelerDirty() {
+        final var traveler = createTraveler(1, 0);
+        traveler.clearDirty();
+
+        assertTrue(traveler.takeCharge(MAX_CHARGES, REGEN_CHARGE_TIME, 0));
+        assertTrue(traveler.isDirty());
+    }
+
+    // Not paused, as if its player is online
+    private static Traveler createTraveler(int charges, long regenTime) {
+        final var traveler = new Traveler(0, 0, null, null, null, 0, 0);
+        traveler.setStoredCharges(charges, regenTime, 0);
+        return traveler;
+    }
+}
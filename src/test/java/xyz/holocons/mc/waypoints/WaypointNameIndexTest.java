@@ -0,0 +1,86 @@
+package xyz.holocons.mc.waypoints;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+import net.kyori.adventure.text.Component;
+
+class WaypointNameIndexTest {
+
+    private static final UUID WORLD_ID = UUID.nameUUIDFromBytes("world".getBytes());
+
+    private final WaypointNameIndex index = new WaypointNameIndex(Stream.of(
+        createWaypoint(4, "Spawn"),
+        createWaypoint(1, "spawn"),
+        createWaypoint(2, "Spawn Farm"),
+        createWaypoint(3, "Sakura"),
+        createWaypoint(5, "Mine")));
+
+    @Test
+    void findsNamesIgnoringCaseWithDuplicatesByIdOrder() {
+        assertEquals(List.of(1, 4), ids(index.getWaypoints("SPAWN")));
+    }
+
+    @Test
+    void findsNothingForAMissingName() {
+        assertEquals(List.of(), ids(index.getWaypoints("Spa")));
+        assertEquals(List.of(), ids(index.getWaypoints("zzz")));
+    }
+
+    @Test
+    void findsPrefixesInNameOrder() {
+        assertEquals(List.of(1, 4, 2), ids(index.getWaypointsByPrefix("sp")));
+        assertEquals(List.of(3, 1, 4, 2), ids(index.getWaypointsByPrefix("S")));
+        assertEquals(List.of(2), ids(index.getWaypointsByPrefix("spawn f")));
+    }
+
+    @Test
+    void findsEveryWaypointForAnEmptyPrefix() {
+        assertEquals(index.size(), index.getWaypointsByPrefix("").count());
+    }
+
+    @Test
+    void findsNothingPastTheLastName() {
+        assertEquals(List.of(), ids(index.getWaypointsByPrefix("t")));
+        assertEquals(List.of(), ids(index.getWaypointsByPrefix("a")));
+    }
+
+    @Test
+    void countsWhatThePrefixSearchReturns() {
+        for (final var prefix : List.of("", "s", "sp", "spawn", "spawn farm", "m", "x")) {
+            assertEquals(index.getWaypointsByPrefix(prefix).count(), index.countByPrefix(prefix), prefix);
+        }
+    }
+
+    @Test
+    void matchesPrefixesOfActiveNamedWaypoints() {
+        assertTrue(WaypointNameIndex.matchesPrefix(createWaypoint(6, "Spawn"), "sP"));
+        assertFalse(WaypointNameIndex.matchesPrefix(createWaypoint(6, "Spawn"), "m"));
+        assertFalse(WaypointNameIndex.matchesPrefix(new Waypoint(6, location(6), null, false,
+            new Waypoint.Banner(Material.WHITE_BANNER, Component.text("Spawn"), null)), "s"));
+        assertFalse(WaypointNameIndex.matchesPrefix(new Waypoint(6, location(6), null, true,
+            new Waypoint.Banner(Material.WHITE_BANNER, null, null)), ""));
+    }
+
+    private static List<Integer> ids(Stream<Waypoint> waypoints) {
+        return waypoints.map(Waypoint::getId).toList();
+    }
+
+    private static Waypoint createWaypoint(int id, String name) {
+        return new Waypoint(id, location(id), null, true,
+            new Waypoint.Banner(Material.WHITE_BANNER, Component.text(name), null));
+    }
+
+    // A chunk of its own for every id
+    private static StoredLocation location(int id) {
+        return new StoredLocation(WORLD_ID, "world", id * 16, 64, 0);
+    }
+}